@@ -27,6 +27,8 @@ import android.view.View;
 import android.view.WindowInsets;
 import android.view.inputmethod.EditorInfo;
 
+import java.util.List;
+
 import rkr.simplekeyboard.inputmethod.R;
 import rkr.simplekeyboard.inputmethod.event.Event;
 import rkr.simplekeyboard.inputmethod.keyboard.KeyboardLayoutSet.KeyboardLayoutSetException;
@@ -35,6 +37,7 @@ import rkr.simplekeyboard.inputmethod.keyboard.internal.KeyboardTextsSet;
 import rkr.simplekeyboard.inputmethod.latin.InputView;
 import rkr.simplekeyboard.inputmethod.latin.LatinIME;
 import rkr.simplekeyboard.inputmethod.latin.RichInputMethodManager;
+import rkr.simplekeyboard.inputmethod.latin.learning.KeyProximityTable;
 import rkr.simplekeyboard.inputmethod.latin.settings.Settings;
 import rkr.simplekeyboard.inputmethod.latin.settings.SettingsValues;
 import rkr.simplekeyboard.inputmethod.latin.utils.CapsModeUtils;
@@ -63,6 +66,9 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
     private KeyboardTheme mKeyboardTheme;
     private Context mThemeContext;
 
+    // The keyboard the key proximity for corrections was last built from.
+    private KeyboardId mKeyProximityKeyboardId;
+
     private static final KeyboardSwitcher sInstance = new KeyboardSwitcher();
 
     public static KeyboardSwitcher getInstance() {
@@ -160,6 +166,38 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
         final int languageOnSpacebarFormatType = LanguageOnSpacebarUtils
                 .getLanguageOnSpacebarFormatType(newKeyboard.mId.mSubtype);
         keyboardView.startDisplayLanguageOnSpacebar(subtypeChanged, languageOnSpacebarFormatType);
+        updateKeyProximity(newKeyboard);
+    }
+
+    /**
+     * Rebuilds the key proximity used for corrections when an alphabet keyboard with a different
+     * layout or size is shown. Shifted and symbol keyboards keep the current one.
+     */
+    private void updateKeyProximity(final Keyboard keyboard) {
+        final KeyboardId id = keyboard.mId;
+        if (!id.isAlphabetKeyboard()) {
+            return;
+        }
+        final KeyboardId lastId = mKeyProximityKeyboardId;
+        if (lastId != null && lastId.mSubtype.equals(id.mSubtype) && lastId.mWidth == id.mWidth
+                && lastId.mHeight == id.mHeight) {
+            return;
+        }
+        mKeyProximityKeyboardId = id;
+
+        final List<Key> keys = keyboard.getSortedKeys();
+        final int keyCount = keys.size();
+        final int[] codes = new int[keyCount];
+        final int[] centerX = new int[keyCount];
+        final int[] centerY = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            final Key key = keys.get(i);
+            codes[i] = key.getCode();
+            centerX[i] = key.getX() + key.getWidth() / 2;
+            centerY[i] = key.getY() + key.getHeight() / 2;
+        }
+        mLatinIME.onKeyProximityChanged(new KeyProximityTable(codes, centerX, centerY,
+                keyboard.mMostCommonKeyWidth));
     }
 
     public Keyboard getKeyboard() {
@@ -44,6 +44,7 @@ import android.view.inputmethod.EditorInfo;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
@@ -62,6 +63,7 @@ import rkr.simplekeyboard.inputmethod.keyboard.MainKeyboardView;
 import rkr.simplekeyboard.inputmethod.latin.common.Constants;
 import rkr.simplekeyboard.inputmethod.latin.define.DebugFlags;
 import rkr.simplekeyboard.inputmethod.latin.inputlogic.InputLogic;
+import rkr.simplekeyboard.inputmethod.latin.learning.KeyProximityTable;
 import rkr.simplekeyboard.inputmethod.latin.settings.Settings;
 import rkr.simplekeyboard.inputmethod.latin.settings.SettingsActivity;
 import rkr.simplekeyboard.inputmethod.latin.settings.SettingsValues;
@@ -116,6 +118,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         private static final int MSG_UPDATE_SHIFT_STATE = 0;
         private static final int MSG_PENDING_IMS_CALLBACK = 1;
         private static final int MSG_DEALLOCATE_MEMORY = 9;
+        private static final int MSG_SHOW_SUGGESTIONS = 10;
 
         public UIHandler(final LatinIME ownerInstance) {
             super(ownerInstance);
@@ -136,6 +139,11 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             case MSG_DEALLOCATE_MEMORY:
                 latinIme.deallocateMemory();
                 break;
+            case MSG_SHOW_SUGGESTIONS:
+                @SuppressWarnings("unchecked")
+                final List<String> suggestions = (List<String>) msg.obj;
+                latinIme.mInputLogic.onSuggestionsReady(msg.arg1, suggestions);
+                break;
             }
         }
 
@@ -149,6 +157,15 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                     DELAY_DEALLOCATE_MEMORY_MILLIS);
         }
 
+        /**
+         * Posts suggestions computed off the UI thread. Safe to call from any thread.
+         */
+        public void postShowSuggestions(final int generation,
+                final List<String> suggestions) {
+            removeMessages(MSG_SHOW_SUGGESTIONS);
+            sendMessage(obtainMessage(MSG_SHOW_SUGGESTIONS, generation, 0, suggestions));
+        }
+
         public void cancelDeallocateMemory() {
             removeMessages(MSG_DEALLOCATE_MEMORY);
         }
@@ -313,11 +330,18 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             mOptionsDialog.dismiss();
             mOptionsDialog = null;
         }
+        mInputLogic.onDestroy();
         mSettings.onDestroy();
         unregisterReceiver(mRingerModeChangeReceiver);
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        mInputLogic.onTrimMemory(level);
+    }
+
     private boolean isImeSuppressedByHardwareKeyboard() {
         final KeyboardSwitcher switcher = KeyboardSwitcher.getInstance();
         return !onEvaluateInputViewShown() && switcher.isImeSuppressedByHardwareKeyboard(
@@ -466,6 +490,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
 
     @Override
     public void onFinishInput() {
+        mInputLogic.onFinishInput();
         mHandler.onFinishInput();
     }
 
@@ -1179,7 +1204,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     /**
      * Updates the suggestion strip with new suggestions following Gboard model.
      */
-    public void updateSuggestionStrip(java.util.List<String> suggestions) {
+    public void updateSuggestionStrip(List<String> suggestions) {
         android.util.Log.d("CursorDebug", "updateSuggestionStrip() called with suggestions: " + suggestions);
         
         if (mSuggestionStrip != null && mTopContainer != null) {
@@ -1255,6 +1280,13 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         return mRichImm.shouldOfferSwitchingToOtherInputMethods(token);
     }
 
+    /**
+     * Called by the keyboard switcher when a keyboard with a different layout is shown.
+     */
+    public void onKeyProximityChanged(final KeyProximityTable table) {
+        mInputLogic.setKeyProximityTable(table);
+    }
+
     public boolean shouldShowLanguageSwitchKey() {
         if (mSettings.getCurrent().isLanguageSwitchKeyDisabled()) {
             return false;
@@ -16,21 +16,29 @@
 
 package rkr.simplekeyboard.inputmethod.latin.inputlogic;
 
+import android.content.ComponentCallbacks2;
 import android.os.SystemClock;
 import android.text.TextUtils;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.inputmethod.EditorInfo;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TreeSet;
 
 import rkr.simplekeyboard.inputmethod.event.Event;
 import rkr.simplekeyboard.inputmethod.event.InputTransaction;
 import rkr.simplekeyboard.inputmethod.latin.LatinIME;
 import rkr.simplekeyboard.inputmethod.latin.RichInputConnection;
+import rkr.simplekeyboard.inputmethod.latin.RichInputMethodManager;
+import rkr.simplekeyboard.inputmethod.latin.Subtype;
 import rkr.simplekeyboard.inputmethod.latin.common.Constants;
 import rkr.simplekeyboard.inputmethod.latin.common.StringUtils;
+import rkr.simplekeyboard.inputmethod.latin.learning.KeyProximityTable;
+import rkr.simplekeyboard.inputmethod.latin.learning.LearningQueue;
 import rkr.simplekeyboard.inputmethod.latin.learning.LocalLearningEngine;
+import rkr.simplekeyboard.inputmethod.latin.learning.SuggestionWorker;
 import rkr.simplekeyboard.inputmethod.latin.settings.SettingsValues;
 import rkr.simplekeyboard.inputmethod.latin.utils.InputTypeUtils;
 import rkr.simplekeyboard.inputmethod.latin.utils.EmailSuggestionProvider;
@@ -50,6 +58,9 @@ public final class InputLogic {
     
     // Learning engine for intelligent suggestions - initialized lazily
     private LocalLearningEngine mLearningEngine;
+    private LearningQueue mLearningQueue;
+    private SuggestionWorker mSuggestionWorker;
+    private KeyProximityTable mKeyProximityTable;
     
     // Email suggestion provider for proactive email completion - initialized lazily
     private EmailSuggestionProvider mEmailSuggestionProvider;
@@ -79,6 +90,17 @@ public final class InputLogic {
                 // Ensure we have a valid context before initializing
                 if (mLatinIME != null && mLatinIME.getApplicationContext() != null) {
                     mLearningEngine = LocalLearningEngine.getInstance(mLatinIME);
+                    mLearningQueue = new LearningQueue(mLearningEngine);
+                    mSuggestionWorker = new SuggestionWorker(mLearningEngine,
+                            new SuggestionWorker.Listener() {
+                                @Override
+                                public void onSuggestionsReady(final int generation,
+                                        final java.util.List<String> suggestions) {
+                                    mLatinIME.mHandler.postShowSuggestions(generation, suggestions);
+                                }
+                            });
+                    mLearningEngine.setKeyProximityTable(mKeyProximityTable);
+                    updateLearningLanguage();
                 } else {
                     // Context not ready yet, return null to defer initialization
                     return null;
@@ -92,6 +114,108 @@ public final class InputLogic {
         return mLearningEngine;
     }
 
+    /**
+     * Gets the queue that learns from input in the background, or null if the learning
+     * engine is not available.
+     */
+    private LearningQueue getLearningQueue() {
+        return getLearningEngine() != null ? mLearningQueue : null;
+    }
+
+    /**
+     * Points learning and suggestions at the language of the current subtype, which is loaded
+     * in the background the first time, and lets the engine forget the languages that are no
+     * longer enabled.
+     */
+    private void updateLearningLanguage() {
+        final RichInputMethodManager richImm = RichInputMethodManager.getInstance();
+        final Set<String> enabledLanguages = new HashSet<>();
+        for (final Subtype subtype : richImm.getEnabledSubtypes(false)) {
+            enabledLanguages.add(subtype.getLocaleObject().getLanguage());
+        }
+        mLearningQueue.setLanguages(richImm.getCurrentSubtype().getLocaleObject().getLanguage(),
+                enabledLanguages);
+    }
+
+    /**
+     * Call this when the system asks the input method to use less memory.
+     * @param level the trim memory level, see {@link ComponentCallbacks2}.
+     */
+    public void onTrimMemory(final int level) {
+        // Only when the device itself runs low: the keyboard being hidden is no reason to
+        // reload the other languages on the next switch
+        if (mLearningQueue != null && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mLearningQueue.trimMemory();
+        }
+    }
+
+    /**
+     * Call this when input finishes, to persist what was learned from it.
+     */
+    public void onFinishInput() {
+        if (mLearningQueue != null) {
+            mLearningQueue.flush();
+        }
+    }
+
+    /**
+     * Call this when a keyboard with a different layout is shown.
+     * @param table the key geometry of the new layout.
+     */
+    public void setKeyProximityTable(final KeyProximityTable table) {
+        mKeyProximityTable = table;
+        if (mLearningEngine != null) {
+            mLearningEngine.setKeyProximityTable(table);
+        }
+    }
+
+    /**
+     * Call this when the input method is destroyed.
+     */
+    public void onDestroy() {
+        if (mLearningQueue != null) {
+            mSuggestionWorker.shutdown();
+            mSuggestionWorker = null;
+            mLearningQueue.shutdown();
+            mLearningQueue = null;
+            mLearningEngine = null;
+        }
+    }
+
+    /**
+     * Shows suggestions computed by the suggestion worker, unless newer input made them stale.
+     * Called on the UI thread.
+     * @param generation the generation of the request the suggestions were computed for.
+     * @param suggestions the suggestions.
+     */
+    public void onSuggestionsReady(final int generation, final java.util.List<String> suggestions) {
+        if (mSuggestionWorker != null && mSuggestionWorker.isCurrent(generation)) {
+            mLatinIME.updateSuggestionStrip(suggestions);
+        }
+    }
+
+    /**
+     * Shows suggestions that did not come from the suggestion worker, dropping any request
+     * still in flight so that it cannot replace them.
+     */
+    private void showSuggestions(final java.util.List<String> suggestions) {
+        if (mSuggestionWorker != null) {
+            mSuggestionWorker.cancel();
+        }
+        mLatinIME.updateSuggestionStrip(suggestions);
+    }
+
+    /**
+     * Moves the learning engine's prefix cursor back to the start of a word.
+     */
+    private void resetPrefixCursor() {
+        LocalLearningEngine learningEngine = getLearningEngine();
+        if (learningEngine != null) {
+            learningEngine.resetPrefixCursor();
+        }
+    }
+
     /**
      * Gets the email suggestion provider, initializing it lazily if needed.
      */
@@ -111,6 +235,10 @@ public final class InputLogic {
         mRecapitalizeStatus.disable(); // Do not perform recapitalize until the cursor is moved once
         mCurrentlyPressedHardwareKeys.clear();
         mCurrentWord.setLength(0); // Clear current word tracking
+        resetPrefixCursor();
+        if (getLearningEngine() != null) {
+            mSuggestionWorker.setDebounceDelay(mLatinIME.getSettingsValues().mSuggestionDebounce);
+        }
         updateSuggestions(); // Show initial suggestions
     }
 
@@ -118,6 +246,9 @@ public final class InputLogic {
      * Call this when the subtype changes.
      */
     public void onSubtypeChanged() {
+        if (mLearningQueue != null) {
+            updateLearningLanguage();
+        }
         startInput();
     }
 
@@ -159,6 +290,7 @@ public final class InputLogic {
         if (cursorMoved) {
             // Reset current word tracking when cursor moves
             mCurrentWord.setLength(0);
+            resetPrefixCursor();
             // Trigger contextual suggestions based on new cursor position
             updateContextualSuggestions();
         }
@@ -372,19 +504,20 @@ public final class InputLogic {
         // Learn from completed word before handling separator
         if (mCurrentWord.length() > 0) {
             String completedWord = mCurrentWord.toString();
-            LocalLearningEngine learningEngine = getLearningEngine();
-            if (learningEngine != null) {
-                learningEngine.learnWord(completedWord);
+            LearningQueue learningQueue = getLearningQueue();
+            if (learningQueue != null) {
+                learningQueue.learnWord(completedWord);
                 
                 // Learn from context if we have previous text
                 String previousContext = getPreviousContext();
                 if (!TextUtils.isEmpty(previousContext)) {
-                    learningEngine.learnFromInput(previousContext + " " + completedWord);
+                    learningQueue.learnFromInput(previousContext + " " + completedWord);
                 }
             }
             
             mCurrentWord.setLength(0); // Clear current word
         }
+        resetPrefixCursor();
         
         // Check if this separator indicates sentence completion
         int codePoint = event.mCodePoint;
@@ -722,7 +855,7 @@ public final class InputLogic {
             // Learning engine not ready yet, provide empty suggestions
             java.util.List<String> emptySuggestions = new java.util.ArrayList<String>();
             android.util.Log.d("CursorDebug", "SUGGESTIONS generated (empty): " + emptySuggestions);
-            mLatinIME.updateSuggestionStrip(emptySuggestions);
+            showSuggestions(emptySuggestions);
             return;
         }
         
@@ -732,9 +865,8 @@ public final class InputLogic {
         if (wordAtCursor != null) {
             android.util.Log.d("CursorDebug", "Found word at cursor: '" + wordAtCursor.word + "'");
             // Cursor is on a word - provide corrections and completions
-            java.util.List<String> suggestions = learningEngine.getCorrectionsAndCompletions(wordAtCursor.word);
-            android.util.Log.d("CursorDebug", "SUGGESTIONS generated (word-based): " + suggestions);
-            mLatinIME.updateSuggestionStrip(suggestions);
+            final int generation = mSuggestionWorker.requestCorrections(wordAtCursor.word);
+            android.util.Log.d("CursorDebug", "SUGGESTIONS requested (word-based), generation " + generation);
         } else {
             android.util.Log.d("CursorDebug", "No word at cursor - falling back to next-word suggestions");
             // Cursor is not on a word (e.g., on space) - fall back to regular next-word suggestions
@@ -770,7 +902,7 @@ public final class InputLogic {
             // Learning engine not ready yet, provide empty suggestions
             java.util.List<String> emptySuggestions = new java.util.ArrayList<String>();
             android.util.Log.d("CursorDebug", "SUGGESTIONS generated (fallback empty): " + emptySuggestions);
-            mLatinIME.updateSuggestionStrip(emptySuggestions);
+            showSuggestions(emptySuggestions);
             return;
         }
         
@@ -784,15 +916,14 @@ public final class InputLogic {
             java.util.List<String> emailSuggestions = getEmailSuggestions(currentWord, previousContext);
             android.util.Log.d("CursorDebug", "SUGGESTIONS generated (email): " + emailSuggestions);
             if (!emailSuggestions.isEmpty()) {
-                mLatinIME.updateSuggestionStrip(emailSuggestions);
+                showSuggestions(emailSuggestions);
                 return;
             }
         }
         
         // Fall back to regular learning-based suggestions
-        java.util.List<String> suggestions = learningEngine.getSuggestions(currentWord, previousContext);
-        android.util.Log.d("CursorDebug", "SUGGESTIONS generated (learning-based): " + suggestions);
-        mLatinIME.updateSuggestionStrip(suggestions);
+        final int generation = mSuggestionWorker.requestSuggestions(currentWord, previousContext);
+        android.util.Log.d("CursorDebug", "SUGGESTIONS requested (learning-based), generation " + generation);
     }
 
     /**
@@ -979,26 +1110,27 @@ public final class InputLogic {
             
             // Learn from the selected suggestion (only if not special)
             if (!isSpecialSuggestion) {
-                LocalLearningEngine learningEngine = getLearningEngine();
-                if (learningEngine != null) {
-                    learningEngine.learnWord(actualText);
+                LearningQueue learningQueue = getLearningQueue();
+                if (learningQueue != null) {
+                    learningQueue.learnWord(actualText);
                     String previousContext = getPreviousContext();
                     if (!TextUtils.isEmpty(previousContext)) {
-                        learningEngine.learnFromInput(previousContext + " " + actualText);
+                        learningQueue.learnFromInput(previousContext + " " + actualText);
                     }
                 }
             }
             
             mCurrentWord.setLength(0);
+            resetPrefixCursor();
         } else {
             // Just insert the suggestion
             mConnection.commitText(actualText, 1);
             
             // Learn from the selected suggestion (only if not special)
             if (!isSpecialSuggestion) {
-                LocalLearningEngine learningEngine = getLearningEngine();
-                if (learningEngine != null) {
-                    learningEngine.learnWord(actualText);
+                LearningQueue learningQueue = getLearningQueue();
+                if (learningQueue != null) {
+                    learningQueue.learnWord(actualText);
                 }
             }
         }
@@ -1178,12 +1310,12 @@ public final class InputLogic {
         mConnection.commitText(replacement, 1);
         
         // Learn from the replacement
-        LocalLearningEngine learningEngine = getLearningEngine();
-        if (learningEngine != null) {
-            learningEngine.learnWord(replacement);
+        LearningQueue learningQueue = getLearningQueue();
+        if (learningQueue != null) {
+            learningQueue.learnWord(replacement);
             String previousContext = getPreviousContext();
             if (!TextUtils.isEmpty(previousContext)) {
-                learningEngine.learnFromInput(previousContext + " " + replacement);
+                learningQueue.learnFromInput(previousContext + " " + replacement);
             }
         }
     }
@@ -1194,14 +1326,14 @@ public final class InputLogic {
     private void learnFromCurrentSentence() {
         String textBeforeCursor = mConnection.getTextBeforeCursor();
         if (!TextUtils.isEmpty(textBeforeCursor)) {
-            LocalLearningEngine learningEngine = getLearningEngine();
-            if (learningEngine != null) {
+            LearningQueue learningQueue = getLearningQueue();
+            if (learningQueue != null) {
                 // Find the current sentence by looking for sentence boundaries
                 String[] sentences = textBeforeCursor.split("[.!?]");
                 if (sentences.length > 0) {
                     String currentSentence = sentences[sentences.length - 1].trim();
                     if (!TextUtils.isEmpty(currentSentence) && currentSentence.split("\\s+").length > 1) {
-                        learningEngine.learnSentence(currentSentence);
+                        learningQueue.learnSentence(currentSentence);
                     }
                 }
             }
@@ -1240,9 +1372,9 @@ public final class InputLogic {
             
             // Learn from committed text if it's a word
             if (text.trim().matches("\\w+")) {
-                LocalLearningEngine learningEngine = getLearningEngine();
-                if (learningEngine != null) {
-                    learningEngine.learnWord(text.trim());
+                LearningQueue learningQueue = getLearningQueue();
+                if (learningQueue != null) {
+                    learningQueue.learnWord(text.trim());
                 }
             }
         }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Build time tool that compiles the {@link BootstrapVocabulary} words and example sentences
+ * of each language into a {@link LearningSnapshot}, shipped as the asset named by
+ * {@link #getAssetName(String)}.
+ *
+ * A fresh install loads the asset of a language with a few bulk copies out of a
+ * memory-mapped file instead of inserting every word and learning every sentence when the
+ * language is first used. Run by the {@code compileBootstrapDictionary} Gradle task; plain
+ * Java so it runs on the build host.
+ */
+public final class BootstrapDictionaryCompiler {
+    private BootstrapDictionaryCompiler() {
+    }
+
+    /**
+     * Writes the snapshot of each language's bootstrap vocabulary to the directory given as
+     * the only argument.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException(
+                    "Usage: BootstrapDictionaryCompiler <output directory>");
+        }
+        final File directory = new File(args[0]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        for (String language : BootstrapVocabulary.LANGUAGES) {
+            final ByteBuffer buffer = compile(language);
+            try (FileOutputStream stream =
+                         new FileOutputStream(new File(directory, getAssetName(language)));
+                 FileChannel channel = stream.getChannel()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the asset holding the bootstrap dictionary of the language code.
+     */
+    static String getAssetName(String language) {
+        return "bootstrap_dictionary_" + language + ".bin";
+    }
+
+    /**
+     * Returns the snapshot of the bootstrap vocabulary of the language, ready to be read.
+     */
+    static ByteBuffer compile(String language) {
+        final CompactWordTrie trie = new CompactWordTrie();
+        final NGramModel ngramModel = new NGramModel();
+        // No last used time, so that the asset is the same on every build
+        BootstrapVocabulary.initializeVocabulary(trie, language, 0);
+        BootstrapVocabulary.initializeNGramModel(ngramModel, language);
+
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(LearningSnapshot.getSize(trie, ngramModel));
+        LearningSnapshot.write(buffer, trie, ngramModel, 0);
+        buffer.flip();
+        return buffer;
+    }
+}
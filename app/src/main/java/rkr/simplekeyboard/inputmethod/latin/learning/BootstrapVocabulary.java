@@ -25,6 +25,11 @@ import java.util.List;
  */
 public class BootstrapVocabulary {
     
+    // Languages with bootstrap data, as language codes.
+    public static final String LANGUAGE_ENGLISH = "en";
+    public static final String LANGUAGE_ARABIC = "ar";
+    public static final String[] LANGUAGES = {LANGUAGE_ENGLISH, LANGUAGE_ARABIC};
+    
     // Comprehensive English dictionary for initial suggestions (1000+ words)
     private static final String[] COMMON_ENGLISH_WORDS = {
         // Single-letter words that are important
@@ -246,19 +251,204 @@ public class BootstrapVocabulary {
         ".", "?", "!", ",", ";", ":", "'", "\"", "(", ")", "-"
     };
     
+    // Common English phrases and sentences the n-gram model starts from
+    private static final String[] ENGLISH_SENTENCES = {
+        // Common English greetings and basic conversation
+        "Hello how are you",
+        "How are you doing",
+        "I am fine thank you",
+        "Nice to meet you",
+        "Good morning",
+        "Good afternoon",
+        "Good evening",
+        "Good night",
+        "See you later",
+        "See you soon",
+        "Have a nice day",
+        "Have a good day",
+        "Take care",
+        "You are welcome",
+        "Thank you very much",
+        "Thanks a lot",
+        "I appreciate it",
+        "No problem",
+        "I am sorry",
+        "Excuse me",
+
+        // Questions and answers
+        "What is your name",
+        "Where are you from",
+        "How old are you",
+        "What do you do",
+        "Where do you live",
+        "What time is it",
+        "Can you help me",
+        "Do you speak English",
+        "I don't understand",
+        "Could you repeat that",
+        "What does this mean",
+
+        // Common statements with "a"
+        "I have a question",
+        "This is a good idea",
+        "Once upon a time",
+        "What a beautiful day",
+        "I have a car",
+        "I have a problem",
+        "That is a great",
+        "I need a moment",
+
+        // Common statements with "I"
+        "I am going to",
+        "I will be there",
+        "I can do it",
+        "I don't know",
+        "I think so",
+        "I hope so",
+        "I see",
+        "I understand",
+        "I agree",
+
+        // Common phrases
+        "Let me know",
+        "Let me see",
+        "Let me think",
+        "I would like to",
+        "I want to go",
+        "I need to go",
+        "I have to go",
+        "It is time to",
+        "It is nice to",
+
+        // Punctuation patterns (English)
+        "Hello, how are you?",
+        "Yes, I agree.",
+        "What time is it?",
+        "That's great!",
+        "I think so.",
+        "Please, help me.",
+        "No, thank you.",
+        "Are you sure?",
+        "I don't think so."
+    };
+
+    // Common Arabic phrases and sentences the n-gram model starts from
+    private static final String[] ARABIC_SENTENCES = {
+        // Arabic greetings and basic conversation
+        "السلام عليكم",
+        "وعليكم السلام",
+        "صباح الخير",
+        "مساء الخير",
+        "تصبح على خير",
+        "كيف حالك",
+        "الحمد لله",
+        "أنا بخير",
+        "شكرا لك",
+        "شكرا جزيلا",
+        "عفوا",
+        "من فضلك",
+        "لو سمحت",
+        "آسف",
+        "مع السلامة",
+        "إلى اللقاء",
+        "أهلا وسهلا",
+        "أهلا بك",
+        "مرحبا بك",
+        "تشرفنا",
+
+        // Arabic questions
+        "ما اسمك",
+        "من أين أنت",
+        "كم عمرك",
+        "أين تسكن",
+        "ماذا تعمل",
+        "كم الساعة",
+        "هل تتكلم العربية",
+        "ما معنى هذا",
+        "كيف أصل إلى",
+
+        // Arabic common expressions with "و"
+        "أنا و أنت",
+        "الأب و الأم",
+        "الأخ و الأخت",
+        "القراءة و الكتابة",
+        "العلم و المعرفة",
+        "الحق و الباطل",
+        "الخير و الشر",
+
+        // Arabic common statements
+        "إن شاء الله",
+        "ما شاء الله",
+        "الله أكبر",
+        "سبحان الله",
+        "استغفر الله",
+        "بسم الله",
+        "الله يرحمه",
+        "الله يحفظك",
+        "أنا أريد أن",
+        "أنا أحب أن",
+        "أنا لا أعرف",
+        "أنا لا أفهم",
+        "أنا أفهم",
+        "أنا موافق",
+
+        // Punctuation patterns (Arabic)
+        "نعم، أنا موافق.",
+        "ما رأيك؟",
+        "هذا رائع!",
+        "لا، شكرا.",
+        "هل أنت متأكد؟"
+    };
+    
     /**
      * Initializes the word trie with common vocabulary.
      */
     public static void initializeVocabulary(WordTrie wordTrie) {
-        // Add common English words
-        for (String word : COMMON_ENGLISH_WORDS) {
-            wordTrie.insert(word);
+        initializeVocabulary(wordTrie, System.currentTimeMillis());
+    }
+    
+    /**
+     * Initializes the word trie with common vocabulary, as if every word was last used at the
+     * given time.
+     */
+    public static void initializeVocabulary(WordTrie wordTrie, long lastUsed) {
+        initializeVocabulary(wordTrie, LANGUAGE_ENGLISH, lastUsed);
+        initializeVocabulary(wordTrie, LANGUAGE_ARABIC, lastUsed);
+    }
+    
+    /**
+     * Initializes the word trie with the common vocabulary of one language, given as a
+     * language code. Languages without bootstrap data are left alone.
+     */
+    public static void initializeVocabulary(WordTrie wordTrie, String language, long lastUsed) {
+        for (String word : getWords(language)) {
+            wordTrie.insert(word, lastUsed);
         }
-        
-        // Add common Arabic words
-        for (String word : COMMON_ARABIC_WORDS) {
-            wordTrie.insert(word);
+    }
+    
+    /**
+     * Returns whether there is bootstrap data for the language code.
+     */
+    public static boolean hasLanguage(String language) {
+        return LANGUAGE_ENGLISH.equals(language) || LANGUAGE_ARABIC.equals(language);
+    }
+    
+    private static String[] getWords(String language) {
+        if (LANGUAGE_ENGLISH.equals(language)) {
+            return COMMON_ENGLISH_WORDS;
+        } else if (LANGUAGE_ARABIC.equals(language)) {
+            return COMMON_ARABIC_WORDS;
         }
+        return new String[0];
+    }
+    
+    private static String[] getSentences(String language) {
+        if (LANGUAGE_ENGLISH.equals(language)) {
+            return ENGLISH_SENTENCES;
+        } else if (LANGUAGE_ARABIC.equals(language)) {
+            return ARABIC_SENTENCES;
+        }
+        return new String[0];
     }
     
     /**
@@ -266,148 +456,18 @@ public class BootstrapVocabulary {
      * Comprehensive training with 100+ common phrases and sentences.
      */
     public static void initializeNGramModel(NGramModel ngramModel) {
-        // Common English greetings and basic conversation
-        ngramModel.learnFromSentence("Hello how are you");
-        ngramModel.learnFromSentence("How are you doing");
-        ngramModel.learnFromSentence("I am fine thank you");
-        ngramModel.learnFromSentence("Nice to meet you");
-        ngramModel.learnFromSentence("Good morning");
-        ngramModel.learnFromSentence("Good afternoon");
-        ngramModel.learnFromSentence("Good evening");
-        ngramModel.learnFromSentence("Good night");
-        ngramModel.learnFromSentence("See you later");
-        ngramModel.learnFromSentence("See you soon");
-        ngramModel.learnFromSentence("Have a nice day");
-        ngramModel.learnFromSentence("Have a good day");
-        ngramModel.learnFromSentence("Take care");
-        ngramModel.learnFromSentence("You are welcome");
-        ngramModel.learnFromSentence("Thank you very much");
-        ngramModel.learnFromSentence("Thanks a lot");
-        ngramModel.learnFromSentence("I appreciate it");
-        ngramModel.learnFromSentence("No problem");
-        ngramModel.learnFromSentence("I am sorry");
-        ngramModel.learnFromSentence("Excuse me");
-        
-        // Questions and answers
-        ngramModel.learnFromSentence("What is your name");
-        ngramModel.learnFromSentence("Where are you from");
-        ngramModel.learnFromSentence("How old are you");
-        ngramModel.learnFromSentence("What do you do");
-        ngramModel.learnFromSentence("Where do you live");
-        ngramModel.learnFromSentence("What time is it");
-        ngramModel.learnFromSentence("Can you help me");
-        ngramModel.learnFromSentence("Do you speak English");
-        ngramModel.learnFromSentence("I don't understand");
-        ngramModel.learnFromSentence("Could you repeat that");
-        ngramModel.learnFromSentence("What does this mean");
-        
-        // Common statements with "a"
-        ngramModel.learnFromSentence("I have a question");
-        ngramModel.learnFromSentence("This is a good idea");
-        ngramModel.learnFromSentence("Once upon a time");
-        ngramModel.learnFromSentence("What a beautiful day");
-        ngramModel.learnFromSentence("I have a car");
-        ngramModel.learnFromSentence("I have a problem");
-        ngramModel.learnFromSentence("That is a great");
-        ngramModel.learnFromSentence("I need a moment");
-        
-        // Common statements with "I"
-        ngramModel.learnFromSentence("I am going to");
-        ngramModel.learnFromSentence("I will be there");
-        ngramModel.learnFromSentence("I can do it");
-        ngramModel.learnFromSentence("I don't know");
-        ngramModel.learnFromSentence("I think so");
-        ngramModel.learnFromSentence("I hope so");
-        ngramModel.learnFromSentence("I see");
-        ngramModel.learnFromSentence("I understand");
-        ngramModel.learnFromSentence("I agree");
-        
-        // Common phrases
-        ngramModel.learnFromSentence("Let me know");
-        ngramModel.learnFromSentence("Let me see");
-        ngramModel.learnFromSentence("Let me think");
-        ngramModel.learnFromSentence("I would like to");
-        ngramModel.learnFromSentence("I want to go");
-        ngramModel.learnFromSentence("I need to go");
-        ngramModel.learnFromSentence("I have to go");
-        ngramModel.learnFromSentence("It is time to");
-        ngramModel.learnFromSentence("It is nice to");
-        
-        // Arabic greetings and basic conversation
-        ngramModel.learnFromSentence("السلام عليكم");
-        ngramModel.learnFromSentence("وعليكم السلام");
-        ngramModel.learnFromSentence("صباح الخير");
-        ngramModel.learnFromSentence("مساء الخير");
-        ngramModel.learnFromSentence("تصبح على خير");
-        ngramModel.learnFromSentence("كيف حالك");
-        ngramModel.learnFromSentence("الحمد لله");
-        ngramModel.learnFromSentence("أنا بخير");
-        ngramModel.learnFromSentence("شكرا لك");
-        ngramModel.learnFromSentence("شكرا جزيلا");
-        ngramModel.learnFromSentence("عفوا");
-        ngramModel.learnFromSentence("من فضلك");
-        ngramModel.learnFromSentence("لو سمحت");
-        ngramModel.learnFromSentence("آسف");
-        ngramModel.learnFromSentence("مع السلامة");
-        ngramModel.learnFromSentence("إلى اللقاء");
-        ngramModel.learnFromSentence("أهلا وسهلا");
-        ngramModel.learnFromSentence("أهلا بك");
-        ngramModel.learnFromSentence("مرحبا بك");
-        ngramModel.learnFromSentence("تشرفنا");
-        
-        // Arabic questions
-        ngramModel.learnFromSentence("ما اسمك");
-        ngramModel.learnFromSentence("من أين أنت");
-        ngramModel.learnFromSentence("كم عمرك");
-        ngramModel.learnFromSentence("أين تسكن");
-        ngramModel.learnFromSentence("ماذا تعمل");
-        ngramModel.learnFromSentence("كم الساعة");
-        ngramModel.learnFromSentence("هل تتكلم العربية");
-        ngramModel.learnFromSentence("ما معنى هذا");
-        ngramModel.learnFromSentence("كيف أصل إلى");
-        
-        // Arabic common expressions with "و"
-        ngramModel.learnFromSentence("أنا و أنت");
-        ngramModel.learnFromSentence("الأب و الأم");
-        ngramModel.learnFromSentence("الأخ و الأخت");
-        ngramModel.learnFromSentence("القراءة و الكتابة");
-        ngramModel.learnFromSentence("العلم و المعرفة");
-        ngramModel.learnFromSentence("الحق و الباطل");
-        ngramModel.learnFromSentence("الخير و الشر");
-        
-        // Arabic common statements
-        ngramModel.learnFromSentence("إن شاء الله");
-        ngramModel.learnFromSentence("ما شاء الله");
-        ngramModel.learnFromSentence("الله أكبر");
-        ngramModel.learnFromSentence("سبحان الله");
-        ngramModel.learnFromSentence("استغفر الله");
-        ngramModel.learnFromSentence("بسم الله");
-        ngramModel.learnFromSentence("الله يرحمه");
-        ngramModel.learnFromSentence("الله يحفظك");
-        ngramModel.learnFromSentence("أنا أريد أن");
-        ngramModel.learnFromSentence("أنا أحب أن");
-        ngramModel.learnFromSentence("أنا لا أعرف");
-        ngramModel.learnFromSentence("أنا لا أفهم");
-        ngramModel.learnFromSentence("أنا أفهم");
-        ngramModel.learnFromSentence("أنا موافق");
-        
-        // Punctuation patterns (English)
-        ngramModel.learnFromSentence("Hello, how are you?");
-        ngramModel.learnFromSentence("Yes, I agree.");
-        ngramModel.learnFromSentence("What time is it?");
-        ngramModel.learnFromSentence("That's great!");
-        ngramModel.learnFromSentence("I think so.");
-        ngramModel.learnFromSentence("Please, help me.");
-        ngramModel.learnFromSentence("No, thank you.");
-        ngramModel.learnFromSentence("Are you sure?");
-        ngramModel.learnFromSentence("I don't think so.");
-        
-        // Punctuation patterns (Arabic)
-        ngramModel.learnFromSentence("نعم، أنا موافق.");
-        ngramModel.learnFromSentence("ما رأيك؟");
-        ngramModel.learnFromSentence("هذا رائع!");
-        ngramModel.learnFromSentence("لا، شكرا.");
-        ngramModel.learnFromSentence("هل أنت متأكد؟");
+        initializeNGramModel(ngramModel, LANGUAGE_ENGLISH);
+        initializeNGramModel(ngramModel, LANGUAGE_ARABIC);
+    }
+    
+    /**
+     * Initializes the N-gram model with the common word patterns of one language, given as a
+     * language code. Languages without bootstrap data are left alone.
+     */
+    public static void initializeNGramModel(NGramModel ngramModel, String language) {
+        for (String sentence : getSentences(language)) {
+            ngramModel.learnFromSentence(sentence);
+        }
     }
     
     /**
@@ -0,0 +1,846 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Array-backed trie with the same contract as {@link WordTrie}.
+ *
+ * Nodes are plain int indices into parallel primitive arrays instead of {@link TrieNode}
+ * objects with a {@code HashMap} each. The children of a node live in one contiguous block of
+ * the edge pool, sorted by character so lookups are a binary search. A block is sized to the
+ * next power of two of its child count; when it fills up it is moved to the end of the pool
+ * and the old slots are reclaimed by {@link #trimToSize()}.
+ *
+ * Every node also caches the best {@value #MAX_SUGGESTIONS} words of its subtree as word ids
+ * (the index of the word's terminal node), kept up to date on {@link #insert(String)}. A prefix
+ * lookup is then a walk down the prefix plus rebuilding at most five strings, however many
+ * words share the prefix. Nodes whose list would just repeat another one do not store it: a
+ * non-terminal node with a single child has the same list as that child, and a leaf's list is
+ * the leaf itself.
+ */
+public class CompactWordTrie extends WordTrie {
+    private static final int ROOT = 0;
+    private static final int MAX_SUGGESTIONS = 5;
+    private static final int INITIAL_NODE_CAPACITY = 256;
+
+    // Node stats are packed into one long: terminal flag, 31-bit frequency, 32-bit last used
+    // time in seconds since the epoch.
+    private static final long TERMINAL_FLAG = 1L << 63;
+    private static final int FREQUENCY_SHIFT = 32;
+    private static final long FREQUENCY_MASK = 0x7FFFFFFFL;
+    private static final long LAST_USED_MASK = 0xFFFFFFFFL;
+
+    private static final int NO_LIST = -1;
+    private static final int NO_WORD = -1;
+
+    private int nodeCount;
+    private int[] childStart;
+    private int[] childCount;
+    private long[] stats;
+    private int[] parent;
+    private char[] nodeChar;
+    private int[] topStart;
+
+    // Top suggestion lists, MAX_SUGGESTIONS word ids per block, best first, NO_WORD padded.
+    private int topCount;
+    private int[] topWords;
+
+    // Nodes visited by the insert in progress, root first.
+    private int[] path = new int[32];
+
+    private int edgeCount;
+    private char[] edgeChars;
+    private int[] edgeTargets;
+
+    public CompactWordTrie() {
+        childStart = new int[INITIAL_NODE_CAPACITY];
+        childCount = new int[INITIAL_NODE_CAPACITY];
+        stats = new long[INITIAL_NODE_CAPACITY];
+        parent = new int[INITIAL_NODE_CAPACITY];
+        nodeChar = new char[INITIAL_NODE_CAPACITY];
+        topStart = new int[INITIAL_NODE_CAPACITY];
+        topWords = new int[INITIAL_NODE_CAPACITY];
+        edgeChars = new char[INITIAL_NODE_CAPACITY];
+        edgeTargets = new int[INITIAL_NODE_CAPACITY];
+        newNode();
+    }
+
+    @Override
+    public void insert(String word, long lastUsed) {
+        if (word == null || word.trim().isEmpty()) {
+            return;
+        }
+
+        word = word.toLowerCase().trim();
+        final int length = word.length();
+        if (path.length <= length) {
+            path = new int[length + 16];
+        }
+        int node = ROOT;
+        path[0] = ROOT;
+        for (int i = 0; i < length; i++) {
+            node = getOrCreateChild(node, word.charAt(i));
+            path[i + 1] = node;
+        }
+
+        final long packed = stats[node];
+        final int frequency = (int) Math.min(unpackFrequency(packed) + 1L, FREQUENCY_MASK);
+        stats[node] = pack(true, frequency, lastUsed);
+
+        // The word only gained score, so offering it to each list on its path is enough.
+        for (int i = length; i >= 0; i--) {
+            final int pathNode = path[i];
+            if (!keepsOwnList(pathNode)) {
+                continue;
+            }
+            if (topStart[pathNode] == NO_LIST) {
+                // The node just started branching or became a word: build its list from its
+                // children, whose lists are already up to date.
+                allocateTopList(pathNode);
+                fillTopList(pathNode);
+            } else {
+                offerTopWord(pathNode, node);
+            }
+        }
+    }
+
+    @Override
+    public List<String> getSuggestions(String prefix) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        prefix = prefix.toLowerCase().trim();
+        final int node = findNode(prefix);
+        if (node < 0) {
+            return new ArrayList<>();
+        }
+
+        return getSuggestions(node);
+    }
+
+    /**
+     * Returns the cached best words below a node.
+     */
+    private List<String> getSuggestions(int node) {
+        final List<String> result = new ArrayList<>(MAX_SUGGESTIONS);
+        final int listNode = resolveListNode(node);
+        final int start = topStart[listNode];
+        if (start != NO_LIST) {
+            for (int i = start; i < start + MAX_SUGGESTIONS && topWords[i] != NO_WORD; i++) {
+                result.add(getWord(topWords[i]));
+            }
+        } else if (isTerminal(stats[listNode])) {
+            result.add(getWord(listNode));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the cached best words of each matching node are considered, so a walk costs the
+     * nodes within the error budget plus a few words per match. The matches are kept by the
+     * search rather than the trie, so a published copy is never written to.
+     */
+    @Override
+    public List<String> getFuzzySuggestions(String prefix, int maxErrors, int limit) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        prefix = prefix.toLowerCase().trim();
+        final FuzzyMatches matches = new FuzzyMatches();
+        collectFuzzySuggestions(ROOT, new FuzzyPrefixMatcher(prefix, maxErrors), matches);
+
+        // Closest first, then the usual order. Only the first few are needed, so select them
+        // rather than sorting every match.
+        final int[] words = matches.words;
+        final int[] distances = matches.distances;
+        final int selected = Math.min(matches.count, limit);
+        for (int i = 0; i < selected; i++) {
+            int best = i;
+            for (int j = i + 1; j < matches.count; j++) {
+                if (distances[j] < distances[best] || (distances[j] == distances[best]
+                        && isBetter(words[j], words[best]))) {
+                    best = j;
+                }
+            }
+            final int word = words[best];
+            final int distance = distances[best];
+            words[best] = words[i];
+            distances[best] = distances[i];
+            words[i] = word;
+            distances[i] = distance;
+        }
+
+        final List<String> result = new ArrayList<>(selected);
+        for (int i = 0; i < selected; i++) {
+            result.add(getWord(words[i]));
+        }
+        return result;
+    }
+
+    private void collectFuzzySuggestions(int node, FuzzyPrefixMatcher matcher,
+            FuzzyMatches matches) {
+        if (matcher.isMatch()) {
+            offerFuzzyWords(node, matcher.getDistance(), matches);
+            if (!matcher.canImprove()) {
+                return;
+            }
+        }
+
+        final int end = childStart[node] + childCount[node];
+        for (int i = childStart[node]; i < end; i++) {
+            if (matcher.push(edgeChars[i])) {
+                collectFuzzySuggestions(edgeTargets[i], matcher, matches);
+                matcher.pop();
+            }
+        }
+    }
+
+    /**
+     * Adds the cached best words below a node to the fuzzy search results.
+     */
+    private void offerFuzzyWords(int node, int distance, FuzzyMatches matches) {
+        final int listNode = resolveListNode(node);
+        final int start = topStart[listNode];
+        if (start != NO_LIST) {
+            for (int i = start; i < start + MAX_SUGGESTIONS && topWords[i] != NO_WORD; i++) {
+                matches.offer(topWords[i], distance);
+            }
+        } else if (isTerminal(stats[listNode])) {
+            matches.offer(listNode, distance);
+        }
+    }
+
+    @Override
+    public boolean contains(String word) {
+        if (word == null || word.trim().isEmpty()) {
+            return false;
+        }
+
+        final int node = findNode(word.toLowerCase().trim());
+        return node >= 0 && isTerminal(stats[node]);
+    }
+
+    @Override
+    public int getWordFrequency(String word) {
+        if (word == null || word.trim().isEmpty()) {
+            return 0;
+        }
+
+        final int node = findNode(word.toLowerCase().trim());
+        if (node < 0 || !isTerminal(stats[node])) {
+            return 0;
+        }
+        return unpackFrequency(stats[node]);
+    }
+
+    @Override
+    public void putWord(String word, int frequency, long lastUsed) {
+        if (word == null || word.trim().isEmpty()) {
+            return;
+        }
+
+        word = word.toLowerCase().trim();
+        final int length = word.length();
+        if (path.length <= length) {
+            path = new int[length + 16];
+        }
+        int node = ROOT;
+        path[0] = ROOT;
+        for (int i = 0; i < length; i++) {
+            node = getOrCreateChild(node, word.charAt(i));
+            path[i + 1] = node;
+        }
+        stats[node] = pack(true, (int) Math.min(Math.max(frequency, 0), FREQUENCY_MASK), lastUsed);
+
+        // The score may have dropped, so rebuild the lists on the path instead of offering.
+        for (int i = length; i >= 0; i--) {
+            final int pathNode = path[i];
+            if (keepsOwnList(pathNode)) {
+                if (topStart[pathNode] == NO_LIST) {
+                    allocateTopList(pathNode);
+                }
+                fillTopList(pathNode);
+            }
+        }
+    }
+
+    @Override
+    public void forEachWord(WordVisitor visitor) {
+        for (int node = 0; node < nodeCount; node++) {
+            final long packed = stats[node];
+            if (isTerminal(packed)) {
+                visitor.visit(getWord(node), unpackFrequency(packed), unpackLastUsed(packed));
+            }
+        }
+    }
+
+    @Override
+    public PrefixCursor newPrefixCursor() {
+        return new NodeCursor();
+    }
+
+    /**
+     * Returns a copy that shares nothing with this trie: a bulk copy of the used part of each
+     * array, with the cached suggestion lists as they are.
+     */
+    @Override
+    public CompactWordTrie copy() {
+        final CompactWordTrie copy = new CompactWordTrie();
+        copy.nodeCount = nodeCount;
+        copy.childStart = Arrays.copyOf(childStart, nodeCount);
+        copy.childCount = Arrays.copyOf(childCount, nodeCount);
+        copy.stats = Arrays.copyOf(stats, nodeCount);
+        copy.parent = Arrays.copyOf(parent, nodeCount);
+        copy.nodeChar = Arrays.copyOf(nodeChar, nodeCount);
+        copy.topStart = Arrays.copyOf(topStart, nodeCount);
+        copy.topCount = topCount;
+        copy.topWords = Arrays.copyOf(topWords, Math.max(topCount, 1));
+        copy.edgeCount = edgeCount;
+        copy.edgeChars = Arrays.copyOf(edgeChars, Math.max(edgeCount, 1));
+        copy.edgeTargets = Arrays.copyOf(edgeTargets, Math.max(edgeCount, 1));
+        return copy;
+    }
+
+    /**
+     * Rewrites the edge pool without the blocks abandoned by growth and shrinks the node
+     * arrays to their used size.
+     */
+    @Override
+    public void trimToSize() {
+        // Blocks keep their power of two capacity, which the growth check relies on.
+        int used = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            used += blockCapacity(childCount[node]);
+        }
+        final char[] newChars = new char[Math.max(used, 1)];
+        final int[] newTargets = new int[Math.max(used, 1)];
+        int offset = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            final int count = childCount[node];
+            System.arraycopy(edgeChars, childStart[node], newChars, offset, count);
+            System.arraycopy(edgeTargets, childStart[node], newTargets, offset, count);
+            childStart[node] = offset;
+            offset += blockCapacity(count);
+        }
+        edgeChars = newChars;
+        edgeTargets = newTargets;
+        edgeCount = offset;
+
+        childStart = Arrays.copyOf(childStart, nodeCount);
+        childCount = Arrays.copyOf(childCount, nodeCount);
+        stats = Arrays.copyOf(stats, nodeCount);
+        parent = Arrays.copyOf(parent, nodeCount);
+        nodeChar = Arrays.copyOf(nodeChar, nodeCount);
+        topStart = Arrays.copyOf(topStart, nodeCount);
+        topWords = Arrays.copyOf(topWords, Math.max(topCount, 1));
+    }
+
+    /**
+     * Recomputes every cached suggestion list from scratch. Needed after word stats change
+     * other than through {@link #insert(String)}, since only increases are tracked there.
+     */
+    public void rebuildTopSuggestions() {
+        // Children are always created after their parent, so walking the node indices
+        // backwards visits every subtree before its root.
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (keepsOwnList(node)) {
+                if (topStart[node] == NO_LIST) {
+                    allocateTopList(node);
+                }
+                fillTopList(node);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeTo(ByteBuffer)} needs.
+     */
+    public int getSerializedSize() {
+        // writeTo() trims first, so count the edge pool as trimToSize() will lay it out.
+        int edges = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            edges += blockCapacity(childCount[node]);
+        }
+        return 4 * 3
+                + 8 * nodeCount
+                + 4 * 4 * nodeCount
+                + 4 * topCount
+                + 4 * edges
+                + 2 * nodeCount
+                + 2 * edges;
+    }
+
+    /**
+     * Writes the backing arrays to the buffer, little-endian. The arrays are trimmed first so
+     * nothing abandoned by growth is written.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        trimToSize();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(nodeCount).putInt(edgeCount).putInt(topCount);
+        // Widest elements first so every section stays aligned.
+        buffer.asLongBuffer().put(stats, 0, nodeCount);
+        skip(buffer, 8 * nodeCount);
+        putInts(buffer, childStart, nodeCount);
+        putInts(buffer, childCount, nodeCount);
+        putInts(buffer, parent, nodeCount);
+        putInts(buffer, topStart, nodeCount);
+        putInts(buffer, topWords, topCount);
+        putInts(buffer, edgeTargets, edgeCount);
+        buffer.asCharBuffer().put(nodeChar, 0, nodeCount);
+        skip(buffer, 2 * nodeCount);
+        buffer.asCharBuffer().put(edgeChars, 0, edgeCount);
+        skip(buffer, 2 * edgeCount);
+    }
+
+    /**
+     * Replaces the content of this trie with arrays written by {@link #writeTo(ByteBuffer)}.
+     * The arrays are bulk copied, nothing is re-inserted. Cursors must be reset afterwards.
+     *
+     * @throws IllegalArgumentException if the arrays do not form a valid trie, in which case
+     *         this trie is left as it was.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final int nodes = buffer.getInt();
+        final int edges = buffer.getInt();
+        final int tops = buffer.getInt();
+        if (nodes < 1 || edges < 0 || tops < 0
+                || 26L * nodes + 4L * tops + 6L * edges > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt trie snapshot");
+        }
+
+        final long[] newStats = new long[nodes];
+        buffer.asLongBuffer().get(newStats, 0, nodes);
+        skip(buffer, 8 * nodes);
+        final int[] newChildStart = getInts(buffer, nodes, nodes);
+        final int[] newChildCount = getInts(buffer, nodes, nodes);
+        final int[] newParent = getInts(buffer, nodes, nodes);
+        final int[] newTopStart = getInts(buffer, nodes, nodes);
+        final int[] newTopWords = getInts(buffer, tops, Math.max(tops, 1));
+        final int[] newEdgeTargets = getInts(buffer, edges, Math.max(edges, 1));
+        final char[] newNodeChar = new char[nodes];
+        buffer.asCharBuffer().get(newNodeChar, 0, nodes);
+        skip(buffer, 2 * nodes);
+        final char[] newEdgeChars = new char[Math.max(edges, 1)];
+        buffer.asCharBuffer().get(newEdgeChars, 0, edges);
+        skip(buffer, 2 * edges);
+        checkStructure(nodes, edges, tops, newChildStart, newChildCount, newParent,
+                newTopStart, newTopWords, newEdgeTargets);
+
+        nodeCount = nodes;
+        edgeCount = edges;
+        topCount = tops;
+        stats = newStats;
+        childStart = newChildStart;
+        childCount = newChildCount;
+        parent = newParent;
+        topStart = newTopStart;
+        topWords = newTopWords;
+        edgeTargets = newEdgeTargets;
+        nodeChar = newNodeChar;
+        edgeChars = newEdgeChars;
+    }
+
+    /**
+     * Checks that every index in the arrays read by {@link #readFrom(ByteBuffer)} is in
+     * range, so that a corrupt snapshot is rejected on load rather than failing on a later
+     * keystroke. Children always come after their parent, which also rules out cycles.
+     */
+    private static void checkStructure(int nodes, int edges, int tops, int[] childStart,
+            int[] childCount, int[] parent, int[] topStart, int[] topWords, int[] edgeTargets) {
+        for (int node = 0; node < nodes; node++) {
+            final int start = childStart[node];
+            final int count = childCount[node];
+            final int list = topStart[node];
+            if (start < 0 || count < 0 || (long) start + count > edges
+                    || (node == ROOT ? parent[node] != ROOT
+                            : parent[node] < 0 || parent[node] >= node)
+                    || (list != NO_LIST
+                            && (list < 0 || (long) list + MAX_SUGGESTIONS > tops))) {
+                throw new IllegalArgumentException("Corrupt trie node " + node);
+            }
+            for (int edge = start; edge < start + count; edge++) {
+                final int child = edgeTargets[edge];
+                if (child <= node || child >= nodes || parent[child] != node) {
+                    throw new IllegalArgumentException("Corrupt trie edge " + edge);
+                }
+            }
+        }
+        for (int i = 0; i < tops; i++) {
+            if (topWords[i] != NO_WORD && (topWords[i] < 0 || topWords[i] >= nodes)) {
+                throw new IllegalArgumentException("Corrupt trie suggestion list");
+            }
+        }
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values, int count) {
+        buffer.asIntBuffer().put(values, 0, count);
+        skip(buffer, 4 * count);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count, int length) {
+        final int[] values = new int[length];
+        buffer.asIntBuffer().get(values, 0, count);
+        skip(buffer, 4 * count);
+        return values;
+    }
+
+    private static void skip(ByteBuffer buffer, int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    /**
+     * Returns the number of nodes, including the root.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Estimates the heap taken by the backing arrays, in bytes.
+     */
+    public long getApproximateHeapBytes() {
+        final long arrayHeader = 16;
+        return 9 * arrayHeader
+                + 4L * childStart.length
+                + 4L * childCount.length
+                + 8L * stats.length
+                + 4L * parent.length
+                + 2L * nodeChar.length
+                + 4L * topStart.length
+                + 4L * topWords.length
+                + 2L * edgeChars.length
+                + 4L * edgeTargets.length;
+    }
+
+    private int findNode(String word) {
+        int node = ROOT;
+        for (int i = 0; i < word.length(); i++) {
+            node = findChild(node, word.charAt(i));
+            if (node < 0) {
+                return -1;
+            }
+        }
+        return node;
+    }
+
+    private int findChild(int node, char c) {
+        final int index = searchEdge(node, c);
+        return index >= 0 ? edgeTargets[index] : -1;
+    }
+
+    /**
+     * Binary searches the child block of a node. Returns the edge index, or
+     * {@code -(insertion point) - 1} when the character is missing.
+     */
+    private int searchEdge(int node, char c) {
+        int low = childStart[node];
+        int high = low + childCount[node] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int getOrCreateChild(int node, char c) {
+        int index = searchEdge(node, c);
+        if (index >= 0) {
+            return edgeTargets[index];
+        }
+
+        final int count = childCount[node];
+        if (count == blockCapacity(count)) {
+            growBlock(node);
+            index = searchEdge(node, c);
+        }
+
+        final int insertAt = -index - 1;
+        final int end = childStart[node] + count;
+        System.arraycopy(edgeChars, insertAt, edgeChars, insertAt + 1, end - insertAt);
+        System.arraycopy(edgeTargets, insertAt, edgeTargets, insertAt + 1, end - insertAt);
+
+        // newNode() may reallocate the node arrays, but not the edge arrays.
+        final int child = newNode();
+        parent[child] = node;
+        nodeChar[child] = c;
+        edgeChars[insertAt] = c;
+        edgeTargets[insertAt] = child;
+        childCount[node] = count + 1;
+        return child;
+    }
+
+    /**
+     * Moves the child block of a node to the end of the edge pool with twice the capacity.
+     */
+    private void growBlock(int node) {
+        final int count = childCount[node];
+        final int newCapacity = count == 0 ? 1 : count * 2;
+        ensureEdgeCapacity(edgeCount + newCapacity);
+        System.arraycopy(edgeChars, childStart[node], edgeChars, edgeCount, count);
+        System.arraycopy(edgeTargets, childStart[node], edgeTargets, edgeCount, count);
+        childStart[node] = edgeCount;
+        edgeCount += newCapacity;
+    }
+
+    private int newNode() {
+        if (nodeCount == stats.length) {
+            final int newLength = stats.length + (stats.length >> 1) + 1;
+            childStart = Arrays.copyOf(childStart, newLength);
+            childCount = Arrays.copyOf(childCount, newLength);
+            stats = Arrays.copyOf(stats, newLength);
+            parent = Arrays.copyOf(parent, newLength);
+            nodeChar = Arrays.copyOf(nodeChar, newLength);
+            topStart = Arrays.copyOf(topStart, newLength);
+        }
+        final int node = nodeCount++;
+        childStart[node] = edgeCount;
+        childCount[node] = 0;
+        stats[node] = 0;
+        parent[node] = node;
+        nodeChar[node] = 0;
+        topStart[node] = NO_LIST;
+        return node;
+    }
+
+    private void ensureEdgeCapacity(int capacity) {
+        if (capacity > edgeChars.length) {
+            final int newLength = Math.max(capacity, edgeChars.length + (edgeChars.length >> 1));
+            edgeChars = Arrays.copyOf(edgeChars, newLength);
+            edgeTargets = Arrays.copyOf(edgeTargets, newLength);
+        }
+    }
+
+    /**
+     * Whether a node stores its own suggestion list rather than sharing one.
+     */
+    private boolean keepsOwnList(int node) {
+        final int count = childCount[node];
+        return count > 1 || (count == 1 && isTerminal(stats[node]));
+    }
+
+    /**
+     * Follows single-child chains down to the node whose list stands for this node: either a
+     * node with its own list or a leaf.
+     */
+    private int resolveListNode(int node) {
+        while (topStart[node] == NO_LIST && childCount[node] == 1 && !isTerminal(stats[node])) {
+            node = edgeTargets[childStart[node]];
+        }
+        return node;
+    }
+
+    private void allocateTopList(int node) {
+        if (topCount + MAX_SUGGESTIONS > topWords.length) {
+            topWords = Arrays.copyOf(topWords,
+                    Math.max(topCount + MAX_SUGGESTIONS, topWords.length * 2));
+        }
+        topStart[node] = topCount;
+        topCount += MAX_SUGGESTIONS;
+    }
+
+    private void fillTopList(int node) {
+        final int start = topStart[node];
+        Arrays.fill(topWords, start, start + MAX_SUGGESTIONS, NO_WORD);
+        if (isTerminal(stats[node])) {
+            offerTopWord(node, node);
+        }
+        final int end = childStart[node] + childCount[node];
+        for (int i = childStart[node]; i < end; i++) {
+            final int listNode = resolveListNode(edgeTargets[i]);
+            final int childStartIndex = topStart[listNode];
+            if (childStartIndex != NO_LIST) {
+                for (int j = childStartIndex; j < childStartIndex + MAX_SUGGESTIONS
+                        && topWords[j] != NO_WORD; j++) {
+                    offerTopWord(node, topWords[j]);
+                }
+            } else if (isTerminal(stats[listNode])) {
+                offerTopWord(node, listNode);
+            }
+        }
+    }
+
+    /**
+     * Puts a word at its rank in the list of a node, moving it up if it is already there.
+     */
+    private void offerTopWord(int node, int word) {
+        final int start = topStart[node];
+        final int end = start + MAX_SUGGESTIONS;
+
+        int slot = start;
+        while (slot < end && topWords[slot] != NO_WORD && topWords[slot] != word) {
+            slot++;
+        }
+        if (slot < end && topWords[slot] == word) {
+            // Take it out, it is re-inserted below at its new rank.
+            System.arraycopy(topWords, slot + 1, topWords, slot, end - slot - 1);
+            topWords[end - 1] = NO_WORD;
+        }
+
+        int position = start;
+        while (position < end && topWords[position] != NO_WORD
+                && !isBetter(word, topWords[position])) {
+            position++;
+        }
+        if (position == end) {
+            return;
+        }
+        System.arraycopy(topWords, position, topWords, position + 1, end - position - 1);
+        topWords[position] = word;
+    }
+
+    /**
+     * Orders words by frequency, then recency, then insertion order.
+     */
+    private boolean isBetter(int word, int other) {
+        final long packed = stats[word];
+        final long otherPacked = stats[other];
+        final int frequency = unpackFrequency(packed);
+        final int otherFrequency = unpackFrequency(otherPacked);
+        if (frequency != otherFrequency) {
+            return frequency > otherFrequency;
+        }
+        final long lastUsed = packed & LAST_USED_MASK;
+        final long otherLastUsed = otherPacked & LAST_USED_MASK;
+        if (lastUsed != otherLastUsed) {
+            return lastUsed > otherLastUsed;
+        }
+        return word < other;
+    }
+
+    /**
+     * Rebuilds a word from its terminal node by walking up to the root.
+     */
+    private String getWord(int word) {
+        int length = 0;
+        for (int node = word; node != ROOT; node = parent[node]) {
+            length++;
+        }
+        final char[] chars = new char[length];
+        for (int node = word; node != ROOT; node = parent[node]) {
+            chars[--length] = nodeChar[node];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Child blocks are allocated in powers of two, so the capacity follows from the count.
+     */
+    private static int blockCapacity(int count) {
+        return count <= 1 ? count : Integer.highestOneBit(count - 1) << 1;
+    }
+
+    private static long pack(boolean terminal, int frequency, long lastUsedMillis) {
+        return (terminal ? TERMINAL_FLAG : 0)
+                | ((frequency & FREQUENCY_MASK) << FREQUENCY_SHIFT)
+                | ((lastUsedMillis / 1000) & LAST_USED_MASK);
+    }
+
+    private static boolean isTerminal(long packed) {
+        return (packed & TERMINAL_FLAG) != 0;
+    }
+
+    private static int unpackFrequency(long packed) {
+        return (int) ((packed >>> FREQUENCY_SHIFT) & FREQUENCY_MASK);
+    }
+
+    private static long unpackLastUsed(long packed) {
+        return (packed & LAST_USED_MASK) * 1000;
+    }
+
+    /**
+     * Cursor keeping the visited node indices on an int stack. Node indices never change, so
+     * the cursor stays valid across inserts and {@link #trimToSize()}.
+     */
+    private final class NodeCursor extends PrefixCursor {
+        private int[] stack = new int[32];
+        private int depth;
+
+        @Override
+        protected boolean pushChild(char c) {
+            final int child = findChild(stack[depth], c);
+            if (child < 0) {
+                return false;
+            }
+            if (depth + 1 == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[++depth] = child;
+            return true;
+        }
+
+        @Override
+        protected void popNode() {
+            depth--;
+        }
+
+        @Override
+        protected void popAll() {
+            depth = 0;
+        }
+
+        @Override
+        protected List<String> collectSuggestions() {
+            return CompactWordTrie.this.getSuggestions(stack[depth]);
+        }
+    }
+
+    /**
+     * Words found by a fuzzy search, with the smallest distance each was found at.
+     */
+    private static final class FuzzyMatches {
+        int[] words = new int[32];
+        int[] distances = new int[32];
+        int count;
+        // Word id to its index in the arrays above.
+        private final LongIntTable index = new LongIntTable();
+
+        void offer(int word, int distance) {
+            final int found = index.get(word, -1);
+            if (found >= 0) {
+                distances[found] = Math.min(distances[found], distance);
+                return;
+            }
+            index.put(word, count);
+            if (count == words.length) {
+                words = Arrays.copyOf(words, count * 2);
+                distances = Arrays.copyOf(distances, count * 2);
+            }
+            words[count] = word;
+            distances[count] = distance;
+            count++;
+        }
+    }
+}
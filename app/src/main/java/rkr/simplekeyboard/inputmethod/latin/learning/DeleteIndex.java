@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the words within a small edit distance of a typed word without scanning the
+ * vocabulary (symmetric delete spelling correction).
+ *
+ * Every word is indexed under each string obtained by deleting up to {@code maxDistance} of
+ * its characters. Two words within that distance of each other always share such a delete, so
+ * a lookup only has to generate the deletes of the typed word and check the words listed under
+ * them. Deletes are keyed by a 64-bit hash rather than stored as strings; the rare collision
+ * only adds a candidate that fails the final distance check. Only the first
+ * {@code prefixLength} characters of a word are indexed, which bounds the number of deletes
+ * for long words. Words are listed by the ids of a {@link WordInterner}, which may be shared
+ * with a {@link Vocabulary} so that the strings are only held once.
+ *
+ * Not thread safe.
+ */
+final class DeleteIndex {
+    private static final int NO_LIST = -1;
+
+    private final int maxDistance;
+    private final int prefixLength;
+    private final WordInterner words;
+    // Whether the words table belongs to a vocabulary, which then accounts for its memory.
+    private final boolean sharedWords;
+    // Whether each id in the words table is indexed; shared tables hold others too.
+    private boolean[] indexed = new boolean[16];
+    private int indexedCount;
+    // Hash of a delete to the index of the list of words under it. Most deletes belong to a
+    // single word, whose id is then stored right in the table as encodeSingle(id).
+    private final LongIntTable lists;
+    private final EditDistance editDistance = new EditDistance();
+    private int[][] postings = new int[16][];
+    private int[] postingCounts = new int[16];
+    private int listCount;
+
+    // Scratch state, reused by every add and lookup.
+    private char[] chars = new char[16];
+    private final int[] removed;
+    private long[] deletes = new long[64];
+    private int deleteCount;
+    private int[] candidates = new int[16];
+    private int[] candidateDistances = new int[16];
+    private int[] seenQuery = new int[64];
+    private int query;
+
+    /**
+     * @param maxDistance the largest edit distance lookups may ask for.
+     * @param prefixLength the number of leading characters of a word that are indexed.
+     */
+    DeleteIndex(int maxDistance, int prefixLength) {
+        this(maxDistance, prefixLength, new WordInterner(), false);
+    }
+
+    /**
+     * @param words the table words are interned in, shared with the vocabulary.
+     */
+    DeleteIndex(int maxDistance, int prefixLength, WordInterner words) {
+        this(maxDistance, prefixLength, words, true);
+    }
+
+    private DeleteIndex(int maxDistance, int prefixLength, WordInterner words,
+            boolean sharedWords) {
+        this.maxDistance = maxDistance;
+        this.prefixLength = prefixLength;
+        this.removed = new int[maxDistance];
+        this.words = words;
+        this.sharedWords = sharedWords;
+        this.lists = new LongIntTable();
+    }
+
+    private DeleteIndex(DeleteIndex other, WordInterner words) {
+        maxDistance = other.maxDistance;
+        prefixLength = other.prefixLength;
+        removed = new int[maxDistance];
+        this.words = words;
+        sharedWords = other.sharedWords;
+        indexed = other.indexed.clone();
+        indexedCount = other.indexedCount;
+        lists = other.lists.copy();
+        postings = new int[other.postings.length][];
+        for (int i = 0; i < other.listCount; i++) {
+            postings[i] = other.postings[i].clone();
+        }
+        postingCounts = other.postingCounts.clone();
+        listCount = other.listCount;
+    }
+
+    /**
+     * Returns a copy that shares nothing with this index, for an index with its own words.
+     */
+    DeleteIndex copy() {
+        return new DeleteIndex(this, words.copy());
+    }
+
+    /**
+     * Returns a copy that shares nothing with this index but the words table, which must be a
+     * copy of this index's table, as made with its vocabulary.
+     */
+    DeleteIndex copy(WordInterner words) {
+        return new DeleteIndex(this, words);
+    }
+
+    /**
+     * Indexes the word, unless it already is.
+     */
+    void add(String word) {
+        if (word.isEmpty()) {
+            return;
+        }
+        final int id = words.intern(word);
+        if (id >= indexed.length) {
+            indexed = Arrays.copyOf(indexed, Math.max(id + 1, indexed.length * 2));
+        }
+        if (indexed[id]) {
+            return;
+        }
+        indexed[id] = true;
+        indexedCount++;
+        collectDeletes(word);
+        for (int i = 0; i < deleteCount; i++) {
+            addPosting(deletes[i], id);
+        }
+    }
+
+    boolean contains(String word) {
+        final int id = words.find(word);
+        return id != WordInterner.NO_ID && id < indexed.length && indexed[id];
+    }
+
+    /**
+     * Adds to the list the indexed words within the given distance of the input, ignoring
+     * case, nearest first. Words equal to the input are left out.
+     */
+    void lookup(String input, int distance, List<String> out) {
+        if (input.isEmpty()) {
+            return;
+        }
+        distance = Math.min(distance, maxDistance);
+        collectDeletes(input);
+        if (seenQuery.length < words.size()) {
+            seenQuery = Arrays.copyOf(seenQuery, Math.max(words.size(), seenQuery.length * 2));
+        }
+        query++;
+
+        editDistance.setPattern(input);
+        int candidateCount = 0;
+        for (int i = 0; i < deleteCount; i++) {
+            final int list = lists.get(deletes[i], NO_LIST);
+            if (list == NO_LIST) {
+                continue;
+            }
+            if (list < NO_LIST) {
+                candidateCount = check(decodeSingle(list), distance, candidateCount);
+                continue;
+            }
+            final int[] ids = postings[list];
+            for (int j = postingCounts[list] - 1; j >= 0; j--) {
+                candidateCount = check(ids[j], distance, candidateCount);
+            }
+        }
+
+        // Nearest first, and words interned earlier first within a distance. Insertion sort,
+        // there are rarely more than a few dozen candidates.
+        for (int i = 1; i < candidateCount; i++) {
+            final int id = candidates[i];
+            final int wordDistance = candidateDistances[i];
+            int j = i;
+            while (j > 0 && (candidateDistances[j - 1] > wordDistance
+                    || (candidateDistances[j - 1] == wordDistance && candidates[j - 1] > id))) {
+                candidates[j] = candidates[j - 1];
+                candidateDistances[j] = candidateDistances[j - 1];
+                j--;
+            }
+            candidates[j] = id;
+            candidateDistances[j] = wordDistance;
+        }
+        for (int i = 0; i < candidateCount; i++) {
+            out.add(words.get(candidates[i]));
+        }
+    }
+
+    /**
+     * Returns the number of indexed words.
+     */
+    int size() {
+        return indexedCount;
+    }
+
+    void clear() {
+        if (!sharedWords) {
+            words.clear();
+        }
+        Arrays.fill(indexed, false);
+        indexedCount = 0;
+        lists.clear();
+        Arrays.fill(postings, 0, listCount, null);
+        listCount = 0;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the index, and by its words unless they
+     * belong to a vocabulary.
+     */
+    long getApproximateHeapBytes() {
+        long bytes = lists.getApproximateHeapBytes() + indexed.length
+                + 4L * postings.length + 4L * postingCounts.length;
+        if (!sharedWords) {
+            bytes += words.getApproximateHeapBytes();
+        }
+        for (int i = 0; i < listCount; i++) {
+            bytes += 16 + 4L * postings[i].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Records the word as a candidate if it is within the distance of the input and was not
+     * seen yet in this lookup. Returns the new number of candidates.
+     */
+    private int check(int id, int distance, int candidateCount) {
+        if (seenQuery[id] == query) {
+            return candidateCount;
+        }
+        seenQuery[id] = query;
+        final int wordDistance = editDistance.getDistance(words.get(id), distance);
+        if (wordDistance == 0 || wordDistance > distance) {
+            return candidateCount;
+        }
+        if (candidateCount == candidates.length) {
+            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+            candidateDistances = Arrays.copyOf(candidateDistances, candidateCount * 2);
+        }
+        candidates[candidateCount] = id;
+        candidateDistances[candidateCount] = wordDistance;
+        return candidateCount + 1;
+    }
+
+    private void addPosting(long delete, int id) {
+        int list = lists.get(delete, NO_LIST);
+        if (list == NO_LIST) {
+            lists.put(delete, encodeSingle(id));
+            return;
+        }
+        if (list < NO_LIST) {
+            final int single = decodeSingle(list);
+            // A word can reach the same delete in several ways, e.g. either l out of "hello".
+            if (single == id) {
+                return;
+            }
+            if (listCount == postings.length) {
+                postings = Arrays.copyOf(postings, listCount * 2);
+                postingCounts = Arrays.copyOf(postingCounts, listCount * 2);
+            }
+            list = listCount++;
+            postings[list] = new int[] { single, id };
+            postingCounts[list] = 2;
+            lists.put(delete, list);
+            return;
+        }
+        int[] ids = postings[list];
+        final int count = postingCounts[list];
+        if (ids[count - 1] == id) {
+            return;
+        }
+        if (count == ids.length) {
+            ids = postings[list] = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count] = id;
+        postingCounts[list] = count + 1;
+    }
+
+    private static int encodeSingle(int id) {
+        return -2 - id;
+    }
+
+    private static int decodeSingle(int value) {
+        return -2 - value;
+    }
+
+    /**
+     * Fills {@link #deletes} with the hashes of the word's indexed prefix with up to
+     * {@link #maxDistance} characters removed, the prefix itself included.
+     */
+    private void collectDeletes(String word) {
+        final int length = Math.min(word.length(), prefixLength);
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = Character.toLowerCase(word.charAt(i));
+        }
+        deleteCount = 0;
+        collectDeletes(length, 0, 0);
+    }
+
+    private void collectDeletes(int length, int start, int depth) {
+        if (deleteCount == deletes.length) {
+            deletes = Arrays.copyOf(deletes, deleteCount * 2);
+        }
+        deletes[deleteCount++] = hashWithout(length, depth);
+        if (depth == maxDistance) {
+            return;
+        }
+        for (int i = start; i < length; i++) {
+            removed[depth] = i;
+            collectDeletes(length, i + 1, depth + 1);
+        }
+    }
+
+    /**
+     * Hashes the scratch characters, skipping the first removedCount positions of
+     * {@link #removed}, which are in increasing order.
+     */
+    private long hashWithout(int length, int removedCount) {
+        long hash = 1125899906842597L;
+        int next = 0;
+        for (int i = 0; i < length; i++) {
+            if (next < removedCount && removed[next] == i) {
+                next++;
+                continue;
+            }
+            hash = 31 * hash + chars[i];
+        }
+        // Mix in the length so that deletes of different sizes rarely collide.
+        hash = (hash ^ (length - removedCount)) * 0x9E3779B97F4A7C15L;
+        // Keys must be non-negative, the hash table reserves -1.
+        return (hash ^ (hash >>> 29)) & Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+
+/**
+ * Edit distance from one typed word to many candidates, ignoring case. Insertions, deletions,
+ * substitutions and swaps of adjacent characters each count as one edit (optimal string
+ * alignment distance).
+ *
+ * The typed word is set once as the pattern and kept as one bit mask per distinct character.
+ * A candidate is then processed a character at a time with a few word-wide bit operations
+ * that update a whole column of the distance table (Myers' algorithm, with Hyyrö's extension
+ * for transpositions), and the computation stops as soon as the distance is known to exceed
+ * the bound. Patterns longer than 64 characters fall back to the classic table, one row at a
+ * time. Nothing is allocated per candidate.
+ *
+ * Not thread safe: use one instance per thread.
+ */
+final class EditDistance {
+    static final int UNBOUNDED = Integer.MAX_VALUE - 1;
+
+    private static final int MAX_BIT_PARALLEL_LENGTH = 64;
+
+    private int patternLength;
+    private char[] pattern = new char[16];
+    // Distinct pattern characters and the positions they occur at, as bit masks.
+    private char[] maskChars = new char[16];
+    private long[] masks = new long[16];
+    private int maskCount;
+
+    // Rows of the fallback table: two rows back, previous and current.
+    private int[] rowBeforePrevious = new int[0];
+    private int[] previousRow = new int[0];
+    private int[] currentRow = new int[0];
+    // The same for the weighted distance.
+    private float[] weightedRowBeforePrevious = new float[0];
+    private float[] weightedPreviousRow = new float[0];
+    private float[] weightedCurrentRow = new float[0];
+
+    EditDistance() {
+    }
+
+    EditDistance(CharSequence pattern) {
+        setPattern(pattern);
+    }
+
+    /**
+     * Sets the word that the following calls measure distances from.
+     */
+    void setPattern(CharSequence word) {
+        patternLength = word.length();
+        if (pattern.length < patternLength) {
+            pattern = new char[patternLength];
+        }
+        maskCount = 0;
+        for (int i = 0; i < patternLength; i++) {
+            final char c = Character.toLowerCase(word.charAt(i));
+            pattern[i] = c;
+            if (i < MAX_BIT_PARALLEL_LENGTH) {
+                int index = findMask(c);
+                if (index < 0) {
+                    if (maskCount == maskChars.length) {
+                        maskChars = Arrays.copyOf(maskChars, maskCount * 2);
+                        masks = Arrays.copyOf(masks, maskCount * 2);
+                    }
+                    index = maskCount++;
+                    maskChars[index] = c;
+                    masks[index] = 0;
+                }
+                masks[index] |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * Returns the distance between the pattern and the text, or {@code bound + 1} if it is
+     * larger than the bound.
+     */
+    int getDistance(CharSequence text, int bound) {
+        final int textLength = text.length();
+        if (Math.abs(textLength - patternLength) > bound) {
+            return bound + 1;
+        }
+        if (patternLength == 0) {
+            return textLength;
+        }
+        if (textLength == 0) {
+            return patternLength;
+        }
+        return patternLength <= MAX_BIT_PARALLEL_LENGTH
+                ? getBitParallelDistance(text, textLength, bound)
+                : getTableDistance(text, textLength, bound);
+    }
+
+    private int getBitParallelDistance(CharSequence text, int textLength, int bound) {
+        final long lastBit = 1L << (patternLength - 1);
+        // Vertical deltas of the current column: +1 (positive) and -1 (negative) bits.
+        long positive = patternLength == 64 ? -1L : (1L << patternLength) - 1;
+        long negative = 0;
+        long previousMatches = 0;
+        long previousDiagonal = 0;
+        int distance = patternLength;
+
+        for (int j = 0; j < textLength; j++) {
+            final long matches = getMask(Character.toLowerCase(text.charAt(j)));
+            final long transpositions = ((~previousDiagonal & matches) << 1) & previousMatches;
+            final long diagonal = (((matches & positive) + positive) ^ positive) | matches
+                    | negative | transpositions;
+            long horizontalPositive = negative | ~(diagonal | positive);
+            long horizontalNegative = positive & diagonal;
+            if ((horizontalPositive & lastBit) != 0) {
+                distance++;
+            } else if ((horizontalNegative & lastBit) != 0) {
+                distance--;
+            }
+            // Each remaining text character can lower the distance by one at most.
+            if (distance - (textLength - j - 1) > bound) {
+                return bound + 1;
+            }
+            horizontalPositive = (horizontalPositive << 1) | 1;
+            horizontalNegative <<= 1;
+            positive = horizontalNegative | ~(diagonal | horizontalPositive);
+            negative = horizontalPositive & diagonal;
+            previousMatches = matches;
+            previousDiagonal = diagonal;
+        }
+        return distance <= bound ? distance : bound + 1;
+    }
+
+    private int getTableDistance(CharSequence text, int textLength, int bound) {
+        final int columns = textLength + 1;
+        if (currentRow.length < columns) {
+            rowBeforePrevious = new int[columns];
+            previousRow = new int[columns];
+            currentRow = new int[columns];
+        }
+        for (int j = 0; j < columns; j++) {
+            currentRow[j] = j;
+        }
+        for (int i = 1; i <= patternLength; i++) {
+            final int[] recycled = rowBeforePrevious;
+            rowBeforePrevious = previousRow;
+            previousRow = currentRow;
+            currentRow = recycled;
+            final char patternChar = pattern[i - 1];
+            currentRow[0] = i;
+            int rowMin = i;
+            for (int j = 1; j < columns; j++) {
+                final char textChar = Character.toLowerCase(text.charAt(j - 1));
+                int value = Math.min(previousRow[j] + 1, currentRow[j - 1] + 1);
+                value = Math.min(value, previousRow[j - 1] + (patternChar == textChar ? 0 : 1));
+                if (i > 1 && j > 1 && patternChar == Character.toLowerCase(text.charAt(j - 2))
+                        && pattern[i - 2] == textChar) {
+                    value = Math.min(value, rowBeforePrevious[j - 2] + 1);
+                }
+                currentRow[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > bound) {
+                return bound + 1;
+            }
+        }
+        final int distance = currentRow[textLength];
+        return distance <= bound ? distance : bound + 1;
+    }
+
+    /**
+     * Returns the distance between the pattern, as typed, and the text, where substituting a
+     * letter costs less the closer its key is to the intended one. Meant for ordering the few
+     * candidates already within the typo budget, so there is no bound.
+     */
+    float getWeightedDistance(CharSequence text, KeyProximityTable proximity) {
+        final int columns = text.length() + 1;
+        if (weightedCurrentRow.length < columns) {
+            weightedRowBeforePrevious = new float[columns];
+            weightedPreviousRow = new float[columns];
+            weightedCurrentRow = new float[columns];
+        }
+        for (int j = 0; j < columns; j++) {
+            weightedCurrentRow[j] = j;
+        }
+        for (int i = 1; i <= patternLength; i++) {
+            final float[] recycled = weightedRowBeforePrevious;
+            weightedRowBeforePrevious = weightedPreviousRow;
+            weightedPreviousRow = weightedCurrentRow;
+            weightedCurrentRow = recycled;
+            final char patternChar = pattern[i - 1];
+            weightedCurrentRow[0] = i;
+            for (int j = 1; j < columns; j++) {
+                final char textChar = Character.toLowerCase(text.charAt(j - 1));
+                float value = Math.min(weightedPreviousRow[j] + 1, weightedCurrentRow[j - 1] + 1);
+                value = Math.min(value, weightedPreviousRow[j - 1]
+                        + proximity.getSubstitutionCost(patternChar, textChar));
+                if (i > 1 && j > 1 && patternChar == Character.toLowerCase(text.charAt(j - 2))
+                        && pattern[i - 2] == textChar) {
+                    value = Math.min(value, weightedRowBeforePrevious[j - 2] + 1);
+                }
+                weightedCurrentRow[j] = value;
+            }
+        }
+        return weightedCurrentRow[columns - 1];
+    }
+
+    private long getMask(char c) {
+        final int index = findMask(c);
+        return index >= 0 ? masks[index] : 0;
+    }
+
+    private int findMask(char c) {
+        for (int i = 0; i < maskCount; i++) {
+            if (maskChars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
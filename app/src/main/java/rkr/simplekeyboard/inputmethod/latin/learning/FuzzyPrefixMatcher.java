@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the edit distance between a typed word and the path of a trie walk, one character
+ * at a time, so that a depth-first traversal can find every word starting with something
+ * close to what was typed.
+ *
+ * Each pushed character adds one row of the edit distance table (insertions, deletions,
+ * substitutions and adjacent transpositions), and popping it goes back to the parent's row.
+ * {@link #push(char)} refuses characters that put every alignment over the error budget, which
+ * is where the traversal stops descending.
+ */
+final class FuzzyPrefixMatcher {
+    private final String query;
+    private final int columns;
+    private final int maxErrors;
+    // Row d holds the distances between the first d path characters and each query prefix.
+    private int[] rows;
+    private char[] path;
+    private int depth;
+
+    /**
+     * @param query the typed word, lower case.
+     * @param maxErrors the largest distance worth following.
+     */
+    FuzzyPrefixMatcher(String query, int maxErrors) {
+        this.query = query;
+        this.columns = query.length() + 1;
+        this.maxErrors = maxErrors;
+        final int capacity = query.length() + maxErrors + 1;
+        rows = new int[capacity * columns];
+        path = new char[capacity];
+        for (int j = 0; j < columns; j++) {
+            rows[j] = j;
+        }
+    }
+
+    /**
+     * Extends the path with a character. Returns false, leaving the path unchanged, if no word
+     * below it can be within the error budget.
+     */
+    boolean push(char c) {
+        final int next = depth + 1;
+        if ((next + 1) * columns > rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+            path = Arrays.copyOf(path, path.length * 2);
+        }
+        final int previous = depth * columns;
+        final int current = next * columns;
+        final int beforePrevious = previous - columns;
+        final char previousChar = depth > 0 ? path[depth - 1] : 0;
+        rows[current] = next;
+        int min = next;
+        for (int j = 1; j < columns; j++) {
+            final char queryChar = query.charAt(j - 1);
+            int distance = Math.min(rows[previous + j] + 1, rows[current + j - 1] + 1);
+            distance = Math.min(distance, rows[previous + j - 1] + (queryChar == c ? 0 : 1));
+            if (depth > 0 && j > 1 && queryChar == previousChar && query.charAt(j - 2) == c) {
+                distance = Math.min(distance, rows[beforePrevious + j - 2] + 1);
+            }
+            rows[current + j] = distance;
+            min = Math.min(min, distance);
+        }
+        if (min > maxErrors) {
+            return false;
+        }
+        path[depth] = c;
+        depth = next;
+        return true;
+    }
+
+    void pop() {
+        depth--;
+    }
+
+    /**
+     * Returns the distance between the whole typed word and the path, which every word below
+     * the path starts with.
+     */
+    int getDistance() {
+        return rows[depth * columns + columns - 1];
+    }
+
+    /**
+     * Returns whether the words below the path are within the error budget.
+     */
+    boolean isMatch() {
+        return getDistance() <= maxErrors;
+    }
+
+    /**
+     * Returns whether going deeper could still lower {@link #getDistance()}. Distances never
+     * drop below the smallest one in the current row.
+     */
+    boolean canImprove() {
+        final int start = depth * columns;
+        final int distance = rows[start + columns - 1];
+        for (int j = start; j < start + columns - 1; j++) {
+            if (rows[j] < distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
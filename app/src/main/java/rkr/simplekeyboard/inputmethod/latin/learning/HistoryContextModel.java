@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The sentences the user typed, as one array of word ids with a suffix array over it, which
+ * predicts the next word from the longest context of any order that was typed before.
+ *
+ * Sentences are separated by a boundary token that no context crosses. Suffixes are sorted by
+ * their first {@value #MAX_ORDER} words and the word after them, so the positions that follow
+ * a context are one range of the suffix array, found with two binary searches, and within the
+ * range they are grouped by the word that came next. Sentences learned since the last lookup
+ * or {@link #copy()} are sorted on their own and merged in, so learning costs no more than the
+ * new words. The history holds at most {@value #MAX_TOKENS} tokens; the oldest half is dropped
+ * when it is full, so memory grows linearly up to about 8 bytes per token.
+ *
+ * The {@link NGramModel} predicts from the last one or two words; this model only answers
+ * once at least {@value #MIN_ORDER} words of the context were typed in that order before.
+ * Not thread safe.
+ */
+final class HistoryContextModel {
+    // "SKTH" when read as bytes.
+    static final int MAGIC = 0x48544B53;
+    static final int VERSION = 1;
+    // Separates sentences and stands for punctuation, sorts before every word.
+    private static final int BOUNDARY = -1;
+    // Longest context looked up, in words.
+    static final int MAX_ORDER = 6;
+    // Shorter contexts are left to the n-gram model.
+    static final int MIN_ORDER = 3;
+    static final int MAX_TOKENS = 1 << 17;
+    // Positions read to count the words after one context.
+    private static final int MAX_SCANNED = 4096;
+
+    private WordInterner words = new WordInterner();
+    private int[] tokens = new int[64];
+    private int length;
+    // Positions of the indexed suffixes in sorted order, and how many tokens they cover.
+    private int[] suffixes = new int[64];
+    private int suffixCount;
+    private int indexedLength;
+
+    // Scratch state of lookups and indexing.
+    private final TextTokenizer tokenizer = new TextTokenizer();
+    private final StringBuilder normalizedWord = new StringBuilder();
+    private final int[] contextIds = new int[MAX_ORDER];
+    private int[] followerIds = new int[8];
+    private int[] followerCounts = new int[8];
+    private int[] sortBuffer = new int[64];
+    private int[] sortScratch = new int[64];
+
+    HistoryContextModel() {
+    }
+
+    private HistoryContextModel(HistoryContextModel other) {
+        words = other.words.copy();
+        tokens = Arrays.copyOf(other.tokens, other.length);
+        length = other.length;
+        suffixes = Arrays.copyOf(other.suffixes, other.suffixCount);
+        suffixCount = other.suffixCount;
+        indexedLength = other.indexedLength;
+    }
+
+    /**
+     * Returns a copy that shares nothing with this model, with every sentence indexed.
+     */
+    HistoryContextModel copy() {
+        index();
+        return new HistoryContextModel(this);
+    }
+
+    /**
+     * Appends a sentence already split by a tokenizer to the history. Punctuation, domain
+     * names and URLs break the context like the end of a sentence does.
+     */
+    void learnFromTokens(TextTokenizer tokens) {
+        final int count = tokens.getCount();
+        // Whatever is this long was pasted, not typed
+        if (count == 0 || count >= MAX_TOKENS / 2) {
+            return;
+        }
+        if (length + count + 1 > MAX_TOKENS) {
+            dropOldest();
+        }
+        ensureCapacity(length + count + 1);
+        final CharSequence text = tokens.getText();
+        for (int i = 0; i < count; i++) {
+            if (normalize(text, tokens.getStart(i), tokens.getEnd(i), tokens.getType(i))) {
+                final int id = words.find(normalizedWord);
+                append(id != WordInterner.NO_ID ? id : words.intern(normalizedWord.toString()));
+            } else {
+                append(BOUNDARY);
+            }
+        }
+        append(BOUNDARY);
+    }
+
+    /**
+     * Predicts up to {@code limit} words to follow the context, most often seen first, from the
+     * longest run of its last words typed before. Returns an empty list unless that run is at
+     * least {@value #MIN_ORDER} words long.
+     */
+    List<String> predictNextWords(String context, int limit) {
+        final List<String> predictions = new ArrayList<>();
+        if (context == null || limit <= 0) {
+            return predictions;
+        }
+        index();
+        final int order = readContext(context);
+
+        // A context only occurs where its last words do, so stop at the first miss
+        int from = 0;
+        int to = 0;
+        int matched = 0;
+        for (int k = 1; k <= order; k++) {
+            final int lower = search(order - k, k, false);
+            final int upper = search(order - k, k, true);
+            if (lower == upper) {
+                break;
+            }
+            from = lower;
+            to = upper;
+            matched = k;
+        }
+        if (matched < MIN_ORDER) {
+            return predictions;
+        }
+
+        // The range is sorted by the word after the context, count each run of it
+        int followers = 0;
+        final int end = Math.min(to, from + MAX_SCANNED);
+        for (int i = from; i < end; i++) {
+            final int next = tokens[suffixes[i] + matched];
+            if (next == BOUNDARY) {
+                continue;
+            }
+            if (followers > 0 && followerIds[followers - 1] == next) {
+                followerCounts[followers - 1]++;
+            } else {
+                if (followers == followerIds.length) {
+                    followerIds = Arrays.copyOf(followerIds, followers * 2);
+                    followerCounts = Arrays.copyOf(followerCounts, followers * 2);
+                }
+                followerIds[followers] = next;
+                followerCounts[followers] = 1;
+                followers++;
+            }
+        }
+
+        // Most frequent first, few enough to select one at a time
+        while (predictions.size() < limit) {
+            int best = -1;
+            for (int i = 0; i < followers; i++) {
+                if (followerCounts[i] > 0
+                        && (best < 0 || followerCounts[i] > followerCounts[best])) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            predictions.add(words.get(followerIds[best]));
+            followerCounts[best] = 0;
+        }
+        return predictions;
+    }
+
+    /**
+     * Returns the number of tokens in the history, boundaries included.
+     */
+    int size() {
+        return length;
+    }
+
+    void clear() {
+        words = new WordInterner();
+        length = 0;
+        suffixCount = 0;
+        indexedLength = 0;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the history and its index.
+     */
+    long getApproximateHeapBytes() {
+        return words.getApproximateHeapBytes() + 4L * (tokens.length + suffixes.length
+                + sortBuffer.length + sortScratch.length);
+    }
+
+    /**
+     * Returns the size in bytes of {@link #writeTo(ByteBuffer)}: a header, the words by id and
+     * the tokens. The suffix array is sorted again when the history is read.
+     */
+    int getSerializedSize() {
+        int size = 16 + 4 * length;
+        for (int id = 0; id < words.size(); id++) {
+            size += 4 + 2 * words.get(id).length();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the history to the buffer, which must have {@link #getSerializedSize()} bytes
+     * remaining.
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(words.size());
+        for (int id = 0; id < words.size(); id++) {
+            final String word = words.get(id);
+            buffer.putInt(word.length());
+            for (int i = 0; i < word.length(); i++) {
+                buffer.putChar(word.charAt(i));
+            }
+        }
+        buffer.putInt(length);
+        for (int i = 0; i < length; i++) {
+            buffer.putInt(tokens[i]);
+        }
+    }
+
+    /**
+     * Replaces the history with the one in the buffer.
+     *
+     * @throws IOException if the buffer does not hold a history this version can read, in
+     *         which case the model is left as it was.
+     */
+    void readFrom(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a typed history");
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported typed history version " + version);
+            }
+            final WordInterner newWords = new WordInterner();
+            final int wordCount = buffer.getInt();
+            for (int id = 0; id < wordCount; id++) {
+                final int wordLength = buffer.getInt();
+                if (wordLength <= 0 || wordLength > buffer.remaining() / 2) {
+                    throw new IOException("Corrupt typed history word length " + wordLength);
+                }
+                final char[] chars = new char[wordLength];
+                for (int i = 0; i < wordLength; i++) {
+                    chars[i] = buffer.getChar();
+                }
+                if (newWords.intern(new String(chars)) != id) {
+                    throw new IOException("Repeated typed history word");
+                }
+            }
+            final int newLength = buffer.getInt();
+            if (newLength < 0 || newLength > MAX_TOKENS || newLength > buffer.remaining() / 4) {
+                throw new IOException("Corrupt typed history length " + newLength);
+            }
+            final int[] newTokens = new int[Math.max(newLength, 64)];
+            for (int i = 0; i < newLength; i++) {
+                final int token = buffer.getInt();
+                if (token < BOUNDARY || token >= wordCount) {
+                    throw new IOException("Corrupt typed history token " + token);
+                }
+                newTokens[i] = token;
+            }
+            // Every indexed suffix must end at a boundary
+            if (newLength > 0 && newTokens[newLength - 1] != BOUNDARY) {
+                throw new IOException("Truncated typed history");
+            }
+            words = newWords;
+            tokens = newTokens;
+            length = newLength;
+            suffixCount = 0;
+            indexedLength = 0;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated typed history", e);
+        }
+    }
+
+    /**
+     * Puts the ids of the last words of the context, up to the first boundary or unknown word
+     * and at most {@value #MAX_ORDER}, at the end of {@link #contextIds}. Returns how many.
+     */
+    private int readContext(String context) {
+        final int count = tokenizer.tokenize(context);
+        int order = 0;
+        for (int i = count - 1; i >= 0 && order < MAX_ORDER; i--) {
+            if (!normalize(context, tokenizer.getStart(i), tokenizer.getEnd(i),
+                    tokenizer.getType(i))) {
+                break;
+            }
+            final int id = words.find(normalizedWord);
+            if (id == WordInterner.NO_ID) {
+                break;
+            }
+            contextIds[MAX_ORDER - 1 - order] = id;
+            order++;
+        }
+        // Move them to the front, oldest first
+        System.arraycopy(contextIds, MAX_ORDER - order, contextIds, 0, order);
+        return order;
+    }
+
+    /**
+     * Returns the first suffix that sorts after the context words from {@code start}, or from
+     * which on every suffix does not sort before them if {@code after} is false.
+     */
+    private int search(int start, int count, boolean after) {
+        int low = 0;
+        int high = suffixCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compareToContext(suffixes[middle], start, count);
+            if (comparison < 0 || (after && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compareToContext(int position, int start, int count) {
+        for (int i = 0; i < count; i++) {
+            final int token = tokens[position + i];
+            final int word = contextIds[start + i];
+            if (token != word) {
+                return token < word ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sorts the suffixes of the sentences learned since the last call and merges them into
+     * the suffix array.
+     */
+    private void index() {
+        if (indexedLength == length) {
+            return;
+        }
+        int added = 0;
+        if (sortBuffer.length < length - indexedLength) {
+            sortBuffer = new int[length - indexedLength];
+            sortScratch = new int[length - indexedLength];
+        }
+        for (int position = indexedLength; position < length; position++) {
+            if (tokens[position] != BOUNDARY) {
+                sortBuffer[added++] = position;
+            }
+        }
+        sort(sortBuffer, sortScratch, 0, added);
+
+        // Merge from the back, the new suffixes are in their own buffer
+        if (suffixes.length < suffixCount + added) {
+            suffixes = Arrays.copyOf(suffixes, Math.max(suffixCount + added, suffixes.length * 2));
+        }
+        int old = suffixCount - 1;
+        int fresh = added - 1;
+        for (int target = suffixCount + added - 1; fresh >= 0; target--) {
+            if (old >= 0 && compareSuffixes(suffixes[old], sortBuffer[fresh]) > 0) {
+                suffixes[target] = suffixes[old--];
+            } else {
+                suffixes[target] = sortBuffer[fresh--];
+            }
+        }
+        suffixCount += added;
+        indexedLength = length;
+    }
+
+    /**
+     * Merge sorts the positions from {@code from} to {@code to} by their suffixes.
+     */
+    private void sort(int[] positions, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        sort(positions, scratch, from, middle);
+        sort(positions, scratch, middle, to);
+        if (compareSuffixes(positions[middle - 1], positions[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(positions, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int target = from; target < to; target++) {
+            if (right >= to || (left < middle
+                    && compareSuffixes(scratch[left], scratch[right]) <= 0)) {
+                positions[target] = scratch[left++];
+            } else {
+                positions[target] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Orders two suffixes by their first {@value #MAX_ORDER} words and the one after, up to
+     * the end of their sentence, then by position. Every suffix ends at a boundary before
+     * {@link #length}, so the words compared never change once a sentence is learned.
+     */
+    private int compareSuffixes(int first, int second) {
+        for (int i = 0; i <= MAX_ORDER; i++) {
+            final int a = tokens[first + i];
+            final int b = tokens[second + i];
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+            if (a == BOUNDARY) {
+                break;
+            }
+        }
+        return Integer.compare(first, second);
+    }
+
+    /**
+     * Drops the older half of the history, with the words only it used, and sorts what is
+     * left again.
+     */
+    private void dropOldest() {
+        int start = length / 2;
+        while (start < length && tokens[start - 1] != BOUNDARY) {
+            start++;
+        }
+        final WordInterner oldWords = words;
+        words = new WordInterner();
+        for (int i = start; i < length; i++) {
+            final int token = tokens[i];
+            tokens[i - start] = token == BOUNDARY ? BOUNDARY : words.intern(oldWords.get(token));
+        }
+        length -= start;
+        suffixCount = 0;
+        indexedLength = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (tokens.length < capacity) {
+            tokens = Arrays.copyOf(tokens, Math.max(capacity, tokens.length * 2));
+        }
+    }
+
+    private void append(int token) {
+        // Sentences start after a boundary, and never hold two in a row
+        if (token == BOUNDARY && (length == 0 || tokens[length - 1] == BOUNDARY)) {
+            return;
+        }
+        tokens[length++] = token;
+    }
+
+    /**
+     * Puts the token between start and end in {@link #normalizedWord}: emojis as they are,
+     * words lower case with only letters and digits kept. Returns whether the token is a word
+     * or emoji with anything left.
+     */
+    private boolean normalize(CharSequence text, int start, int end, int type) {
+        normalizedWord.setLength(0);
+        if (type == TextTokenizer.TYPE_EMOJI) {
+            normalizedWord.append(text, start, end);
+        } else if (type == TextTokenizer.TYPE_WORD) {
+            for (int i = start; i < end; i++) {
+                final char c = text.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    normalizedWord.append(Character.toLowerCase(c));
+                }
+            }
+        }
+        return normalizedWord.length() > 0;
+    }
+}
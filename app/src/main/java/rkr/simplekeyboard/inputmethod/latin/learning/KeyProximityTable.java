@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+
+/**
+ * How likely one letter is to be typed in place of another on the current layout, from the
+ * distance between the centers of their keys.
+ *
+ * Built once per keyboard layout from the key geometry, so corrections follow whatever layout
+ * is in use (QWERTY, AZERTY, Dvorak, Arabic, ...). Costs for every pair of letters on the
+ * layout are kept in one dense matrix. Immutable, so it can be shared between threads.
+ */
+public final class KeyProximityTable {
+    // Substitution cost for keys next to each other, up to 1 for keys two widths apart.
+    private static final float MIN_SUBSTITUTION_COST = 0.5f;
+
+    // Lower case letters on the layout, sorted, and the costs between them by index.
+    private final char[] letters;
+    private final float[] costs;
+
+    /**
+     * @param codes the code of each key.
+     * @param centerX the horizontal center of each key.
+     * @param centerY the vertical center of each key.
+     * @param keyWidth the most common key width, the unit of distances.
+     */
+    public KeyProximityTable(int[] codes, int[] centerX, int[] centerY, int keyWidth) {
+        final int keyCount = codes.length;
+        final char[] found = new char[keyCount];
+        final int[] keyIndex = new int[keyCount];
+        int count = 0;
+        for (int i = 0; i < keyCount; i++) {
+            final int code = codes[i];
+            if (code <= 0 || code > Character.MAX_VALUE || !Character.isLetter(code)) {
+                continue;
+            }
+            final char letter = Character.toLowerCase((char) code);
+            boolean duplicate = false;
+            for (int j = 0; j < count; j++) {
+                if (found[j] == letter) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                found[count] = letter;
+                keyIndex[count] = i;
+                count++;
+            }
+        }
+
+        // Sort letters along with their keys, there are a few dozen at most
+        for (int i = 1; i < count; i++) {
+            final char letter = found[i];
+            final int key = keyIndex[i];
+            int j = i;
+            while (j > 0 && found[j - 1] > letter) {
+                found[j] = found[j - 1];
+                keyIndex[j] = keyIndex[j - 1];
+                j--;
+            }
+            found[j] = letter;
+            keyIndex[j] = key;
+        }
+
+        letters = Arrays.copyOf(found, count);
+        costs = new float[count * count];
+        final float unit = Math.max(1, keyWidth);
+        for (int a = 0; a < count; a++) {
+            for (int b = 0; b < count; b++) {
+                if (a == b) {
+                    continue;
+                }
+                final float dx = (centerX[keyIndex[a]] - centerX[keyIndex[b]]) / unit;
+                final float dy = (centerY[keyIndex[a]] - centerY[keyIndex[b]]) / unit;
+                final float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                costs[a * count + b] = Math.min(1f, Math.max(MIN_SUBSTITUTION_COST, distance / 2));
+            }
+        }
+    }
+
+    /**
+     * Returns the cost of typing one letter instead of the other, ignoring case: 0 for the same
+     * letter, from 0.5 for neighboring keys to 1 for keys further apart or not on the layout.
+     */
+    public float getSubstitutionCost(char typed, char intended) {
+        final char a = Character.toLowerCase(typed);
+        final char b = Character.toLowerCase(intended);
+        if (a == b) {
+            return 0;
+        }
+        final int indexA = Arrays.binarySearch(letters, a);
+        final int indexB = Arrays.binarySearch(letters, b);
+        if (indexA < 0 || indexB < 0) {
+            return 1;
+        }
+        return costs[indexA * letters.length + indexB];
+    }
+
+    /**
+     * Returns the number of letters on the layout.
+     */
+    public int size() {
+        return letters.length;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+/**
+ * The words and n-grams of one language, with the files they are kept in and the index used
+ * to correct typos against them.
+ *
+ * {@link LocalLearningEngine} keeps one shard per enabled language it has been asked for and
+ * uses the one of the current subtype, so lookups only search the vocabulary of the language
+ * being typed and languages that are not used take no memory. Not thread safe: the engine
+ * guards every shard with its own lock, and suggestions read a {@link LearningView} copied
+ * from it.
+ */
+final class LanguageShard {
+    final String language;
+    final WordTrie wordTrie;
+    final NGramModel ngramModel;
+    final LocalStorage storage;
+    // Every known word with the ranking columns, and indexed for typo corrections by the
+    // same ids.
+    final Vocabulary vocabulary;
+    final DeleteIndex spellingIndex;
+    // The sentences typed, null when long context prediction is off.
+    final HistoryContextModel history;
+
+    /**
+     * Loads the learned data of the language, or its bootstrap dictionary if nothing was
+     * learned yet, and indexes it. Reads files, so keep it off the UI thread.
+     */
+    LanguageShard(String language, WordTrie wordTrie, LocalStorage storage,
+            Vocabulary vocabulary, DeleteIndex spellingIndex, HistoryContextModel history,
+            UserDictionary userDictionary) {
+        this.language = language;
+        this.wordTrie = wordTrie;
+        this.ngramModel = new NGramModel();
+        this.storage = storage;
+        this.vocabulary = vocabulary;
+        this.spellingIndex = spellingIndex;
+        this.history = history;
+
+        storage.loadLearningData(wordTrie, ngramModel);
+        if (history != null) {
+            storage.loadTypedHistory(history);
+        }
+        indexVocabulary(userDictionary);
+
+        // Journal n-gram updates from here on; replayed ones are already on disk
+        ngramModel.setUpdateListener(new NGramModel.UpdateListener() {
+            @Override
+            public void onBigramAdded(String previousWord, String word) {
+                storage.logBigram(previousWord, word);
+            }
+
+            @Override
+            public void onTrigramAdded(String firstWord, String secondWord, String word) {
+                storage.logTrigram(firstWord, secondWord, word);
+            }
+        });
+    }
+
+    /**
+     * Counts a use of the word in the trie and the ranking columns, and journals it.
+     */
+    void insertWord(String word) {
+        final long now = System.currentTimeMillis();
+        wordTrie.insert(word, now);
+        vocabulary.recordUse(word.toLowerCase().trim(), now);
+        storage.logWord(word, now);
+    }
+
+    /**
+     * Writes a snapshot of everything learned so far, in the background.
+     */
+    void save() {
+        storage.saveLearningData(wordTrie, ngramModel);
+        if (history != null) {
+            storage.saveTypedHistory(history);
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot once it has grown long enough.
+     */
+    void compactIfNeeded() {
+        if (storage.needsCompaction()) {
+            save();
+        }
+    }
+
+    /**
+     * Fills the ranking columns from the trie counts loaded from disk, and indexes the
+     * bootstrap and learned words, and the user dictionary words written in the language's
+     * script, for typo suggestions.
+     */
+    private void indexVocabulary(UserDictionary userDictionary) {
+        wordTrie.forEachWord(new WordTrie.WordVisitor() {
+            @Override
+            public void visit(String word, int frequency, long lastUsed) {
+                vocabulary.putWord(word, frequency, lastUsed);
+                spellingIndex.add(word);
+            }
+        });
+        for (int i = 0; i < userDictionary.size(); i++) {
+            final String word = userDictionary.get(i);
+            if (UserDictionary.isInScriptOf(word, language)) {
+                spellingIndex.add(word);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Append-only log of learning events written since the last {@link LearningSnapshot}.
+ *
+ * Each event is one small record, so the cost of persisting input grows with what was typed
+ * rather than with the size of the models. The header carries the generation of the snapshot
+ * the events apply to; a journal older than the snapshot has already been folded into it.
+ *
+ * A record cut short by a crash ends the replay, the events before it are kept. The journal
+ * is read whole, which stays cheap because it is compacted into a snapshot once it grows. Not
+ * thread safe: writes are expected to come from a single background thread.
+ */
+final class LearningJournal {
+    // "SKLJ" when read as bytes.
+    static final int MAGIC = 0x534B4C4A;
+    static final int VERSION = 1;
+
+    private static final int EVENT_WORD = 1;
+    private static final int EVENT_BIGRAM = 2;
+    private static final int EVENT_TRIGRAM = 3;
+
+    private final File file;
+    private FileOutputStream outputFile;
+    private DataOutputStream output;
+
+    LearningJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the generation in the journal header, or -1 if there is no readable journal.
+     */
+    int readGeneration() {
+        if (!file.exists()) {
+            return -1;
+        }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            return readHeader(input);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Passes every complete event in the journal to the replayer, then cuts off whatever
+     * follows the last complete event so that new events are not appended after garbage.
+     *
+     * @return the number of events replayed.
+     */
+    int replay(Replayer replayer) {
+        final byte[] data;
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            data = new byte[(int) file.length()];
+            input.readFully(data);
+        } catch (IOException e) {
+            return 0;
+        }
+
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        final DataInputStream input = new DataInputStream(bytes);
+        int events = 0;
+        int validLength = 0;
+        try {
+            if (readHeader(input) < 0) {
+                return 0;
+            }
+            validLength = data.length - bytes.available();
+            while (true) {
+                final int type = input.read();
+                if (type == EVENT_WORD) {
+                    final String word = input.readUTF();
+                    replayer.onWord(word, input.readLong());
+                } else if (type == EVENT_BIGRAM) {
+                    final String previousWord = input.readUTF();
+                    replayer.onBigram(previousWord, input.readUTF());
+                } else if (type == EVENT_TRIGRAM) {
+                    final String firstWord = input.readUTF();
+                    final String secondWord = input.readUTF();
+                    replayer.onTrigram(firstWord, secondWord, input.readUTF());
+                } else {
+                    // End of file, or the garbage a crash left behind.
+                    break;
+                }
+                events++;
+                validLength = data.length - bytes.available();
+            }
+        } catch (IOException e) {
+            // The last record was cut short.
+        }
+
+        if (validLength < data.length) {
+            try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+                journal.setLength(validLength);
+            } catch (IOException e) {
+                // The next replay stops at the same place.
+            }
+        }
+        return events;
+    }
+
+    void appendWord(String word, long time) throws IOException {
+        final DataOutputStream out = getOutput();
+        out.writeByte(EVENT_WORD);
+        out.writeUTF(word);
+        out.writeLong(time);
+    }
+
+    void appendBigram(String previousWord, String word) throws IOException {
+        final DataOutputStream out = getOutput();
+        out.writeByte(EVENT_BIGRAM);
+        out.writeUTF(previousWord);
+        out.writeUTF(word);
+    }
+
+    void appendTrigram(String firstWord, String secondWord, String word) throws IOException {
+        final DataOutputStream out = getOutput();
+        out.writeByte(EVENT_TRIGRAM);
+        out.writeUTF(firstWord);
+        out.writeUTF(secondWord);
+        out.writeUTF(word);
+    }
+
+    /**
+     * Pushes the buffered events to the file.
+     */
+    void flush() throws IOException {
+        if (output != null) {
+            output.flush();
+        }
+    }
+
+    /**
+     * Pushes the buffered events to the file and waits until the device has them.
+     */
+    void sync() throws IOException {
+        if (output != null) {
+            output.flush();
+            outputFile.getFD().sync();
+        }
+    }
+
+    /**
+     * Drops every event and starts an empty journal for the given snapshot generation.
+     */
+    void reset(int generation) throws IOException {
+        close();
+        outputFile = new FileOutputStream(file, false);
+        output = new DataOutputStream(new BufferedOutputStream(outputFile));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(generation);
+        output.flush();
+    }
+
+    void close() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // Nothing left to do with it.
+            }
+            output = null;
+            outputFile = null;
+        }
+    }
+
+    private DataOutputStream getOutput() throws IOException {
+        if (output == null) {
+            outputFile = new FileOutputStream(file, true);
+            output = new DataOutputStream(new BufferedOutputStream(outputFile));
+        }
+        return output;
+    }
+
+    private static int readHeader(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            return -1;
+        }
+        return input.readInt();
+    }
+
+    /**
+     * Receives the events of a journal being replayed.
+     */
+    interface Replayer {
+        void onWord(String word, long time);
+
+        void onBigram(String previousWord, String word);
+
+        void onTrigram(String firstWord, String secondWord, String word);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hands learning work to a single background thread so that typing never waits for it.
+ *
+ * Events are queued in order and drained in batches: whatever piled up while the previous
+ * batch was being learned goes in the next one. The engine is locked for one event at a time,
+ * so calls that need it, such as saving or reading stats, are not held up by a whole batch.
+ * Suggestions don't take the lock at all: the {@link SuggestionWorker} reads the latest
+ * published {@link LearningView}, and queues its publication here when it finds it outdated.
+ */
+public final class LearningQueue {
+    private static final String TAG = LearningQueue.class.getSimpleName();
+
+    private static final int EVENT_WORD = 0;
+    private static final int EVENT_INPUT = 1;
+    private static final int EVENT_SENTENCE = 2;
+
+    private final LocalLearningEngine engine;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Guarded by itself.
+    private final List<Event> pending = new ArrayList<>();
+    // Whether a drain is scheduled that has not taken the pending events yet. Guarded by pending.
+    private boolean drainScheduled;
+
+    public LearningQueue(LocalLearningEngine engine) {
+        this.engine = engine;
+        engine.setViewRequestHandler(() -> execute(engine::publishRequestedView));
+    }
+
+    /**
+     * Queues {@link LocalLearningEngine#learnWord(String)}.
+     */
+    public void learnWord(String word) {
+        enqueue(EVENT_WORD, word);
+    }
+
+    /**
+     * Queues {@link LocalLearningEngine#learnFromInput(String)}.
+     */
+    public void learnFromInput(String text) {
+        enqueue(EVENT_INPUT, text);
+    }
+
+    /**
+     * Queues {@link LocalLearningEngine#learnSentence(String)}.
+     */
+    public void learnSentence(String sentence) {
+        enqueue(EVENT_SENTENCE, sentence);
+    }
+
+    /**
+     * Learns the queued events and makes what was learned durable, in the background.
+     * Call this when input finishes.
+     */
+    public void flush() {
+        execute(() -> {
+            drain();
+            engine.flushLearningData();
+        });
+    }
+
+    /**
+     * Queues {@link LocalLearningEngine#setLanguages(String, Set)}, after the events typed in
+     * the previous language, so that they are learned in it.
+     */
+    public void setLanguages(String language, Set<String> enabledLanguages) {
+        execute(() -> {
+            drain();
+            engine.setLanguages(language, enabledLanguages);
+        });
+    }
+
+    /**
+     * Queues {@link LocalLearningEngine#trimMemory()}.
+     */
+    public void trimMemory() {
+        execute(engine::trimMemory);
+    }
+
+    /**
+     * Learns the queued events, saves a snapshot of the models and stops the thread.
+     * Events queued afterwards are dropped.
+     */
+    public void shutdown() {
+        execute(() -> {
+            drain();
+            engine.saveLearningData();
+        });
+        executor.shutdown();
+    }
+
+    private void enqueue(int type, String text) {
+        if (TextUtils.isEmpty(text)) {
+            return;
+        }
+        synchronized (pending) {
+            pending.add(new Event(type, text));
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        execute(this::drain);
+    }
+
+    private void drain() {
+        final Event[] batch;
+        synchronized (pending) {
+            batch = pending.toArray(new Event[0]);
+            pending.clear();
+            drainScheduled = false;
+        }
+        for (Event event : batch) {
+            switch (event.type) {
+                case EVENT_WORD:
+                    engine.learnWord(event.text);
+                    break;
+                case EVENT_INPUT:
+                    engine.learnFromInput(event.text);
+                    break;
+                case EVENT_SENTENCE:
+                    engine.learnSentence(event.text);
+                    break;
+            }
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Learning queue is shut down, dropping learning work");
+        }
+    }
+
+    private static final class Event {
+        final int type;
+        final String text;
+
+        Event(int type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Versioned binary format of the learned vocabulary and n-gram model.
+ *
+ * The file is a small header followed by the arrays of a {@link CompactWordTrie}, so loading
+ * is a handful of bulk copies out of a memory-mapped file: no strings are parsed and no word
+ * is re-inserted. Frequencies and last-used times are part of the trie arrays.
+ *
+ * Layout, little-endian: magic, version, generation, n-gram decay clock, trie section, n-gram
+ * section. The generation ties a snapshot to the {@link LearningJournal} that continues it.
+ * The decay clock is the number of n-gram increments since the counts were last halved.
+ */
+final class LearningSnapshot {
+    // "SKLV" when read as bytes.
+    static final int MAGIC = 0x564C4B53;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private LearningSnapshot() {
+    }
+
+    /**
+     * Returns the size in bytes of the snapshot of the given models.
+     */
+    static int getSize(CompactWordTrie trie, NGramModel ngramModel) {
+        return HEADER_SIZE + trie.getSerializedSize() + ngramModel.getSerializedSize();
+    }
+
+    /**
+     * Writes the snapshot of the given models to the buffer, which must have
+     * {@link #getSize(CompactWordTrie, NGramModel)} bytes remaining.
+     */
+    static void write(ByteBuffer buffer, CompactWordTrie trie, NGramModel ngramModel,
+            int generation) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(generation)
+                .putInt(ngramModel.getIncrementsSinceDecay());
+        trie.writeTo(buffer);
+        ngramModel.writeTo(buffer);
+    }
+
+    /**
+     * Loads the snapshot in the buffer. A {@link CompactWordTrie} adopts the arrays as they
+     * are, other tries get every word put into them. The n-gram model is replaced by the one in
+     * the snapshot.
+     *
+     * @return the generation of the snapshot.
+     * @throws IOException if the buffer does not hold a snapshot this version can read.
+     */
+    static int read(ByteBuffer buffer, WordTrie trie, NGramModel ngramModel) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a learning snapshot");
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported learning snapshot version " + version);
+            }
+            final int generation = buffer.getInt();
+            final int incrementsSinceDecay = buffer.getInt();
+
+            if (trie instanceof CompactWordTrie) {
+                ((CompactWordTrie) trie).readFrom(buffer);
+            } else {
+                final CompactWordTrie snapshot = new CompactWordTrie();
+                snapshot.readFrom(buffer);
+                snapshot.forEachWord(trie::putWord);
+            }
+            ngramModel.readFrom(buffer);
+            ngramModel.setIncrementsSinceDecay(incrementsSinceDecay);
+            return generation;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupt learning snapshot", e);
+        }
+    }
+
+    /**
+     * Returns the trie as a {@link CompactWordTrie}, copying it if it is the node-based one.
+     */
+    static CompactWordTrie toCompact(WordTrie trie) {
+        if (trie instanceof CompactWordTrie) {
+            return (CompactWordTrie) trie;
+        }
+        final CompactWordTrie copy = new CompactWordTrie();
+        trie.forEachWord(copy::putWord);
+        return copy;
+    }
+}
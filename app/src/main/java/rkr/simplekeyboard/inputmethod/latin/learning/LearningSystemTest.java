@@ -52,6 +52,524 @@ public class LearningSystemTest {
         return true;
     }
     
+    /**
+     * Tests that the array-backed trie behaves like the node-based one.
+     */
+    public static boolean testCompactWordTrie() {
+        WordTrie reference = new WordTrie();
+        WordTrie compact = new CompactWordTrie();
+        String[] words = {"hello", "help", "hero", "help", "helicopter", "he", "Hello", "مرحبا", "مرحبتين"};
+        for (String word : words) {
+            reference.insert(word);
+            compact.insert(word);
+        }
+        compact.trimToSize();
+        compact.insert("helium");
+        reference.insert("helium");
+        
+        for (String word : new String[] {"hello", "help", "he", "helium", "hel", "x", "مرحبا"}) {
+            if (reference.contains(word) != compact.contains(word)
+                    || reference.getWordFrequency(word) != compact.getWordFrequency(word)) {
+                return false;
+            }
+        }
+        
+        // Both rank by frequency first, so the most frequent completions must agree
+        java.util.List<String> suggestions = compact.getSuggestions("HE");
+        if (suggestions.size() != 5 || !suggestions.get(0).equals("hello")
+                || !suggestions.get(1).equals("help")) {
+            return false;
+        }
+        
+        return reference.getSuggestions("hel").containsAll(compact.getSuggestions("hel"));
+    }
+    
+    /**
+     * Tests that prefix cursors step through both tries like full lookups.
+     */
+    public static boolean testPrefixCursor() {
+        WordTrie[] tries = {new WordTrie(), new CompactWordTrie()};
+        for (WordTrie trie : tries) {
+            trie.insert("hello");
+            trie.insert("help");
+            trie.insert("world");
+            PrefixCursor cursor = trie.newPrefixCursor();
+            
+            cursor.append('H');
+            cursor.append('e');
+            if (!cursor.getSuggestions().equals(trie.getSuggestions("he"))) {
+                return false;
+            }
+            
+            // A typo leaves the trie, backspacing over it comes back
+            cursor.append('x');
+            if (cursor.isOnTrie() || !cursor.getSuggestions().isEmpty()) {
+                return false;
+            }
+            cursor.backspace();
+            cursor.append('l');
+            cursor.append('p');
+            if (!cursor.getSuggestions().contains("help") || cursor.getSuggestions().contains("hello")) {
+                return false;
+            }
+            
+            cursor.moveTo("wor");
+            if (cursor.length() != 3 || !cursor.getSuggestions().contains("world")) {
+                return false;
+            }
+            cursor.reset();
+            if (cursor.length() != 0 || !cursor.getSuggestions().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Tests that a binary snapshot restores words, frequencies, rankings and n-grams.
+     */
+    public static boolean testLearningSnapshot() {
+        CompactWordTrie trie = new CompactWordTrie();
+        trie.insert("hello");
+        trie.insert("hello");
+        trie.insert("help");
+        trie.insert("مرحبا");
+        NGramModel model = new NGramModel();
+        model.learnFromSentence("good morning everyone");
+        
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(LearningSnapshot.getSize(trie, model));
+        LearningSnapshot.write(buffer, trie, model, 7);
+        if (buffer.hasRemaining()) {
+            return false;
+        }
+        
+        WordTrie[] targets = {new CompactWordTrie(), new WordTrie()};
+        for (WordTrie target : targets) {
+            buffer.rewind();
+            NGramModel targetModel = new NGramModel();
+            try {
+                if (LearningSnapshot.read(buffer, target, targetModel) != 7) {
+                    return false;
+                }
+            } catch (java.io.IOException e) {
+                return false;
+            }
+            if (target.getWordFrequency("hello") != 2 || target.getWordFrequency("help") != 1
+                    || !target.getSuggestions("hel").equals(trie.getSuggestions("hel"))
+                    || !target.contains("مرحبا")
+                    || !targetModel.predictNextWords("good morning").contains("everyone")) {
+                return false;
+            }
+        }
+        
+        // A node pointing outside the trie is rejected on load, not on a later lookup
+        buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        int nodes = buffer.getInt(16);
+        int firstParent = 16 + 12 + 8 * nodes + 4 * nodes + 4 * nodes + 4;
+        int parent = buffer.getInt(firstParent);
+        buffer.putInt(firstParent, nodes + 1);
+        buffer.rewind();
+        try {
+            LearningSnapshot.read(buffer, new CompactWordTrie(), new NGramModel());
+            return false;
+        } catch (java.io.IOException expected) {
+            // Rejected
+        }
+        buffer.putInt(firstParent, parent);
+        
+        // A truncated file is rejected rather than half loaded
+        buffer.rewind();
+        buffer.limit(buffer.capacity() / 2);
+        try {
+            LearningSnapshot.read(buffer, new CompactWordTrie(), new NGramModel());
+            return false;
+        } catch (java.io.IOException expected) {
+            return true;
+        }
+    }
+    
+    /**
+     * Tests that the journal replays its events and survives a record cut short by a crash.
+     */
+    public static boolean testLearningJournal() {
+        java.io.File file = null;
+        try {
+            file = java.io.File.createTempFile("journal", ".bin");
+            LearningJournal journal = new LearningJournal(file);
+            journal.reset(3);
+            journal.appendWord("hello", 1000L);
+            journal.appendBigram("good", "morning");
+            journal.appendTrigram("good", "morning", "everyone");
+            journal.close();
+            
+            // Half of a record, as left by a crash in the middle of a write
+            try (java.io.FileOutputStream out = new java.io.FileOutputStream(file, true)) {
+                out.write(new byte[] {1, 0, 5, 'h'});
+            }
+            
+            final WordTrie trie = new WordTrie();
+            final NGramModel model = new NGramModel();
+            LearningJournal.Replayer replayer = new LearningJournal.Replayer() {
+                @Override
+                public void onWord(String word, long time) {
+                    trie.insert(word, time);
+                }
+                
+                @Override
+                public void onBigram(String previousWord, String word) {
+                    model.addBigram(previousWord, word);
+                }
+                
+                @Override
+                public void onTrigram(String firstWord, String secondWord, String word) {
+                    model.addTrigram(firstWord, secondWord, word);
+                }
+            };
+            if (journal.readGeneration() != 3 || journal.replay(replayer) != 3) {
+                return false;
+            }
+            if (trie.getWordFrequency("hello") != 1
+                    || !model.predictNextWords("good morning").contains("everyone")) {
+                return false;
+            }
+            
+            // The torn record was cut off, so a new event is not lost behind it
+            journal.appendWord("world", 2000L);
+            journal.close();
+            return journal.replay(replayer) == 4 && trie.getWordFrequency("hello") == 2
+                    && trie.contains("world");
+        } catch (java.io.IOException e) {
+            return false;
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+    
+    /**
+     * Prints the heap taken by both trie implementations for a synthetic vocabulary.
+     * Not part of {@link #runAllTests()} since heap measurements are noisy.
+     */
+    public static void reportTrieFootprint(int wordCount) {
+        String[] words = generateWords(wordCount);
+        
+        long referenceBytes = measureTrieHeap(new WordTrie(), words);
+        long compactBytes = measureTrieHeap(new CompactWordTrie(), words);
+        
+        CompactWordTrie compact = new CompactWordTrie();
+        for (String word : words) {
+            compact.insert(word);
+        }
+        compact.trimToSize();
+        
+        System.out.println("Trie footprint for " + wordCount + " words:");
+        System.out.println("  WordTrie:        " + referenceBytes / 1024 + " KB");
+        System.out.println("  CompactWordTrie: " + compactBytes / 1024 + " KB ("
+                + compact.getApproximateHeapBytes() / 1024 + " KB estimated, "
+                + compact.getNodeCount() + " nodes)");
+    }
+    
+    private static long measureTrieHeap(WordTrie trie, String[] words) {
+        long before = usedHeap();
+        for (String word : words) {
+            trie.insert(word);
+        }
+        trie.trimToSize();
+        long after = usedHeap();
+        // Keep the trie reachable until after the measurement
+        return trie.contains(words[0]) ? after - before : -1;
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+     * Generates a deterministic pseudo-vocabulary with English-like word lengths.
+     */
+    private static String[] generateWords(int count) {
+        java.util.Random random = new java.util.Random(42);
+        String letters = "etaoinshrdlcumwfgypbvkjxqz";
+        java.util.Set<String> words = new java.util.LinkedHashSet<>();
+        StringBuilder sb = new StringBuilder();
+        while (words.size() < count) {
+            sb.setLength(0);
+            int length = 2 + random.nextInt(9);
+            for (int i = 0; i < length; i++) {
+                // Skew towards frequent letters so prefixes are shared like in real text
+                int index = (int) (letters.length() * Math.pow(random.nextDouble(), 2));
+                sb.append(letters.charAt(index));
+            }
+            words.add(sb.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+    
+    /**
+     * Tests typo-tolerant completion on both trie implementations.
+     */
+    public static boolean testFuzzySuggestions() {
+        WordTrie[] tries = {new WordTrie(), new CompactWordTrie()};
+        for (WordTrie trie : tries) {
+            String[] words = {"hello", "help", "helmet", "world", "would", "wonder", "the",
+                    "them", "then", "tree"};
+            for (String word : words) {
+                trie.insert(word);
+            }
+            // Distinct frequencies, so that the order never depends on insertion times
+            trie.insert("help");
+            trie.insert("help");
+            trie.insert("hello");
+            trie.insert("world");
+            trie.insert("world");
+            
+            // Exact completions first, in the usual order, then the corrected ones
+            java.util.List<String> results = trie.getFuzzySuggestions("hel", 1, 5);
+            if (!results.equals(java.util.Arrays.asList("help", "hello", "helmet"))) {
+                return false;
+            }
+            // "hel" with the o deleted is as close as "hell", so frequency decides
+            results = trie.getFuzzySuggestions("helo", 1, 5);
+            if (!results.equals(java.util.Arrays.asList("help", "hello", "helmet"))) {
+                return false;
+            }
+            
+            // A typo early in the word still completes it
+            results = trie.getFuzzySuggestions("wrol", 1, 5);
+            if (results.isEmpty() || !results.get(0).equals("world")) {
+                return false;
+            }
+            
+            // Transposed letters are one edit
+            results = trie.getFuzzySuggestions("teh", 1, 5);
+            if (results.size() < 3 || !results.subList(0, 3).containsAll(
+                    java.util.Arrays.asList("the", "them", "then"))) {
+                return false;
+            }
+            
+            // Nothing within budget, and no budget means exact prefixes only
+            if (!trie.getFuzzySuggestions("xyzzy", 2, 5).isEmpty()) {
+                return false;
+            }
+            if (!trie.getFuzzySuggestions("helo", 0, 5).isEmpty()) {
+                return false;
+            }
+            if (!trie.getFuzzySuggestions("wo", 0, 5).equals(trie.getSuggestions("wo"))) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Tests the bit-parallel edit distance against the full distance table.
+     */
+    public static boolean testEditDistance() {
+        EditDistance distance = new EditDistance("hello");
+        if (distance.getDistance("hello", 2) != 0 || distance.getDistance("HeLLo", 2) != 0
+                || distance.getDistance("hlelo", 2) != 1 || distance.getDistance("help", 2) != 2
+                || distance.getDistance("world", 2) != 3 || distance.getDistance("", 9) != 5) {
+            return false;
+        }
+        
+        java.util.Random random = new java.util.Random(11);
+        for (int i = 0; i < 3000; i++) {
+            // Long words exercise the fallback past 64 characters
+            String a = randomWord(random, i % 10 == 0 ? 70 : 9);
+            String b = randomWord(random, i % 10 == 0 ? 70 : 9);
+            int expected = referenceEditDistance(a, b);
+            distance.setPattern(a);
+            for (int bound = 0; bound <= 4; bound++) {
+                if (distance.getDistance(b, bound) != Math.min(expected, bound + 1)) {
+                    return false;
+                }
+            }
+            if (distance.getDistance(b, EditDistance.UNBOUNDED) != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static String randomWord(java.util.Random random, int maxLength) {
+        char[] chars = new char[random.nextInt(maxLength + 1)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(4));
+        }
+        return new String(chars);
+    }
+    
+    private static int referenceEditDistance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                    continue;
+                }
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+                        && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+    
+    /**
+     * Tests substitution costs taken from key positions.
+     */
+    public static boolean testKeyProximity() {
+        // Three QWERTY rows, keys 10 wide, rows offset by half a key
+        String[] rows = {"qwertyuiop", "asdfghjkl", "zxcvbnm"};
+        int keyCount = 26 + 1;
+        int[] codes = new int[keyCount];
+        int[] centerX = new int[keyCount];
+        int[] centerY = new int[keyCount];
+        int key = 0;
+        for (int row = 0; row < rows.length; row++) {
+            for (int column = 0; column < rows[row].length(); column++) {
+                codes[key] = Character.toUpperCase(rows[row].charAt(column));
+                centerX[key] = column * 10 + row * 5 + 5;
+                centerY[key] = row * 10 + 5;
+                key++;
+            }
+        }
+        // Keys that are not letters are left out
+        codes[key] = -1;
+        KeyProximityTable table = new KeyProximityTable(codes, centerX, centerY, 10);
+        if (table.size() != 26) {
+            return false;
+        }
+        if (table.getSubstitutionCost('e', 'E') != 0 || table.getSubstitutionCost('e', 'w') != 0.5f
+                || table.getSubstitutionCost('e', 'p') != 1 || table.getSubstitutionCost('e', 'é') != 1
+                || table.getSubstitutionCost('g', 'b') >= table.getSubstitutionCost('g', 'm')) {
+            return false;
+        }
+        
+        // A neighboring key is a smaller mistake than one across the keyboard
+        EditDistance distance = new EditDistance("hwllo");
+        float near = distance.getWeightedDistance("hello", table);
+        float far = distance.getWeightedDistance("hollo", table);
+        if (near != 0.5f || far != 1 || distance.getWeightedDistance("hwllo", table) != 0) {
+            return false;
+        }
+        // Swapped letters are one edit wherever the keys are
+        return new EditDistance("hlelo").getWeightedDistance("hello", table) == 1;
+    }
+    
+    /**
+     * Tests the symmetric delete index used for typo corrections.
+     */
+    public static boolean testDeleteIndex() {
+        DeleteIndex index = new DeleteIndex(2, 7);
+        String[] vocabulary = {"the", "hello", "world", "help", "held", "Helsinki",
+                "internationalization", "international"};
+        for (String word : vocabulary) {
+            index.add(word);
+        }
+        index.add("hello");
+        if (index.size() != vocabulary.length) {
+            return false;
+        }
+        
+        // Transposed, missing, extra and mistyped characters are all one edit away
+        java.util.List<String> results = new java.util.ArrayList<>();
+        index.lookup("teh", 2, results);
+        if (!results.contains("the")) {
+            return false;
+        }
+        results.clear();
+        index.lookup("wrld", 1, results);
+        if (!results.equals(java.util.Arrays.asList("world"))) {
+            return false;
+        }
+        results.clear();
+        index.lookup("helllo", 1, results);
+        if (!results.contains("hello")) {
+            return false;
+        }
+        
+        // Nearest first, the input itself left out, case ignored
+        results.clear();
+        index.lookup("HELP", 2, results);
+        if (results.isEmpty() || !results.get(0).equals("held") || results.contains("help")
+                || !results.contains("hello")) {
+            return false;
+        }
+        
+        // Words longer than the indexed prefix are still verified on their full length
+        results.clear();
+        index.lookup("internationalisation", 2, results);
+        if (!results.equals(java.util.Arrays.asList("internationalization"))) {
+            return false;
+        }
+        
+        // Agrees with a scan of the vocabulary
+        String[] words = generateWords(2000);
+        DeleteIndex large = new DeleteIndex(2, 7);
+        for (String word : words) {
+            large.add(word);
+        }
+        for (int i = 0; i < 50; i++) {
+            String query = words[i * 37].substring(1) + "e";
+            java.util.Set<String> expected = new java.util.HashSet<>();
+            for (String word : words) {
+                int distance = SuggestionRanker.calculateEditDistance(query, word);
+                if (distance > 0 && distance <= 2) {
+                    expected.add(word);
+                }
+            }
+            results.clear();
+            large.lookup(query, 2, results);
+            if (!expected.equals(new java.util.HashSet<>(results))) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Tests splitting text into words, punctuation, emojis, domains and URLs.
+     */
+    public static boolean testTextTokenizer() {
+        TextTokenizer tokenizer = new TextTokenizer();
+        String text = "Hello, world! Mail me@example.com or see https://example.org/a?b=c. "
+                + "\uD83D\uDE00\uD83D\uDE00don't (x.company) مرحبا.";
+        int count = tokenizer.tokenize(text);
+        String[] expected = {"Hello", ",", "world", "!", "Mail", "me@", "example.com", "or", "see",
+                "https://example.org/a?b=c", ".", "\uD83D\uDE00\uD83D\uDE00", "don't", "(x", ".",
+                "company)", "مرحبا", "."};
+        int[] types = {TextTokenizer.TYPE_WORD, TextTokenizer.TYPE_PUNCTUATION,
+                TextTokenizer.TYPE_WORD, TextTokenizer.TYPE_PUNCTUATION, TextTokenizer.TYPE_WORD,
+                TextTokenizer.TYPE_WORD, TextTokenizer.TYPE_DOMAIN, TextTokenizer.TYPE_WORD,
+                TextTokenizer.TYPE_WORD, TextTokenizer.TYPE_URL, TextTokenizer.TYPE_PUNCTUATION,
+                TextTokenizer.TYPE_EMOJI, TextTokenizer.TYPE_WORD, TextTokenizer.TYPE_WORD,
+                TextTokenizer.TYPE_PUNCTUATION, TextTokenizer.TYPE_WORD, TextTokenizer.TYPE_WORD,
+                TextTokenizer.TYPE_PUNCTUATION};
+        if (count != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!tokenizer.getToken(i).equals(expected[i]) || tokenizer.getType(i) != types[i]) {
+                return false;
+            }
+        }
+        
+        // The buffer is reused, and blank text has no tokens
+        return tokenizer.tokenize("  \n ") == 0 && tokenizer.tokenize("a.b") == 3
+                && TextTokenizer.containsLetter("x1", 0, 2) && !TextTokenizer.containsLetter("42", 0, 2);
+    }
+    
     /**
      * Tests N-gram model functionality.
      */
@@ -69,6 +587,19 @@ public class LearningSystemTest {
             return false;
         }
         
+        // Successors come out by count, whatever the order they were learned in
+        model.learnFromSentence("see you soon");
+        model.learnFromSentence("see you later");
+        model.learnFromSentence("see you later");
+        predictions = model.predictNextWords("  See YOU, ");
+        if (predictions.size() < 2 || !predictions.get(0).equals("later")
+                || !predictions.get(1).equals("soon")) {
+            return false;
+        }
+        if (!model.predictNextWords("unknown words").isEmpty()) {
+            return false;
+        }
+        
         // Test punctuation suggestions
         java.util.List<String> punctuation = model.suggestPunctuation("how are you");
         if (punctuation.isEmpty() || !punctuation.contains("?")) {
@@ -78,6 +609,359 @@ public class LearningSystemTest {
         return true;
     }
     
+    /**
+     * Tests that n-gram counts decay and stay within their budget.
+     */
+    public static boolean testNGramBudget() {
+        // Eviction keeps the frequent n-grams and the lists consistent
+        NGramTable table = new NGramTable(32, 1);
+        table.setMaxSize(100);
+        for (int i = 0; i < 50; i++) {
+            table.add(1, 2, 1);
+        }
+        for (int i = 0; i < 500; i++) {
+            table.add(3 + i % 40, 1000 + i, 1);
+        }
+        if (table.size() > 100 || table.getEvictedCount() == 0 || table.getCount(1, 2) != 50
+                || table.getSuccessor(table.findList(1), 0) != 2) {
+            return false;
+        }
+        // The newest one-offs are the ones kept
+        if (table.getCount(3 + 499 % 40, 1499) != 1) {
+            return false;
+        }
+        
+        // Decay halves counts and forgets what drops to zero
+        table = new NGramTable(32, 1);
+        for (int i = 0; i < 6; i++) {
+            table.add(1, 2, 1);
+        }
+        table.add(1, 3, 1);
+        table.add(4, 5, 1);
+        table.decay();
+        if (table.size() != 1 || table.getCount(1, 2) != 3 || table.findList(4) != NGramTable.NO_LIST
+                || table.getSuccessorCount(table.findList(1)) != 1 || table.getDecayCount() != 1) {
+            return false;
+        }
+        
+        // The model decays on its own clock, which is saved with it
+        NGramModel model = new NGramModel();
+        model.setDecayInterval(10);
+        for (int i = 0; i < 13; i++) {
+            model.learnFromSentence("good morning");
+        }
+        if (model.getDecayCount() != 1 || model.getIncrementsSinceDecay() != 3
+                || !model.predictNextWords("good").contains("morning")) {
+            return false;
+        }
+        CompactWordTrie trie = new CompactWordTrie();
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(LearningSnapshot.getSize(trie, model));
+        LearningSnapshot.write(buffer, trie, model, 1);
+        buffer.flip();
+        NGramModel loaded = new NGramModel();
+        try {
+            LearningSnapshot.read(buffer, new CompactWordTrie(), loaded);
+        } catch (java.io.IOException e) {
+            return false;
+        }
+        if (loaded.getIncrementsSinceDecay() != 3 || loaded.size() != model.size()) {
+            return false;
+        }
+        
+        // Words only evicted n-grams referred to are forgotten too, the rest keep working
+        model = new NGramModel();
+        model.setMemoryBudget(2 * 40 * 200);
+        for (int i = 0; i < 20; i++) {
+            model.learnFromSentence("good morning everyone");
+        }
+        for (int i = 0; i < 5000; i++) {
+            model.learnFromSentence("once" + i + " only" + i);
+        }
+        java.util.List<String> predictions = model.predictNextWords("good morning");
+        return model.getVocabularySize() < 500 && model.getEvictedCount() > 0
+                && predictions.contains("everyone")
+                && model.predictNextWords("good").contains("morning")
+                && model.predictNextWords("once4999").contains("only4999");
+    }
+    
+    /**
+     * Tests that models counted apart add up to the model of the whole text, as the corpus
+     * trainer counts them, and that rare n-grams are pruned.
+     */
+    public static boolean testNGramCounting() {
+        NGramModel whole = new NGramModel();
+        NGramModel first = new NGramModel();
+        NGramModel second = new NGramModel();
+        String[] sentences = {"see you soon", "see you later", "thank you", "see you soon"};
+        for (int i = 0; i < sentences.length; i++) {
+            whole.learnFromSentence(sentences[i]);
+            (i % 2 == 0 ? first : second).learnFromSentence(sentences[i]);
+        }
+        first.addCounts(second);
+        if (!first.serializeBigramData().equals(whole.serializeBigramData())
+                || !first.serializeTrigramData().equals(whole.serializeTrigramData())) {
+            return false;
+        }
+        
+        first.prune(2);
+        return first.size() == 3 && first.predictNextWords("see").equals(
+                java.util.Arrays.asList("you"));
+    }
+    
+    /**
+     * Tests that cached suggestions are only reused for the same word, context and layout,
+     * until a word with the same first letter is learned, and that the least recently used
+     * ones go first.
+     */
+    public static boolean testSuggestionCache() {
+        SuggestionCache cache = new SuggestionCache(2);
+        java.util.List<String> hello = java.util.Arrays.asList("hello", "help");
+        cache.put("Hel", "say", null, hello);
+        if (cache.get("hel", "say", null) != hello || cache.get("hel", "", null) != null
+                || cache.get("hel", "say", new KeyProximityTable(new int[0], new int[0], new int[0], 1)) != null) {
+            return false;
+        }
+        
+        // Learning a word starting with another letter keeps it, one with the same drops it
+        // once the new versions are handed over
+        int[] versions = new int[SuggestionCache.VERSION_COUNT];
+        SuggestionCache.onWordChanged(versions, "world");
+        cache.setVersions(versions.clone());
+        if (cache.get("hel", "say", null) != hello) {
+            return false;
+        }
+        SuggestionCache.onWordChanged(versions, "Hello");
+        if (cache.get("hel", "say", null) != hello) {
+            return false;
+        }
+        cache.setVersions(versions.clone());
+        if (cache.get("hel", "say", null) != null) {
+            return false;
+        }
+        
+        cache.put("a", "", null, java.util.Arrays.asList("a"));
+        cache.put("b", "", null, java.util.Arrays.asList("b"));
+        cache.get("a", "", null);
+        cache.put("c", "", null, java.util.Arrays.asList("c"));
+        return cache.get("b", "", null) == null && cache.get("a", "", null) != null
+                && cache.get("c", "", null) != null
+                && cache.getHitCount() == 6 && cache.getMissCount() == 4;
+    }
+    
+    /**
+     * Tests that the user dictionary keeps saved and added words sorted and unique, finds them
+     * by prefix ignoring case, and counts the changes still to be saved.
+     */
+    public static boolean testUserDictionary() {
+        UserDictionary dictionary = new UserDictionary();
+        dictionary.load(java.util.Arrays.asList("help", "Hello", "hello ", "world", ""));
+        if (dictionary.size() != 3 || dictionary.getUnsavedChanges() != 0
+                || !dictionary.contains(" HELLO") || dictionary.contains("hel")) {
+            return false;
+        }
+        
+        if (!dictionary.add("Helmet") || dictionary.add("helmet") || !dictionary.remove("world")
+                || dictionary.remove("world") || dictionary.getUnsavedChanges() != 2) {
+            return false;
+        }
+        java.util.List<String> words = new java.util.ArrayList<>();
+        dictionary.getWordsStartingWith("HEL", true, 2, words);
+        java.util.List<String> completions = new java.util.ArrayList<>();
+        dictionary.getWordsStartingWith("hello", false, 3, completions);
+        java.util.List<String> includingWord = new java.util.ArrayList<>();
+        dictionary.getWordsStartingWith("help", true, 3, includingWord);
+        if (!words.equals(java.util.Arrays.asList("hello", "helmet"))
+                || !completions.isEmpty()
+                || !includingWord.equals(java.util.Arrays.asList("help"))) {
+            return false;
+        }
+        
+        if (!UserDictionary.isInScriptOf("café", "fr")
+                || !UserDictionary.isInScriptOf("привет", "ru")
+                || UserDictionary.isInScriptOf("привет", "en")
+                || UserDictionary.isInScriptOf("hello", "ru")
+                || !UserDictionary.isInScriptOf("42", "ru")) {
+            return false;
+        }
+        
+        UserDictionary copy = dictionary.copy();
+        dictionary.markSaved();
+        dictionary.clear();
+        return dictionary.size() == 0 && dictionary.getUnsavedChanges() == 1
+                && copy.toSet().equals(new java.util.HashSet<>(
+                        java.util.Arrays.asList("hello", "help", "helmet")));
+    }
+    
+    /**
+     * Tests that the ranker keeps the best candidates in score order, the same as the start of
+     * the full ranking, and that equal scores keep the candidate order.
+     */
+    public static boolean testSuggestionRanker() {
+        SuggestionRanker ranker = new SuggestionRanker();
+        java.util.List<String> candidates = java.util.Arrays.asList(
+                "helicopter", "hello", "help", "hel", "yellow", "hells", "helo", "held");
+        java.util.List<String> full = new java.util.ArrayList<>();
+        ranker.rankSuggestions(candidates, "hel", null, null, null, candidates.size(), full);
+        java.util.List<String> top = new java.util.ArrayList<>();
+        ranker.rankSuggestions(candidates, "hel", null, null, null, 3, top);
+        if (full.size() != candidates.size() || !full.get(0).equals("hel")
+                || !top.equals(full.subList(0, 3))) {
+            return false;
+        }
+        
+        // Predictions of the same length score the same
+        java.util.List<String> predictions = new java.util.ArrayList<>();
+        ranker.rankSuggestions(java.util.Arrays.asList("sun", "cat", "dog", "see"), null, null,
+                null, null, 3, predictions);
+        return predictions.equals(java.util.Arrays.asList("sun", "cat", "dog"));
+    }
+    
+    /**
+     * Tests that the vocabulary and the spelling index share word ids, that uses are counted
+     * per id and rank a word higher, and that copies stay apart.
+     */
+    public static boolean testVocabulary() {
+        Vocabulary vocabulary = new Vocabulary();
+        DeleteIndex index = new DeleteIndex(2, 7, vocabulary.getWords());
+        index.add("hello");
+        index.add("help");
+        vocabulary.recordUse("hello", 1000);
+        vocabulary.recordUse("hello", 2000);
+        vocabulary.recordUse("world", 3000);
+        int hello = vocabulary.find("hello");
+        if (vocabulary.size() != 3 || index.size() != 2 || index.contains("world")
+                || vocabulary.getUseCount(hello) != 2 || vocabulary.getLastUsed(hello) != 2000
+                || vocabulary.getUseCount(vocabulary.find("help")) != 0) {
+            return false;
+        }
+        
+        java.util.List<String> ranked = new java.util.ArrayList<>();
+        new SuggestionRanker().rankSuggestions(java.util.Arrays.asList("help", "hello"), "hel",
+                null, vocabulary, null, 1, ranked);
+        if (!ranked.equals(java.util.Arrays.asList("hello"))) {
+            return false;
+        }
+        // A capitalized candidate is looked up as the vocabulary keeps it
+        ranked.clear();
+        new SuggestionRanker().rankSuggestions(java.util.Arrays.asList("help", "Hello"), "hel",
+                null, vocabulary, null, 1, ranked);
+        if (!ranked.equals(java.util.Arrays.asList("Hello"))) {
+            return false;
+        }
+        
+        // Counts read back from the trie replace what was there
+        vocabulary.putWord("help", 5, 2500);
+        int help = vocabulary.find("help");
+        if (vocabulary.getUseCount(help) != 5 || vocabulary.getLastUsed(help) != 2500) {
+            return false;
+        }
+        vocabulary.putWord("help", 0, 0);
+        
+        Vocabulary copy = vocabulary.copy();
+        DeleteIndex indexCopy = index.copy(copy.getWords());
+        index.add("world");
+        vocabulary.recordUse("help", 4000);
+        java.util.List<String> corrections = new java.util.ArrayList<>();
+        indexCopy.lookup("wrld", 1, corrections);
+        java.util.List<String> helloCorrections = new java.util.ArrayList<>();
+        indexCopy.lookup("helo", 1, helloCorrections);
+        return index.contains("world") && corrections.isEmpty()
+                && helloCorrections.contains("hello")
+                && copy.getUseCount(copy.find("help")) == 0;
+    }
+    
+    /**
+     * Tests that phrases are predicted by the beam search, most probable first, and stay
+     * within the configured number of words.
+     */
+    public static boolean testPhrasePredictions() {
+        NGramModel ngramModel = new NGramModel();
+        for (int i = 0; i < 5; i++) {
+            ngramModel.learnFromSentence("good morning to you all");
+        }
+        java.util.List<String> predictions = ngramModel.predictNextWords("good morning");
+        if (!predictions.equals(java.util.Arrays.asList("to", "to you", "to you all"))) {
+            return false;
+        }
+        
+        ngramModel.setPhraseSearch(4, 2, NGramModel.DEFAULT_PHRASE_TIME_BUDGET_NANOS);
+        predictions = ngramModel.predictNextWords("good morning");
+        return predictions.contains("to you") && !predictions.contains("to you all");
+    }
+    
+    /**
+     * Tests that the typed history predicts from the longest context typed before, only from
+     * three words on, and survives being saved and read back.
+     */
+    public static boolean testHistoryContextModel() {
+        HistoryContextModel history = new HistoryContextModel();
+        TextTokenizer tokenizer = new TextTokenizer();
+        String[] sentences = {
+            "I will see you at the station tomorrow",
+            "We met you at the station, finally",
+            "I will see you at the office later"
+        };
+        for (String sentence : sentences) {
+            tokenizer.tokenize(sentence);
+            history.learnFromTokens(tokenizer);
+        }
+        
+        java.util.List<String> expected = java.util.Arrays.asList("station", "office");
+        if (!history.predictNextWords("they saw you at the", 3).equals(expected)
+                || !history.predictNextWords("look at the", 3).isEmpty()
+                || !history.predictNextWords("see you at the station.", 3).isEmpty()) {
+            return false;
+        }
+        
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(history.getSerializedSize());
+        history.writeTo(buffer);
+        buffer.flip();
+        HistoryContextModel restored = new HistoryContextModel();
+        try {
+            restored.readFrom(buffer);
+        } catch (java.io.IOException e) {
+            return false;
+        }
+        HistoryContextModel copy = restored.copy();
+        tokenizer.tokenize("They waited for you at the gate");
+        restored.learnFromTokens(tokenizer);
+        return restored.predictNextWords("you at the", 3).contains("gate")
+                && copy.predictNextWords("you at the", 3).equals(expected)
+                && restored.size() == history.size() + 8;
+    }
+    
+    /**
+     * Tests that copies of the models answer like the originals and do not see what is learned
+     * into the originals afterwards, as suggestions read from a published view rely on.
+     */
+    public static boolean testModelCopies() {
+        CompactWordTrie trie = new CompactWordTrie();
+        trie.insert("hello");
+        trie.insert("help");
+        NGramModel ngramModel = new NGramModel();
+        ngramModel.learnFromSentence("good morning everyone");
+        DeleteIndex spellingIndex = new DeleteIndex(2, 7);
+        spellingIndex.add("hello");
+        
+        WordTrie trieCopy = trie.copy();
+        NGramModel ngramCopy = ngramModel.copy();
+        DeleteIndex indexCopy = spellingIndex.copy();
+        if (!trieCopy.getSuggestions("hel").equals(trie.getSuggestions("hel"))
+                || !ngramCopy.predictNextWords("good morning").contains("everyone")) {
+            return false;
+        }
+        
+        trie.insert("helmet");
+        ngramModel.learnFromSentence("good morning sunshine");
+        spellingIndex.add("world");
+        java.util.List<String> corrections = new java.util.ArrayList<>();
+        indexCopy.lookup("wrld", 1, corrections);
+        return trie.getSuggestions("helm").contains("helmet")
+                && trieCopy.getSuggestions("helm").isEmpty()
+                && !ngramCopy.predictNextWords("good morning").contains("sunshine")
+                && corrections.isEmpty();
+    }
+    
     /**
      * Tests bootstrap vocabulary.
      */
@@ -96,7 +980,34 @@ public class LearningSystemTest {
             return false;
         }
         
-        return true;
+        // Each language's compiled dictionary holds the same words, frequencies and n-grams
+        // as inserting them, and nothing of the other languages
+        final WordTrie english = new WordTrie();
+        BootstrapVocabulary.initializeVocabulary(english, BootstrapVocabulary.LANGUAGE_ENGLISH, 0);
+        final CompactWordTrie compiled = new CompactWordTrie();
+        NGramModel compiledModel = new NGramModel();
+        final CompactWordTrie arabic = new CompactWordTrie();
+        try {
+            LearningSnapshot.read(BootstrapDictionaryCompiler.compile(
+                    BootstrapVocabulary.LANGUAGE_ENGLISH), compiled, compiledModel);
+            LearningSnapshot.read(BootstrapDictionaryCompiler.compile(
+                    BootstrapVocabulary.LANGUAGE_ARABIC), arabic, new NGramModel());
+        } catch (java.io.IOException e) {
+            return false;
+        }
+        final boolean[] sameWords = {true};
+        english.forEachWord(new WordTrie.WordVisitor() {
+            @Override
+            public void visit(String word, int frequency, long lastUsed) {
+                sameWords[0] &= compiled.getWordFrequency(word) == frequency
+                        && !arabic.contains(word);
+            }
+        });
+        NGramModel model = new NGramModel();
+        BootstrapVocabulary.initializeNGramModel(model, BootstrapVocabulary.LANGUAGE_ENGLISH);
+        return sameWords[0] && compiled.contains("the") && arabic.contains("\u0641\u064a")
+                && compiledModel.size() == model.size()
+                && compiledModel.predictNextWords("good").equals(model.predictNextWords("good"));
     }
     
     /**
@@ -125,16 +1036,70 @@ public class LearningSystemTest {
         boolean trieTest = testWordTrie();
         System.out.println("Word Trie Test: " + (trieTest ? "PASS" : "FAIL"));
         
+        boolean compactTrieTest = testCompactWordTrie();
+        System.out.println("Compact Word Trie Test: " + (compactTrieTest ? "PASS" : "FAIL"));
+        
+        boolean cursorTest = testPrefixCursor();
+        System.out.println("Prefix Cursor Test: " + (cursorTest ? "PASS" : "FAIL"));
+        
+        boolean snapshotTest = testLearningSnapshot();
+        System.out.println("Learning Snapshot Test: " + (snapshotTest ? "PASS" : "FAIL"));
+        
+        boolean journalTest = testLearningJournal();
+        System.out.println("Learning Journal Test: " + (journalTest ? "PASS" : "FAIL"));
+        
+        boolean fuzzyTest = testFuzzySuggestions();
+        System.out.println("Fuzzy Suggestions Test: " + (fuzzyTest ? "PASS" : "FAIL"));
+        
+        boolean editDistanceTest = testEditDistance();
+        System.out.println("Edit Distance Test: " + (editDistanceTest ? "PASS" : "FAIL"));
+        
+        boolean keyProximityTest = testKeyProximity();
+        System.out.println("Key Proximity Test: " + (keyProximityTest ? "PASS" : "FAIL"));
+        
+        boolean deleteIndexTest = testDeleteIndex();
+        System.out.println("Delete Index Test: " + (deleteIndexTest ? "PASS" : "FAIL"));
+        
+        boolean tokenizerTest = testTextTokenizer();
+        System.out.println("Text Tokenizer Test: " + (tokenizerTest ? "PASS" : "FAIL"));
+        
         boolean ngramTest = testNGramModel();
         System.out.println("N-Gram Model Test: " + (ngramTest ? "PASS" : "FAIL"));
         
+        boolean ngramBudgetTest = testNGramBudget();
+        System.out.println("N-Gram Budget Test: " + (ngramBudgetTest ? "PASS" : "FAIL"));
+        
+        boolean ngramCountingTest = testNGramCounting();
+        System.out.println("N-Gram Counting Test: " + (ngramCountingTest ? "PASS" : "FAIL"));
+        
+        boolean suggestionCacheTest = testSuggestionCache();
+        System.out.println("Suggestion Cache Test: " + (suggestionCacheTest ? "PASS" : "FAIL"));
+        
+        boolean userDictionaryTest = testUserDictionary();
+        System.out.println("User Dictionary Test: " + (userDictionaryTest ? "PASS" : "FAIL"));
+        
+        boolean suggestionRankerTest = testSuggestionRanker();
+        System.out.println("Suggestion Ranker Test: " + (suggestionRankerTest ? "PASS" : "FAIL"));
+        
+        boolean vocabularyTest = testVocabulary();
+        System.out.println("Vocabulary Test: " + (vocabularyTest ? "PASS" : "FAIL"));
+        
+        boolean phrasePredictionsTest = testPhrasePredictions();
+        System.out.println("Phrase Predictions Test: " + (phrasePredictionsTest ? "PASS" : "FAIL"));
+        
+        boolean historyContextTest = testHistoryContextModel();
+        System.out.println("History Context Test: " + (historyContextTest ? "PASS" : "FAIL"));
+        
+        boolean modelCopiesTest = testModelCopies();
+        System.out.println("Model Copies Test: " + (modelCopiesTest ? "PASS" : "FAIL"));
+        
         boolean bootstrapTest = testBootstrapVocabulary();
         System.out.println("Bootstrap Vocabulary Test: " + (bootstrapTest ? "PASS" : "FAIL"));
         
         boolean nullContextTest = testNullContextHandling();
         System.out.println("Null Context Handling Test: " + (nullContextTest ? "PASS" : "FAIL"));
         
-        boolean allPassed = trieTest && ngramTest && bootstrapTest && nullContextTest;
+        boolean allPassed = trieTest && compactTrieTest && cursorTest && snapshotTest && journalTest && fuzzyTest && editDistanceTest && keyProximityTest && deleteIndexTest && tokenizerTest && ngramTest && ngramBudgetTest && ngramCountingTest && suggestionCacheTest && userDictionaryTest && suggestionRankerTest && vocabularyTest && phrasePredictionsTest && historyContextTest && modelCopiesTest && bootstrapTest && nullContextTest;
         System.out.println("Overall Result: " + (allPassed ? "ALL TESTS PASSED" : "SOME TESTS FAILED"));
         
         return allPassed;
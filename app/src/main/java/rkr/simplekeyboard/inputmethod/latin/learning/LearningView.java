@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+/**
+ * A copy of everything suggestions are computed from, taken from the active
+ * {@link LanguageShard} and published by {@link LocalLearningEngine} for the suggestion
+ * thread.
+ *
+ * Nothing in a view changes once it is published, so it is read without a lock while the
+ * learning thread keeps changing the models it was copied from. The trie's lookups keep their
+ * state to themselves, but the n-gram model, spelling index and history still reuse scratch
+ * buffers, so a view is read by one thread at a time. Taking one copies every model, so the
+ * engine only does it once the suggestion thread has read an outdated one.
+ */
+final class LearningView {
+    final WordTrie wordTrie;
+    final NGramModel ngramModel;
+    final Vocabulary vocabulary;
+    final DeleteIndex spellingIndex;
+    // Null when long context prediction is off.
+    final HistoryContextModel history;
+    final UserDictionary userWords;
+    // Version of each first letter when the view was taken, see SuggestionCache.
+    final int[] letterVersions;
+    // Changes with the language and when all data is cleared, which makes every cached
+    // suggestion stale.
+    final int epoch;
+
+    LearningView(LanguageShard shard, UserDictionary userWords, int[] letterVersions,
+            int epoch) {
+        this.wordTrie = shard.wordTrie.copy();
+        this.ngramModel = shard.ngramModel.copy();
+        this.vocabulary = shard.vocabulary.copy();
+        // The index lists words by the vocabulary's ids, so it takes the copied table
+        this.spellingIndex = shard.spellingIndex.copy(vocabulary.getWords());
+        this.history = shard.history != null ? shard.history.copy() : null;
+        this.userWords = userWords.copy();
+        this.letterVersions = letterVersions.clone();
+        this.epoch = epoch;
+    }
+
+    /**
+     * Estimates the heap taken by the copied models, in bytes. The user words are left out,
+     * and so is the node-based trie.
+     */
+    long getApproximateHeapBytes() {
+        long bytes = ngramModel.getApproximateHeapBytes() + vocabulary.getApproximateHeapBytes()
+                + spellingIndex.getApproximateHeapBytes();
+        if (history != null) {
+            bytes += history.getApproximateHeapBytes();
+        }
+        if (wordTrie instanceof CompactWordTrie) {
+            bytes += ((CompactWordTrie) wordTrie).getApproximateHeapBytes();
+        }
+        return bytes;
+    }
+}
@@ -20,9 +20,15 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import rkr.simplekeyboard.inputmethod.latin.utils.EmojiUtils;
 
 import rkr.simplekeyboard.inputmethod.latin.utils.CalculatorUtils;
@@ -31,46 +37,87 @@ import rkr.simplekeyboard.inputmethod.latin.utils.ClipboardUtils;
 /**
  * Main suggestion engine that coordinates all learning components.
  * Provides intelligent word, sentence, and punctuation suggestions.
+ *
+ * Learning runs on the {@link LearningQueue} thread under the engine lock and changes the
+ * models in place. A copy of the active language's models is published as an immutable
+ * {@link LearningView} right away for changes the user asked for, and otherwise only once the
+ * suggestion thread has read an outdated view, at most every {@value #PUBLISH_INTERVAL_MILLIS}
+ * ms. Suggestions are computed on the {@link SuggestionWorker} thread from the latest view
+ * without taking the lock, so they never wait for learning or disk writes. The suggestion
+ * methods share scratch state: call them from that one thread.
+ *
+ * Learned data is kept per language in {@link LanguageShard}s, and only the shard of the
+ * current subtype's language is used. Shards are loaded the first time their language is
+ * selected with {@link #setLanguages(String, Set)}, and forgotten when their language is
+ * disabled or memory runs low. Until a language is set, suggestions come from the providers
+ * that need no learned data.
  */
 public class LocalLearningEngine {
     private static LocalLearningEngine instance;
     
-    private final WordTrie wordTrie;
-    private final NGramModel ngramModel;
-    private final LocalStorage localStorage;
     private final Context context;
+    // Loaded languages by language code, and the one in use, null until a language is set.
+    private final Map<String, LanguageShard> shards = new HashMap<>();
+    private LanguageShard shard;
+    // Writes the files of every language, one at a time.
+    private final ExecutorService storageWriter = Executors.newSingleThreadExecutor();
+    // Shared by every language, read by the first one loaded.
+    private final UserDictionary userDictionary = new UserDictionary();
+    private boolean userDictionaryLoaded;
     
-    // Advanced tracking for intelligent suggestions
-    private final java.util.Map<String, Integer> wordFrequency;
-    private final java.util.Map<String, Long> recentUsage;
-    private final java.util.List<String> dictionaryWords;
+    private final TextTokenizer tokenizer = new TextTokenizer();
+
+    // Published for the suggestion thread, null until a language is set.
+    private volatile LearningView view;
+    // Whether the models changed since the view was taken, and when it was.
+    private volatile boolean viewStale;
+    private long viewPublishedNanos;
+    // Set by the suggestion thread when it reads a stale view, until one is published.
+    private final AtomicBoolean viewRequested = new AtomicBoolean();
+    // Asks the learning thread to publish, null when learning is not queued.
+    private volatile Runnable viewRequestHandler;
+    private int viewPublications;
+    private long viewPublishDurationNanos;
+    private final int[] letterVersions = new int[SuggestionCache.VERSION_COUNT];
+    private int viewEpoch;
+
+    // Suggestion thread state: the view last read, and what was derived from it.
+    private LearningView readerView;
+    private PrefixCursor prefixCursor;
+    private volatile boolean prefixCursorResetPending;
+    private final SuggestionCache suggestionCache = new SuggestionCache(SUGGESTION_CACHE_SIZE);
+    private final EditDistance correctionDistance = new EditDistance();
+    private final SuggestionRanker ranker = new SuggestionRanker();
+    // Key geometry of the current layout, null until a keyboard is shown.
+    private volatile KeyProximityTable keyProximity;
     
     private static final int MAX_SUGGESTIONS = 5;
-    private static final int MAX_TYPO_SUGGESTIONS = 3;
+    private static final int MAX_TYPO_DISTANCE = 2;
+    private static final int MAX_FUZZY_SUGGESTIONS = 8;
+    // Enough for the words of a sentence being corrected with backspace.
+    private static final int SUGGESTION_CACHE_SIZE = 64;
+    // Copying a large vocabulary takes tens of milliseconds on the learning thread, so words
+    // just learned may wait this long before they are suggested, even while being typed.
+    private static final long PUBLISH_INTERVAL_MILLIS = 1000;
+    // Learned words join the user dictionary, which is saved after this many of them or when
+    // input finishes.
+    private static final int USER_DICTIONARY_SAVE_THRESHOLD = 50;
+    // Deletes are only generated for the first characters of a word, which is where most
+    // typos that matter for correction are anyway.
+    private static final int SPELLING_INDEX_PREFIX_LENGTH = 7;
     
-    // Counters for optimized saving
-    private int saveLearningCounter = 0;
-    private int wordLearningCounter = 0;
+    // The array-backed trie keeps the vocabulary in a few primitive arrays instead of one
+    // HashMap per character, which matters once months of learned words pile up.
+    private static final boolean USE_COMPACT_TRIE = true;
+    // Whether finished sentences are kept to predict from contexts longer than a trigram's.
+    private static final boolean USE_HISTORY_CONTEXT = true;
+    private static final int MAX_HISTORY_PREDICTIONS = 3;
     
     private LocalLearningEngine(Context context) {
         if (context == null) {
             throw new IllegalArgumentException("Context cannot be null");
         }
         this.context = context.getApplicationContext();
-        this.wordTrie = new WordTrie();
-        this.ngramModel = new NGramModel();
-        this.localStorage = new LocalStorage(this.context);
-        
-        // Initialize tracking structures
-        this.wordFrequency = new java.util.HashMap<>();
-        this.recentUsage = new java.util.HashMap<>();
-        this.dictionaryWords = new java.util.ArrayList<>();
-        
-        // Initialize with bootstrap vocabulary
-        initializeBootstrapData();
-        
-        // Load existing user data
-        loadLearningData();
     }
     
     /**
@@ -86,11 +133,182 @@ public class LocalLearningEngine {
         return instance;
     }
 
+    /**
+     * Switches learning and suggestions to a language, loading its learned data or bootstrap
+     * dictionary the first time, and forgets the languages that are no longer enabled.
+     * Languages are language codes. Reads files, so call it from the learning thread: the
+     * engine stays usable with the previous language while the new one loads.
+     */
+    public void setLanguages(String language, Set<String> enabled) {
+        synchronized (this) {
+            final Set<String> enabledLanguages = new HashSet<>(enabled);
+            enabledLanguages.add(language);
+            final Iterator<LanguageShard> iterator = shards.values().iterator();
+            while (iterator.hasNext()) {
+                final LanguageShard loaded = iterator.next();
+                if (!enabledLanguages.contains(loaded.language)) {
+                    loaded.storage.flushJournal();
+                    iterator.remove();
+                }
+            }
+            final LanguageShard loaded = shards.get(language);
+            if (loaded != null) {
+                if (loaded != shard) {
+                    activate(loaded);
+                }
+                return;
+            }
+        }
+        final LocalStorage storage = new LocalStorage(context, language, storageWriter);
+        synchronized (this) {
+            if (!userDictionaryLoaded) {
+                storage.loadUserWords(userDictionary);
+                userDictionaryLoaded = true;
+            }
+        }
+        // Only this thread changes the user dictionary, so the shard can index it unlocked
+        final Vocabulary vocabulary = new Vocabulary();
+        final LanguageShard loaded = new LanguageShard(language,
+                USE_COMPACT_TRIE ? new CompactWordTrie() : new WordTrie(), storage, vocabulary,
+                new DeleteIndex(MAX_TYPO_DISTANCE, SPELLING_INDEX_PREFIX_LENGTH,
+                        vocabulary.getWords()),
+                USE_HISTORY_CONTEXT ? new HistoryContextModel() : null,
+                userDictionary);
+        synchronized (this) {
+            shards.put(language, loaded);
+            activate(loaded);
+        }
+    }
+
+    private void activate(LanguageShard loaded) {
+        shard = loaded;
+        viewEpoch++;
+        viewStale = true;
+        publishView(true);
+    }
+
+    /**
+     * Publishes a copy of the active language's models for the suggestion thread, if they
+     * changed since the last one and, unless forced, the suggestion thread read the last one
+     * since and it is old enough. Called with the lock held.
+     */
+    private void publishView(boolean force) {
+        final long start = System.nanoTime();
+        if (!viewStale || (!force && (!viewRequested.get()
+                || start - viewPublishedNanos < PUBLISH_INTERVAL_MILLIS * 1000000L))) {
+            return;
+        }
+        view = shard == null ? null
+                : new LearningView(shard, userDictionary, letterVersions, viewEpoch);
+        viewStale = false;
+        viewRequested.set(false);
+        viewPublishedNanos = System.nanoTime();
+        viewPublishDurationNanos = viewPublishedNanos - start;
+        viewPublications++;
+    }
+
+    /**
+     * Sets what the suggestion thread runs to have the learning thread call
+     * {@link #publishRequestedView()}. Without one, a view it asks for waits for the next
+     * word learned.
+     */
+    void setViewRequestHandler(Runnable handler) {
+        viewRequestHandler = handler;
+    }
+
+    /**
+     * Publishes the view the suggestion thread asked for. If the last one is too recent, the
+     * request is dropped and the next read of the outdated view asks again.
+     */
+    synchronized void publishRequestedView() {
+        publishView(false);
+        viewRequested.set(false);
+    }
+
+    /**
+     * Records that the models changed for the word, and publishes them if it is time.
+     */
+    private void onWordChanged(String word, boolean publishNow) {
+        SuggestionCache.onWordChanged(letterVersions, word);
+        viewStale = true;
+        publishView(publishNow);
+    }
+
+    /**
+     * Saves the user dictionary in the background if it changed, and, unless forced, changed
+     * enough. Called with the lock held.
+     */
+    private void saveUserDictionary(boolean force) {
+        final int changes = userDictionary.getUnsavedChanges();
+        if (shard == null || changes == 0
+                || (!force && changes < USER_DICTIONARY_SAVE_THRESHOLD)) {
+            return;
+        }
+        // The vocabulary is shared, any language's storage saves it
+        shard.storage.saveUserWords(userDictionary.toSet());
+        userDictionary.markSaved();
+    }
+
+    /**
+     * Returns the latest view, and brings the suggestion thread's state derived from the
+     * previous one up to date. Called on the suggestion thread.
+     */
+    private LearningView acquireView() {
+        final LearningView current = view;
+        if (viewStale && viewRequested.compareAndSet(false, true)) {
+            final Runnable handler = viewRequestHandler;
+            if (handler != null) {
+                handler.run();
+            }
+        }
+        if (current != readerView) {
+            if (current == null || readerView == null || current.epoch != readerView.epoch) {
+                suggestionCache.clear();
+            }
+            if (current != null) {
+                suggestionCache.setVersions(current.letterVersions);
+                prefixCursor = current.wordTrie.newPrefixCursor();
+            } else {
+                prefixCursor = null;
+            }
+            readerView = current;
+        }
+        return current;
+    }
+
+    /**
+     * Forgets the languages not in use, which are loaded again when selected. Call this when
+     * memory runs low. Everything they learned is already in their journals.
+     */
+    public synchronized void trimMemory() {
+        final Iterator<LanguageShard> iterator = shards.values().iterator();
+        while (iterator.hasNext()) {
+            final LanguageShard loaded = iterator.next();
+            if (loaded != shard) {
+                loaded.storage.flushJournal();
+                iterator.remove();
+            }
+        }
+    }
+
     /**
      * Gets suggestions for the current input context.
      * Enhanced with advanced ranking, typo tolerance, and context awareness.
      */
     public List<String> getSuggestions(String currentWord, String previousContext) {
+        final LearningView current = acquireView();
+        final KeyProximityTable proximity = keyProximity;
+        // Retyping a word in the same context gives the suggestions computed last time. Without
+        // a word the clipboard is offered, which can change at any time, so that is not cached.
+        final boolean cacheable = !TextUtils.isEmpty(currentWord) && current != null;
+        final String cacheContext = previousContext != null ? previousContext : "";
+        if (cacheable) {
+            final List<String> cached = suggestionCache.get(currentWord, cacheContext, proximity);
+            if (cached != null) {
+                return new ArrayList<>(cached);
+            }
+        }
+
         List<String> candidateSuggestions = new ArrayList<>();
         String fullText = (previousContext != null ? previousContext + " " : "") + (currentWord != null ? currentWord : "");
         
@@ -132,35 +350,43 @@ public class LocalLearningEngine {
             }
         }
         
-        if (!TextUtils.isEmpty(currentWord)) {
-            // Get word completions from trie
-            List<String> wordSuggestions = wordTrie.getSuggestions(currentWord);
+        if (!TextUtils.isEmpty(currentWord) && current != null) {
+            // Completions of the word as typed, then of what it was probably meant to be, from
+            // one walk of the trie
+            List<String> wordSuggestions = current.wordTrie.getFuzzySuggestions(
+                currentWord,
+                getTypoBudget(currentWord),
+                MAX_FUZZY_SUGGESTIONS
+            );
             candidateSuggestions.addAll(wordSuggestions);
             
             // Add user dictionary words
-            List<String> userWordSuggestions = getUserWordSuggestions(currentWord);
+            List<String> userWordSuggestions =
+                    getUserWordSuggestions(current.userWords, currentWord);
             candidateSuggestions.addAll(userWordSuggestions);
-            
+        }
+        
+        if (!TextUtils.isEmpty(currentWord)) {
             // Add bootstrap vocabulary suggestions
             List<String> bootstrapSuggestions = BootstrapVocabulary.getCommonWordsForPrefix(currentWord);
             candidateSuggestions.addAll(bootstrapSuggestions);
-            
-            // Add typo-tolerant suggestions (fuzzy matching)
-            List<String> typoSuggestions = SuggestionRanker.generateTypoSuggestions(
-                currentWord,
-                dictionaryWords,
-                MAX_TYPO_SUGGESTIONS
-            );
-            candidateSuggestions.addAll(typoSuggestions);
         }
         
-        if (!TextUtils.isEmpty(previousContext)) {
+        if (!TextUtils.isEmpty(previousContext) && current != null) {
+            // Words that followed the longest part of the context typed before
+            if (current.history != null) {
+                candidateSuggestions.addAll(current.history.predictNextWords(previousContext,
+                        MAX_HISTORY_PREDICTIONS));
+            }
+
             // Get next word predictions from n-gram model
-            List<String> contextSuggestions = ngramModel.predictNextWords(previousContext);
+            List<String> contextSuggestions =
+                    current.ngramModel.predictNextWords(previousContext);
             candidateSuggestions.addAll(contextSuggestions);
             
             // Add punctuation suggestions
-            List<String> punctuationSuggestions = ngramModel.suggestPunctuation(previousContext);
+            List<String> punctuationSuggestions =
+                    current.ngramModel.suggestPunctuation(previousContext);
             candidateSuggestions.addAll(punctuationSuggestions);
         }
         
@@ -179,138 +405,179 @@ public class LocalLearningEngine {
             }
         }
         
-        // Apply intelligent ranking
-        List<String> rankedSuggestions = SuggestionRanker.rankSuggestions(
+        // Apply intelligent ranking, keeping the ones shown
+        final List<String> suggestions = new ArrayList<>(MAX_SUGGESTIONS);
+        ranker.rankSuggestions(
             uniqueSuggestions,
             currentWord,
             previousContext,
-            wordFrequency,
-            recentUsage
+            current != null ? current.vocabulary : null,
+            proximity,
+            MAX_SUGGESTIONS,
+            suggestions
         );
         
-        return rankedSuggestions.size() > MAX_SUGGESTIONS ? 
-               rankedSuggestions.subList(0, MAX_SUGGESTIONS) : rankedSuggestions;
+        if (cacheable) {
+            suggestionCache.put(currentWord, cacheContext, proximity,
+                    new ArrayList<>(suggestions));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Returns how many typos to tolerate in a word being typed. Very short words are taken as
+     * typed, one or two letters away from them is almost every word.
+     */
+    private static int getTypoBudget(String word) {
+        final int length = word.length();
+        if (length < 3) {
+            return 0;
+        }
+        return length < 6 ? 1 : MAX_TYPO_DISTANCE;
+    }
+
+    /**
+     * Gets the cached trie completions of the word being typed, without corrections, context
+     * or ranking. Cheap enough to show on every keystroke until {@link #getSuggestions} is done.
+     */
+    public List<String> getQuickCompletions(String currentWord) {
+        acquireView();
+        if (prefixCursorResetPending) {
+            prefixCursorResetPending = false;
+            if (prefixCursor != null) {
+                prefixCursor.reset();
+            }
+        }
+        if (TextUtils.isEmpty(currentWord) || prefixCursor == null) {
+            return new ArrayList<>();
+        }
+        prefixCursor.moveTo(currentWord);
+        return prefixCursor.getSuggestions();
+    }
+
+    /**
+     * Sets the key geometry of the layout being typed on, which makes corrections prefer
+     * mistakes between neighboring keys. Cheap and safe to call from any thread.
+     */
+    public void setKeyProximityTable(KeyProximityTable table) {
+        keyProximity = table;
+    }
+
+    /**
+     * Moves the prefix cursor back to the start of a word. Call this whenever the word being
+     * typed is abandoned: on separators, cursor moves and new input.
+     */
+    public void resetPrefixCursor() {
+        // Done by the suggestion thread, which owns the cursor, before it next moves it
+        prefixCursorResetPending = true;
     }
 
     /**
      * Learns from user input to improve future suggestions.
      */
-    public void learnFromInput(String text) {
-        if (TextUtils.isEmpty(text)) return;
+    public synchronized void learnFromInput(String text) {
+        if (TextUtils.isEmpty(text) || shard == null) return;
         
         // Learn individual words
-        String[] words = extractWords(text);
-        for (String word : words) {
-            if (isValidWord(word)) {
-                wordTrie.insert(word);
-                localStorage.addUserWord(word);
-            }
+        tokenizer.tokenize(text);
+        for (String word : extractWords(tokenizer)) {
+            shard.insertWord(word);
+            userDictionary.add(word);
+            SuggestionCache.onWordChanged(letterVersions, word);
         }
         
         // Learn from sentence context - this is critical for n-gram learning
-        ngramModel.learnFromSentence(text);
+        shard.ngramModel.learnFromTokens(tokenizer);
         
-        // Force save more frequently for learning data (every 5th call instead of 10%)
-        saveLearningCounter++;
-        if (saveLearningCounter >= 5) {
-            saveLearningData();
-            saveLearningCounter = 0;
-        }
+        shard.compactIfNeeded();
+        saveUserDictionary(false);
+        viewStale = true;
+        publishView(false);
     }
 
     /**
      * Learns from a completed word with frequency and recency tracking.
      */
-    public void learnWord(String word) {
-        if (isValidWord(word)) {
-            wordTrie.insert(word);
-            localStorage.addUserWord(word);
-            
-            // Update frequency count
-            wordFrequency.put(word, wordFrequency.getOrDefault(word, 0) + 1);
-            
-            // Update recent usage timestamp
-            recentUsage.put(word, System.currentTimeMillis());
+    public synchronized void learnWord(String word) {
+        if (isValidWord(word) && shard != null) {
+            // Also updates the frequency count and recent usage timestamp
+            shard.insertWord(word);
+            userDictionary.add(word);
             
             // Add to dictionary for typo suggestions
-            if (!dictionaryWords.contains(word)) {
-                dictionaryWords.add(word);
-            }
+            shard.spellingIndex.add(word);
             
-            // Force save every 10 words learned
-            wordLearningCounter++;
-            if (wordLearningCounter >= 10) {
-                saveLearningData();
-                wordLearningCounter = 0;
-            }
+            shard.compactIfNeeded();
+            saveUserDictionary(false);
+            onWordChanged(word, false);
         }
     }
 
     /**
      * Learns from a completed sentence.
      */
-    public void learnSentence(String sentence) {
-        if (!TextUtils.isEmpty(sentence)) {
-            ngramModel.learnFromSentence(sentence);
+    public synchronized void learnSentence(String sentence) {
+        if (!TextUtils.isEmpty(sentence) && shard != null) {
+            tokenizer.tokenize(sentence);
+            shard.ngramModel.learnFromTokens(tokenizer);
+            // Each sentence reaches here once, unlike the overlapping input of learnFromInput
+            if (shard.history != null) {
+                shard.history.learnFromTokens(tokenizer);
+            }
+            viewStale = true;
             
             // Also learn individual words
-            String[] words = extractWords(sentence);
-            for (String word : words) {
+            for (String word : extractWords(tokenizer)) {
                 learnWord(word);
             }
-            
-            // Force save for sentence learning as it's valuable data
-            saveLearningData();
         }
     }
 
     /**
      * Adds a word to the user dictionary for high-priority suggestions.
      */
-    public void addToUserDictionary(String word) {
-        if (isValidWord(word)) {
-            localStorage.addUserWord(word);
-            wordTrie.insert(word);
+    public synchronized void addToUserDictionary(String word) {
+        if (isValidWord(word) && shard != null) {
+            userDictionary.add(word);
+            shard.spellingIndex.add(word);
+            shard.insertWord(word);
             // Give user words extra frequency boost
             for (int i = 0; i < 5; i++) {
-                wordTrie.insert(word);
+                shard.insertWord(word);
             }
-            // Save immediately for user dictionary changes
-            saveLearningData();
+            shard.compactIfNeeded();
+            saveUserDictionary(true);
+            onWordChanged(word, true);
         }
     }
 
     /**
      * Checks if a word is in the user dictionary.
      */
-    public boolean isInUserDictionary(String word) {
+    public synchronized boolean isInUserDictionary(String word) {
         if (TextUtils.isEmpty(word)) return false;
-        return localStorage.getUserWords().contains(word.toLowerCase().trim());
+        return userDictionary.contains(word);
     }
 
     /**
      * Gets suggestions from user dictionary words that match the prefix.
      */
-    private List<String> getUserWordSuggestions(String prefix) {
+    private static List<String> getUserWordSuggestions(UserDictionary userWords,
+            String prefix) {
         List<String> userSuggestions = new ArrayList<>();
-        Set<String> userWords = localStorage.getUserWords();
-        
-        String lowerPrefix = prefix.toLowerCase();
-        for (String userWord : userWords) {
-            if (userWord.toLowerCase().startsWith(lowerPrefix)) {
-                userSuggestions.add(userWord);
-                if (userSuggestions.size() >= 3) break; // Limit user suggestions
-            }
-        }
-        
+        // Limit user suggestions
+        userWords.getWordsStartingWith(prefix, true, 3, userSuggestions);
         return userSuggestions;
     }
 
     /**
      * Removes a word from suggestions.
      */
-    public void removeWord(String word) {
-        localStorage.removeUserWord(word);
+    public synchronized void removeWord(String word) {
+        if (shard == null) return;
+        userDictionary.remove(word);
+        saveUserDictionary(true);
+        onWordChanged(word, true);
         // Note: For simplicity, we don't remove from trie as it would require
         // rebuilding the entire structure
     }
@@ -318,99 +585,79 @@ public class LocalLearningEngine {
     /**
      * Gets statistics about the learning system.
      */
-    public LearningStats getStats() {
-        return new LearningStats(localStorage.getUserWordCount());
+    public synchronized LearningStats getStats() {
+        final int userWordCount = userDictionary.size();
+        int ngramCount = 0;
+        long evictedNGrams = 0;
+        int ngramDecays = 0;
+        for (LanguageShard loaded : shards.values()) {
+            ngramCount += loaded.ngramModel.size();
+            evictedNGrams += loaded.ngramModel.getEvictedCount();
+            ngramDecays += loaded.ngramModel.getDecayCount();
+        }
+        final LearningView current = view;
+        return new LearningStats(userWordCount, ngramCount, evictedNGrams, ngramDecays,
+                suggestionCache.getHitCount(), suggestionCache.getMissCount(),
+                viewPublications, viewPublishDurationNanos / 1000,
+                current != null ? current.getApproximateHeapBytes() : 0);
     }
 
     /**
-     * Clears all learning data.
+     * Clears all learning data of the loaded languages.
      */
-    public void clearAllData() {
-        localStorage.clearAllData();
+    public synchronized void clearAllData() {
+        for (LanguageShard loaded : shards.values()) {
+            loaded.storage.clearAllData();
+            if (loaded.history != null) {
+                loaded.history.clear();
+            }
+        }
+        userDictionary.clear();
+        saveUserDictionary(true);
+        viewEpoch++;
+        viewStale = true;
+        publishView(true);
         // Reinitialize components
         // wordTrie and ngramModel would need to be reset
     }
 
-    private void loadLearningData() {
-        localStorage.loadWordFrequencies(wordTrie);
-        localStorage.loadNGramData(ngramModel);
+    /**
+     * Writes a snapshot of everything learned so far in each loaded language, in the
+     * background.
+     */
+    public synchronized void saveLearningData() {
+        for (LanguageShard loaded : shards.values()) {
+            loaded.save();
+        }
+        saveUserDictionary(true);
     }
 
-    private void saveLearningData() {
-        localStorage.saveWordFrequencies(wordTrie);
-        localStorage.saveNGramData(ngramModel);
-    }
-    
-    private void initializeBootstrapData() {
-        BootstrapVocabulary.initializeVocabulary(wordTrie);
-        BootstrapVocabulary.initializeNGramModel(ngramModel);
-        
-        // Populate dictionary words for typo suggestions
-        // This is done by getting all words from the trie
-        populateDictionaryFromBootstrap();
-    }
-    
     /**
-     * Populates the dictionary list with bootstrap vocabulary for typo suggestions.
+     * Makes the events learned so far durable without writing a new snapshot.
      */
-    private void populateDictionaryFromBootstrap() {
-        // Add common prefixes to generate comprehensive dictionary
-        String[] commonPrefixes = {"", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m",
-                                   "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z",
-                                   "th", "wh", "ch", "sh", "ph",
-                                   "و", "أ", "ب", "ت", "ث", "ج", "ح", "خ", "د", "ذ", "ر", "ز",
-                                   "س", "ش", "ص", "ض", "ط", "ظ", "ع", "غ", "ف", "ق", "ك",
-                                   "ل", "م", "ن", "ه", "ي", "ال"};
-        
-        Set<String> uniqueWords = new HashSet<>();
-        for (String prefix : commonPrefixes) {
-            List<String> words = BootstrapVocabulary.getCommonWordsForPrefix(prefix);
-            uniqueWords.addAll(words);
+    public synchronized void flushLearningData() {
+        for (LanguageShard loaded : shards.values()) {
+            loaded.storage.flushJournal();
         }
-        
-        dictionaryWords.addAll(uniqueWords);
+        saveUserDictionary(true);
     }
 
-    private String[] extractWords(String text) {
-        if (TextUtils.isEmpty(text)) return new String[0];
-        
-        // Enhanced tokenization that preserves single-letter words, handles punctuation and emojis
-        String[] emojis = EmojiUtils.extractEmojis(text);
-        String processed = text.trim();
-        
-        // Replace emojis with placeholders to preserve them during tokenization
-        for (int i = 0; i < emojis.length; i++) {
-            processed = processed.replace(emojis[i], " __EMOJI_" + i + "__ ");
-        }
-        
-        processed = processed
-                  .replaceAll("([.!?;:,])", " $1 ")  // Add spaces around punctuation
-                  .replaceAll("\\s+", " ")           // Normalize whitespace
-                  .trim();
-        
-        String[] tokens = processed.split("\\s+");
-        
-        // Filter to return valid words and emojis (not punctuation)
-        List<String> words = new ArrayList<>();
-        for (String token : tokens) {
-            token = token.trim();
-            
-            // Check if it's an emoji placeholder
-            if (token.startsWith("__EMOJI_") && token.endsWith("__")) {
-                try {
-                    int emojiIndex = Integer.parseInt(token.substring(8, token.length() - 2));
-                    if (emojiIndex >= 0 && emojiIndex < emojis.length) {
-                        words.add(emojis[emojiIndex]);
-                    }
-                } catch (NumberFormatException e) {
-                    // Invalid placeholder, skip
-                }
-            } else if (isValidWord(token)) {
-                words.add(token);
+    /**
+     * Returns the learnable tokens of the tokenized text: emojis and words with a letter.
+     * Punctuation, numbers, domain names and URLs are left out.
+     */
+    private List<String> extractWords(TextTokenizer tokens) {
+        final CharSequence text = tokens.getText();
+        final int count = tokens.getCount();
+        List<String> words = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int type = tokens.getType(i);
+            if (type == TextTokenizer.TYPE_EMOJI || (type == TextTokenizer.TYPE_WORD
+                    && TextTokenizer.containsLetter(text, tokens.getStart(i), tokens.getEnd(i)))) {
+                words.add(tokens.getToken(i));
             }
         }
-        
-        return words.toArray(new String[0]);
+        return words;
     }
 
     private boolean isValidWord(String word) {
@@ -424,8 +671,7 @@ public class LocalLearningEngine {
         }
         
         // Updated to accept single-letter words like "a" in English or "و" in Arabic
-        return word.length() >= 1 && 
-               word.matches(".*[a-zA-Z\\u0600-\\u06FF].*"); // Contains at least one letter (Latin or Arabic)
+        return TextTokenizer.containsLetter(word, 0, word.length());
     }
 
     /**
@@ -441,10 +687,11 @@ public class LocalLearningEngine {
             return suggestions;
         }
         
+        final LearningView current = acquireView();
         String cleanWord = word.trim().toLowerCase();
         
         // 1. First, add completions (words that start with the given word)
-        List<String> completions = getCompletions(cleanWord);
+        List<String> completions = getCompletions(current, cleanWord);
         for (String completion : completions) {
             if (!suggestions.contains(completion) && suggestions.size() < MAX_SUGGESTIONS) {
                 suggestions.add(completion);
@@ -452,7 +699,7 @@ public class LocalLearningEngine {
         }
         
         // 2. Add spelling corrections (similar words)
-        List<String> corrections = getSpellingCorrections(cleanWord);
+        List<String> corrections = getSpellingCorrections(current, cleanWord);
         for (String correction : corrections) {
             if (!suggestions.contains(correction) && suggestions.size() < MAX_SUGGESTIONS) {
                 suggestions.add(correction);
@@ -465,7 +712,7 @@ public class LocalLearningEngine {
     /**
      * Gets word completions for a partial word.
      */
-    private List<String> getCompletions(String partialWord) {
+    private List<String> getCompletions(LearningView current, String partialWord) {
         List<String> completions = new ArrayList<>();
         
         if (TextUtils.isEmpty(partialWord)) {
@@ -473,13 +720,9 @@ public class LocalLearningEngine {
         }
         
         // Search in user dictionary first (higher priority)
-        Set<String> userWords = localStorage.getUserWords();
-        for (String userWord : userWords) {
-            if (userWord.toLowerCase().startsWith(partialWord) && 
-                !userWord.toLowerCase().equals(partialWord)) {
-                completions.add(userWord);
-                if (completions.size() >= 3) break; // Limit user completions
-            }
+        if (current != null) {
+            // Limit user completions
+            current.userWords.getWordsStartingWith(partialWord, false, 3, completions);
         }
         
         // Search in bootstrap vocabulary for additional completions
@@ -496,91 +739,62 @@ public class LocalLearningEngine {
     /**
      * Gets spelling corrections for a potentially misspelled word.
      */
-    private List<String> getSpellingCorrections(String word) {
+    private List<String> getSpellingCorrections(LearningView current, String word) {
         List<String> corrections = new ArrayList<>();
         
-        if (TextUtils.isEmpty(word) || word.length() < 2) {
+        if (TextUtils.isEmpty(word) || word.length() < 2 || current == null) {
             return corrections;
         }
         
-        // Check user dictionary first
-        Set<String> userWords = localStorage.getUserWords();
-        for (String userWord : userWords) {
-            if (isSpellingCandidate(word, userWord)) {
-                corrections.add(userWord);
+        List<String> candidates = new ArrayList<>();
+        current.spellingIndex.lookup(word, MAX_TYPO_DISTANCE, candidates);
+        orderByKeyProximity(word, candidates);
+        
+        // User dictionary words first
+        for (String candidate : candidates) {
+            if (current.userWords.contains(candidate)) {
+                corrections.add(candidate);
                 if (corrections.size() >= 2) break; // Limit user corrections
             }
         }
         
-        // Check bootstrap vocabulary for additional corrections
-        List<String> commonWords = BootstrapVocabulary.getCommonWordsForPrefix(word.substring(0, Math.min(2, word.length())));
-        for (String commonWord : commonWords) {
-            if (isSpellingCandidate(word, commonWord) && !corrections.contains(commonWord)) {
-                corrections.add(commonWord);
-                if (corrections.size() >= MAX_SUGGESTIONS) break;
+        for (String candidate : candidates) {
+            if (corrections.size() >= MAX_SUGGESTIONS) break;
+            if (!corrections.contains(candidate)) {
+                corrections.add(candidate);
             }
         }
         
         return corrections;
     }
-    
-    /**
-     * Determines if a word is a good spelling correction candidate.
-     * Uses simple heuristics like edit distance and common prefixes.
-     */
-    private boolean isSpellingCandidate(String original, String candidate) {
-        if (TextUtils.isEmpty(original) || TextUtils.isEmpty(candidate)) {
-            return false;
-        }
-        
-        String origLower = original.toLowerCase();
-        String candLower = candidate.toLowerCase();
-        
-        // Skip if identical
-        if (origLower.equals(candLower)) {
-            return false;
-        }
-        
-        // Skip if length difference is too large
-        int lengthDiff = Math.abs(origLower.length() - candLower.length());
-        if (lengthDiff > 2) {
-            return false;
-        }
-        
-        // Simple edit distance check (Levenshtein distance approximation)
-        int editDistance = calculateSimpleEditDistance(origLower, candLower);
-        return editDistance <= 2; // Allow up to 2 character changes
-    }
-    
+
     /**
-     * Simple edit distance calculation (optimized for short words)
+     * Orders corrections, nearest first, by the weighted distance where a typo on a neighboring
+     * key counts less than one across the keyboard. Stable, so ties keep the index order.
      */
-    private int calculateSimpleEditDistance(String s1, String s2) {
-        int len1 = s1.length();
-        int len2 = s2.length();
-        
-        // Use a simplified approach for performance
-        if (len1 == 0) return len2;
-        if (len2 == 0) return len1;
-        
-        int[][] dp = new int[2][len2 + 1];
-        
-        for (int j = 0; j <= len2; j++) {
-            dp[0][j] = j;
-        }
-        
-        for (int i = 1; i <= len1; i++) {
-            dp[i % 2][0] = i;
-            for (int j = 1; j <= len2; j++) {
-                int cost = (s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 1;
-                dp[i % 2][j] = Math.min(Math.min(
-                    dp[(i - 1) % 2][j] + 1,      // deletion
-                    dp[i % 2][j - 1] + 1),       // insertion
-                    dp[(i - 1) % 2][j - 1] + cost); // substitution
+    private void orderByKeyProximity(String word, List<String> candidates) {
+        final KeyProximityTable proximity = keyProximity;
+        final int count = candidates.size();
+        if (proximity == null || count < 2) {
+            return;
+        }
+        correctionDistance.setPattern(word);
+        final float[] distances = new float[count];
+        for (int i = 0; i < count; i++) {
+            distances[i] = correctionDistance.getWeightedDistance(candidates.get(i), proximity);
+        }
+        for (int i = 1; i < count; i++) {
+            final String candidate = candidates.get(i);
+            final float distance = distances[i];
+            int j = i;
+            while (j > 0 && distances[j - 1] > distance) {
+                candidates.set(j, candidates.get(j - 1));
+                distances[j] = distances[j - 1];
+                j--;
             }
+            candidates.set(j, candidate);
+            distances[j] = distance;
         }
-        
-        return dp[len1 % 2][len2];
     }
 
     /**
@@ -588,9 +802,30 @@ public class LocalLearningEngine {
      */
     public static class LearningStats {
         public final int totalWords;
-        
-        public LearningStats(int totalWords) {
+        // Bigrams and trigrams held, and how many were forgotten to stay within budget
+        public final int ngramCount;
+        public final long evictedNGrams;
+        public final int ngramDecays;
+        // Suggestion requests answered from the cache, and those that were computed
+        public final long suggestionCacheHits;
+        public final long suggestionCacheMisses;
+        // Views published for suggestions, how long the last copy took, and what it holds
+        public final int viewPublications;
+        public final long viewPublishMicros;
+        public final long viewHeapBytes;
+        
+        public LearningStats(int totalWords, int ngramCount, long evictedNGrams, int ngramDecays,
+                long suggestionCacheHits, long suggestionCacheMisses, int viewPublications,
+                long viewPublishMicros, long viewHeapBytes) {
             this.totalWords = totalWords;
+            this.ngramCount = ngramCount;
+            this.evictedNGrams = evictedNGrams;
+            this.ngramDecays = ngramDecays;
+            this.suggestionCacheHits = suggestionCacheHits;
+            this.suggestionCacheMisses = suggestionCacheMisses;
+            this.viewPublications = viewPublications;
+            this.viewPublishMicros = viewPublishMicros;
+            this.viewHeapBytes = viewHeapBytes;
         }
     }
 }
\ No newline at end of file
@@ -18,16 +18,33 @@ package rkr.simplekeyboard.inputmethod.latin.learning;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.text.TextUtils;
+import android.util.Log;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles local storage and persistence of learning data.
  * Stores word frequencies, n-gram models, and user preferences.
+ *
+ * Each language has its own snapshot and journal files, the user vocabulary is shared.
+ * Learning events are appended to a {@link LearningJournal} as they happen. Once enough of
+ * them pile up, the models are compacted into a {@link LearningSnapshot} and the journal
+ * starts over. All file writes happen on a background thread.
  */
 public class LocalStorage {
+    private static final String TAG = LocalStorage.class.getSimpleName();
     private static final String PREF_NAME = "simple_keyboard_learning";
     private static final String KEY_WORD_FREQUENCIES = "word_frequencies";
     private static final String KEY_BIGRAM_DATA = "bigram_data";
@@ -35,59 +52,323 @@ public class LocalStorage {
     private static final String KEY_USER_WORDS = "user_words";
     private static final String SEPARATOR = "|||";
     private static final String PAIR_SEPARATOR = ":::";
+    // Files of one language are named after it, before the extension.
+    private static final String SNAPSHOT_FILE_NAME = "learned_words";
+    private static final String JOURNAL_FILE_NAME = "learning_journal";
+    private static final String HISTORY_FILE_NAME = "typed_history";
+    private static final String FILE_EXTENSION = ".bin";
+    // Number of journaled events after which the models are compacted into a new snapshot.
+    private static final int COMPACTION_THRESHOLD = 2000;
 
     private final SharedPreferences preferences;
+    private final AssetManager assets;
+    private final String language;
+    private final File filesDir;
+    private final File snapshotFile;
+    private final File historyFile;
+    private final LearningJournal journal;
+    // Shared by the storage of every language.
+    private final ExecutorService writer;
+    // Events queued on the writer and not yet written, so the writer flushes once per batch.
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    // Generation of the newest snapshot, written or scheduled.
+    private int generation;
+    private int journaledEvents;
 
-    public LocalStorage(Context context) {
+    /**
+     * @param language the language code the learned data is kept for.
+     * @param writer the thread files are written on.
+     */
+    public LocalStorage(Context context, String language, ExecutorService writer) {
         this.preferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        this.assets = context.getAssets();
+        this.language = language;
+        this.writer = writer;
+        this.filesDir = context.getFilesDir();
+        this.snapshotFile = getFile(SNAPSHOT_FILE_NAME, language);
+        this.historyFile = getFile(HISTORY_FILE_NAME, language);
+        this.journal = new LearningJournal(getFile(JOURNAL_FILE_NAME, language));
+    }
+
+    private File getFile(String name, String language) {
+        return new File(filesDir,
+                language != null ? name + "_" + language + FILE_EXTENSION : name + FILE_EXTENSION);
     }
 
     /**
-     * Saves word frequencies to local storage.
+     * Loads the learned words and n-grams: the snapshot first, then the journaled events that
+     * came after it. Without a snapshot, the models start from the bootstrap dictionary. Data
+     * saved in SharedPreferences by older versions is read when there is no snapshot to
+     * replace it, and migrated to one.
      */
-    public void saveWordFrequencies(WordTrie wordTrie) {
-        // This is a simplified implementation
-        // In a real implementation, you'd serialize the trie structure
-        // For now, we'll save frequently used words
-        Set<String> userWords = new HashSet<>();
-        // This would need to be implemented to extract words from trie
-        // userWords = extractWordsFromTrie(wordTrie);
-        
-        preferences.edit()
-                .putStringSet(KEY_USER_WORDS, userWords)
-                .apply();
+    public void loadLearningData(final WordTrie wordTrie, final NGramModel ngramModel) {
+        adoptSharedFiles();
+        // Every snapshot grew out of the bootstrap dictionary, so it already holds it.
+        if (!snapshotFile.exists()) {
+            loadBootstrapDictionary(wordTrie, ngramModel);
+        }
+        loadLegacyNGramData(ngramModel);
+        final int snapshotGeneration = loadSnapshot(wordTrie, ngramModel);
+
+        final int journalGeneration = journal.readGeneration();
+        if (journalGeneration >= 0 && journalGeneration >= snapshotGeneration) {
+            journaledEvents = journal.replay(new LearningJournal.Replayer() {
+                @Override
+                public void onWord(String word, long time) {
+                    wordTrie.insert(word, time);
+                }
+
+                @Override
+                public void onBigram(String previousWord, String word) {
+                    ngramModel.addBigram(previousWord, word);
+                }
+
+                @Override
+                public void onTrigram(String firstWord, String secondWord, String word) {
+                    ngramModel.addTrigram(firstWord, secondWord, word);
+                }
+            });
+            generation = journalGeneration;
+        } else {
+            // Missing, unreadable or already part of the snapshot.
+            journaledEvents = 0;
+            generation = Math.max(snapshotGeneration, 0);
+            final int journalReset = generation;
+            writer.execute(() -> resetJournal(journalReset));
+        }
+
+        if (snapshotGeneration <= 0) {
+            // Move data read from SharedPreferences into a snapshot right away, so it is not
+            // read again on top of the journal next time.
+            saveLearningData(wordTrie, ngramModel);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the models and empties the journal once it is safely stored.
+     * The models are serialized on the calling thread, the file is written in the background.
+     */
+    public void saveLearningData(WordTrie wordTrie, NGramModel ngramModel) {
+        final CompactWordTrie trie = LearningSnapshot.toCompact(wordTrie);
+        final int snapshotGeneration = ++generation;
+        final ByteBuffer buffer = ByteBuffer.allocate(LearningSnapshot.getSize(trie, ngramModel));
+        LearningSnapshot.write(buffer, trie, ngramModel, snapshotGeneration);
+        buffer.flip();
+        journaledEvents = 0;
+
+        writer.execute(() -> {
+            if (writeAtomically(snapshotFile, buffer)) {
+                resetJournal(snapshotGeneration);
+                // The snapshot now holds the n-grams older versions kept here.
+                preferences.edit()
+                        .remove(KEY_BIGRAM_DATA)
+                        .remove(KEY_TRIGRAM_DATA)
+                        .apply();
+            }
+        });
+    }
+
+    /**
+     * Reads the saved typed history into the model, if there is one.
+     */
+    void loadTypedHistory(HistoryContextModel history) {
+        if (!historyFile.exists()) {
+            return;
+        }
+        try (FileInputStream input = new FileInputStream(historyFile);
+             FileChannel channel = input.getChannel()) {
+            history.readFrom(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable typed history", e);
+        }
+    }
+
+    /**
+     * Saves the typed history. It is serialized on the calling thread, the file is written in
+     * the background. Sentences typed after the last save are lost if the process dies.
+     */
+    void saveTypedHistory(HistoryContextModel history) {
+        final ByteBuffer buffer = ByteBuffer.allocate(history.getSerializedSize());
+        history.writeTo(buffer);
+        buffer.flip();
+        writer.execute(() -> writeAtomically(historyFile, buffer));
+    }
+
+    /**
+     * Returns whether enough events were journaled since the last snapshot that
+     * {@link #saveLearningData(WordTrie, NGramModel)} should be called.
+     */
+    public boolean needsCompaction() {
+        return journaledEvents >= COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Writes the journaled events through to the storage device, in the background.
+     */
+    public void flushJournal() {
+        writer.execute(() -> {
+            try {
+                journal.sync();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to sync learning journal", e);
+            }
+        });
+    }
+
+    /**
+     * Journals the use of a word.
+     */
+    public void logWord(final String word, final long time) {
+        appendEvent(target -> target.appendWord(word, time));
+    }
+
+    /**
+     * Journals a bigram count increment.
+     */
+    public void logBigram(final String previousWord, final String word) {
+        appendEvent(target -> target.appendBigram(previousWord, word));
     }
 
     /**
-     * Loads word frequencies from local storage.
+     * Journals a trigram count increment.
      */
-    public void loadWordFrequencies(WordTrie wordTrie) {
+    public void logTrigram(final String firstWord, final String secondWord, final String word) {
+        appendEvent(target -> target.appendTrigram(firstWord, secondWord, word));
+    }
+
+    private void appendEvent(final JournalEvent event) {
+        journaledEvents++;
+        pendingEvents.incrementAndGet();
+        writer.execute(() -> {
+            try {
+                event.writeTo(journal);
+                if (pendingEvents.decrementAndGet() == 0) {
+                    journal.flush();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to journal learning event", e);
+            }
+        });
+    }
+
+    /**
+     * Reads the snapshot into the models, falling back to the user words written in the
+     * language's script for installs that predate it.
+     *
+     * @return the generation of the snapshot, or -1 if there is none.
+     */
+    private int loadSnapshot(WordTrie wordTrie, NGramModel ngramModel) {
+        if (snapshotFile.exists()) {
+            try (FileInputStream input = new FileInputStream(snapshotFile);
+                 FileChannel channel = input.getChannel()) {
+                return LearningSnapshot.read(
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                        wordTrie, ngramModel);
+            } catch (IOException e) {
+                Log.w(TAG, "Ignoring unreadable learning snapshot", e);
+                // The read may have left the models half replaced.
+                loadBootstrapDictionary(wordTrie, ngramModel);
+                loadLegacyNGramData(ngramModel);
+            }
+        }
+
         Set<String> userWords = preferences.getStringSet(KEY_USER_WORDS, new HashSet<String>());
         
         for (String word : userWords) {
-            if (!TextUtils.isEmpty(word)) {
+            // The user words of every language are saved together
+            if (!TextUtils.isEmpty(word) && UserDictionary.isInScriptOf(word, language)) {
                 wordTrie.insert(word);
             }
         }
+        return -1;
     }
 
     /**
-     * Saves N-gram model data to local storage.
+     * Takes over the files of versions that kept every language together, if this language
+     * has none yet: the first language loaded after the upgrade keeps what was learned.
      */
-    public void saveNGramData(NGramModel ngramModel) {
-        String bigramData = ngramModel.serializeBigramData();
-        String trigramData = ngramModel.serializeTrigramData();
-        
-        preferences.edit()
-                .putString(KEY_BIGRAM_DATA, bigramData)
-                .putString(KEY_TRIGRAM_DATA, trigramData)
-                .apply();
+    private void adoptSharedFiles() {
+        final File sharedSnapshot = getFile(SNAPSHOT_FILE_NAME, null);
+        final File journalFile = getFile(JOURNAL_FILE_NAME, language);
+        if (snapshotFile.exists() || journalFile.exists() || !sharedSnapshot.exists()) {
+            return;
+        }
+        if (!sharedSnapshot.renameTo(snapshotFile)) {
+            Log.w(TAG, "Could not move " + sharedSnapshot + " to " + snapshotFile);
+            return;
+        }
+        final File sharedJournal = getFile(JOURNAL_FILE_NAME, null);
+        if (sharedJournal.exists() && !sharedJournal.renameTo(journalFile)) {
+            Log.w(TAG, "Could not move " + sharedJournal + " to " + journalFile);
+        }
+    }
+
+    /**
+     * Reads the bootstrap dictionary of the language compiled into the assets at build time,
+     * replacing the models. Falls back to building it from {@link BootstrapVocabulary} if the
+     * asset cannot be mapped. Languages without bootstrap data start empty.
+     */
+    private void loadBootstrapDictionary(WordTrie wordTrie, NGramModel ngramModel) {
+        if (!BootstrapVocabulary.hasLanguage(language)) {
+            return;
+        }
+        try (AssetFileDescriptor descriptor =
+                     assets.openFd(BootstrapDictionaryCompiler.getAssetName(language));
+             FileInputStream input = descriptor.createInputStream();
+             FileChannel channel = input.getChannel()) {
+            // The asset is stored uncompressed, somewhere inside the APK.
+            LearningSnapshot.read(channel.map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength()), wordTrie, ngramModel);
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Building the bootstrap dictionary without its asset", e);
+        }
+        BootstrapVocabulary.initializeVocabulary(wordTrie, language, System.currentTimeMillis());
+        BootstrapVocabulary.initializeNGramModel(ngramModel, language);
+        wordTrie.trimToSize();
+    }
+
+    /**
+     * Writes the buffer to a temporary file that replaces the given one once it is complete,
+     * so a crash during the write leaves the previous file intact.
+     * Runs on the writer thread.
+     */
+    private boolean writeAtomically(File file, ByteBuffer buffer) {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream output = new FileOutputStream(tempFile);
+                 FileChannel channel = output.getChannel()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save " + file, e);
+            tempFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Runs on the writer thread.
+     */
+    private void resetJournal(int journalGeneration) {
+        try {
+            journal.reset(journalGeneration);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to reset learning journal", e);
+        }
     }
 
     /**
-     * Loads N-gram model data from local storage.
+     * Loads N-gram model data saved in SharedPreferences by older versions.
      */
-    public void loadNGramData(NGramModel ngramModel) {
+    private void loadLegacyNGramData(NGramModel ngramModel) {
         String bigramData = preferences.getString(KEY_BIGRAM_DATA, "");
         String trigramData = preferences.getString(KEY_TRIGRAM_DATA, "");
         
@@ -100,57 +381,44 @@ public class LocalStorage {
     }
 
     /**
-     * Adds a new word to user vocabulary.
+     * Reads the saved user vocabulary into the dictionary.
      */
-    public void addUserWord(String word) {
-        if (TextUtils.isEmpty(word)) return;
-        
-        Set<String> userWords = new HashSet<>(preferences.getStringSet(KEY_USER_WORDS, new HashSet<String>()));
-        userWords.add(word.toLowerCase().trim());
-        
-        preferences.edit()
-                .putStringSet(KEY_USER_WORDS, userWords)
-                .apply();
+    void loadUserWords(UserDictionary dictionary) {
+        dictionary.load(preferences.getStringSet(KEY_USER_WORDS, new HashSet<String>()));
     }
 
     /**
-     * Removes a word from user vocabulary.
+     * Saves the user vocabulary, in the background. The set must not be changed afterwards.
      */
-    public void removeUserWord(String word) {
-        if (TextUtils.isEmpty(word)) return;
-        
-        Set<String> userWords = new HashSet<>(preferences.getStringSet(KEY_USER_WORDS, new HashSet<String>()));
-        userWords.remove(word.toLowerCase().trim());
-        
-        preferences.edit()
+    void saveUserWords(final Set<String> userWords) {
+        // Queued behind the other writes, so an older vocabulary never lands last.
+        writer.execute(() -> preferences.edit()
                 .putStringSet(KEY_USER_WORDS, userWords)
-                .apply();
+                .apply());
     }
 
     /**
-     * Clears all learning data.
+     * Clears all learning data. The user vocabulary is cleared by saving an empty one.
      */
     public void clearAllData() {
         preferences.edit()
                 .remove(KEY_WORD_FREQUENCIES)
                 .remove(KEY_BIGRAM_DATA)
                 .remove(KEY_TRIGRAM_DATA)
-                .remove(KEY_USER_WORDS)
                 .apply();
+        journaledEvents = 0;
+        final int journalReset = generation;
+        writer.execute(() -> {
+            snapshotFile.delete();
+            historyFile.delete();
+            resetJournal(journalReset);
+        });
     }
 
     /**
-     * Gets the number of stored user words.
-     */
-    public int getUserWordCount() {
-        Set<String> userWords = preferences.getStringSet(KEY_USER_WORDS, new HashSet<String>());
-        return userWords.size();
-    }
-
-    /**
-     * Gets all user words for dictionary lookups.
+     * One event to append to the journal.
      */
-    public Set<String> getUserWords() {
-        return new HashSet<>(preferences.getStringSet(KEY_USER_WORDS, new HashSet<String>()));
+    private interface JournalEvent {
+        void writeTo(LearningJournal journal) throws IOException;
     }
-}
\ No newline at end of file
+}
@@ -16,26 +16,168 @@
 
 package rkr.simplekeyboard.inputmethod.latin.learning;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import rkr.simplekeyboard.inputmethod.latin.utils.EmojiUtils;
 
 /**
  * N-gram model for context-based word prediction.
  * Supports bigram and trigram predictions based on previous words.
+ *
+ * Tokens are interned to int ids. Bigrams are counted under {@code id1 << 32 | id2} and
+ * trigrams under the three ids packed in {@value #TRIGRAM_ID_BITS} bits each, in primitive
+ * hash tables whose successor lists stay sorted by count. Predicting from a context looks the
+ * words up in place, so it allocates nothing but the returned list.
+ *
+ * Phrases are found by a beam search over the successor lists: each step extends the most
+ * probable phrases so far by the first few successors of their last two words, backing off to
+ * the last word alone, and phrases are ranked by their mean log probability per word. The
+ * search stops early once it has taken its time budget.
+ *
+ * Once decay, eviction or pruning has forgotten n-grams, the words that no n-gram refers to
+ * anymore are dropped and the rest get new dense ids, so the vocabulary stays as small as the
+ * counts rather than growing with every word ever typed.
  */
 public class NGramModel {
-    private final Map<String, Map<String, Integer>> bigramModel;
-    private final Map<String, Map<String, Integer>> trigramModel;
     private static final int MAX_PREDICTIONS = 3;
+    private static final int BIGRAM_ID_BITS = 32;
+    private static final int TRIGRAM_ID_BITS = 21;
+    // Words with larger ids are still used in bigrams, but not in trigrams.
+    private static final int MAX_TRIGRAM_ID = (1 << TRIGRAM_ID_BITS) - 1;
+    // A phrase is only offered once each of its words followed the ones before this many
+    // times.
+    private static final int MIN_PHRASE_COUNT = 3;
+    public static final int DEFAULT_PHRASE_BEAM_WIDTH = 4;
+    public static final int DEFAULT_PHRASE_MAX_WORDS = 4;
+    // Well within a keystroke, the search usually takes a few microseconds.
+    public static final long DEFAULT_PHRASE_TIME_BUDGET_NANOS = 2000000;
+    // Log probability added for a step predicted from the last word alone (stupid backoff).
+    private static final double BACKOFF_LOG_PENALTY = Math.log(0.4);
+    // Heap taken by one n-gram: its slot in the count table, a successor list entry, and a
+    // share of the list bookkeeping.
+    private static final int BYTES_PER_NGRAM = 40;
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 8L * 1024 * 1024;
+    // Counts are halved after this many n-gram increments, a few months of typing.
+    public static final int DEFAULT_DECAY_INTERVAL = 200000;
+
+    private WordInterner vocabulary = new WordInterner();
+    private int maxNGramsPerTable;
+    private int decayInterval = DEFAULT_DECAY_INTERVAL;
+    private int incrementsSinceDecay;
+    // Evicted count when the vocabulary last dropped the words no n-gram refers to.
+    private long evictedAtCompaction;
+    private NGramTable bigrams;
+    private NGramTable trigrams;
+    private UpdateListener updateListener;
+    // Scratch state for splitting and normalizing text without allocating.
+    private final StringBuilder normalizedWord = new StringBuilder();
+    private final TextTokenizer tokenizer = new TextTokenizer();
+    private int[] tokenIds = new int[16];
+    // Phrase search settings, and its scratch state: the words and log probability of each
+    // beam for this step and the next, and the phrases found.
+    private int phraseBeamWidth;
+    private int phraseMaxWords;
+    private long phraseTimeBudgetNanos;
+    private int[] beamWords;
+    private double[] beamScores;
+    private int beamCount;
+    private int[] nextBeamWords;
+    private double[] nextBeamScores;
+    private int nextBeamCount;
+    private int[] phraseWords;
+    private double[] phraseScores;
+    private int[] phraseLengths;
+    private int phraseCount;
+    private final StringBuilder phraseBuilder = new StringBuilder();
 
     public NGramModel() {
-        this.bigramModel = new HashMap<>();
-        this.trigramModel = new HashMap<>();
+        setPhraseSearch(DEFAULT_PHRASE_BEAM_WIDTH, DEFAULT_PHRASE_MAX_WORDS,
+                DEFAULT_PHRASE_TIME_BUDGET_NANOS);
+        maxNGramsPerTable = getMaxNGramsPerTable(DEFAULT_MEMORY_BUDGET_BYTES);
+        bigrams = newTable(BIGRAM_ID_BITS, 1);
+        trigrams = newTable(TRIGRAM_ID_BITS, 2);
+    }
+
+    /**
+     * Bounds the heap taken by the bigram and trigram counts, split evenly between them. Once
+     * a model is full, the n-grams with the lowest counts are evicted.
+     */
+    public void setMemoryBudget(long bytes) {
+        maxNGramsPerTable = getMaxNGramsPerTable(bytes);
+        bigrams.setMaxSize(maxNGramsPerTable);
+        trigrams.setMaxSize(maxNGramsPerTable);
+    }
+
+    /**
+     * Sets how phrases are searched: the number of phrases extended at each step, the most
+     * words in a phrase, at least 2, and the time one search may take.
+     */
+    public void setPhraseSearch(int beamWidth, int maxWords, long timeBudgetNanos) {
+        phraseBeamWidth = Math.max(1, beamWidth);
+        phraseMaxWords = Math.max(2, maxWords);
+        phraseTimeBudgetNanos = timeBudgetNanos;
+        beamWords = new int[phraseBeamWidth * phraseMaxWords];
+        beamScores = new double[phraseBeamWidth];
+        nextBeamWords = new int[phraseBeamWidth * phraseMaxWords];
+        nextBeamScores = new double[phraseBeamWidth];
+        final int maxPhrases = phraseBeamWidth * (phraseMaxWords - 1);
+        phraseWords = new int[maxPhrases * phraseMaxWords];
+        phraseScores = new double[maxPhrases];
+        phraseLengths = new int[maxPhrases];
+    }
+
+    /**
+     * Sets how many bigram and trigram increments pass between two halvings of every count,
+     * zero to never decay.
+     */
+    public void setDecayInterval(int interval) {
+        decayInterval = Math.max(0, interval);
+    }
+
+    /**
+     * Returns the number of increments since the counts were last halved. Saved with the
+     * model, so that decay keeps its pace across restarts.
+     */
+    int getIncrementsSinceDecay() {
+        return incrementsSinceDecay;
+    }
+
+    void setIncrementsSinceDecay(int increments) {
+        incrementsSinceDecay = Math.max(0, increments);
+    }
+
+    /**
+     * Returns the number of n-grams forgotten so far through decay or eviction.
+     */
+    public long getEvictedCount() {
+        return bigrams.getEvictedCount() + trigrams.getEvictedCount();
+    }
+
+    /**
+     * Returns the number of times the counts were halved since the model was created.
+     */
+    public int getDecayCount() {
+        // Both tables decay together
+        return bigrams.getDecayCount();
+    }
+
+    private static int getMaxNGramsPerTable(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes / 2 / BYTES_PER_NGRAM));
+    }
+
+    private NGramTable newTable(int wordBits, int contextWords) {
+        final NGramTable table = new NGramTable(wordBits, contextWords);
+        table.setMaxSize(maxNGramsPerTable);
+        return table;
+    }
+
+    /**
+     * Sets the listener told about every n-gram count that is incremented, or null.
+     */
+    public void setUpdateListener(UpdateListener listener) {
+        this.updateListener = listener;
     }
 
     /**
@@ -46,24 +188,13 @@ public class NGramModel {
             return;
         }
 
-        // Normalize words
+        // Intern each valid token once, invalid ones break n-grams
+        final int[] ids = getTokenIds(words.length);
         for (int i = 0; i < words.length; i++) {
-            words[i] = normalizeWord(words[i]);
-        }
-
-        // Learn bigrams
-        for (int i = 0; i < words.length - 1; i++) {
-            if (isValidToken(words[i]) && isValidToken(words[i + 1])) {
-                addBigram(words[i], words[i + 1]);
-            }
-        }
-
-        // Learn trigrams
-        for (int i = 0; i < words.length - 2; i++) {
-            if (isValidToken(words[i]) && isValidToken(words[i + 1]) && isValidToken(words[i + 2])) {
-                addTrigram(words[i] + " " + words[i + 1], words[i + 2]);
-            }
+            ids[i] = words[i] == null ? WordInterner.NO_ID
+                    : internWord(words[i], 0, words[i].length());
         }
+        learnFromIds(ids, words.length);
     }
 
     /**
@@ -75,109 +206,51 @@ public class NGramModel {
             return;
         }
 
-        // Enhanced tokenization that preserves punctuation and single-letter words
-        String[] tokens = tokenizeWithPunctuation(sentence);
-        learnFromSequence(tokens);
+        tokenizer.tokenize(sentence);
+        learnFromTokens(tokenizer);
     }
-    
+
     /**
-     * Enhanced tokenization that treats punctuation and emojis as separate tokens,
-     * preserves single-letter words, and handles domain names correctly.
+     * Learns from text already split by a tokenizer, so callers that look at the tokens
+     * themselves don't split the text twice.
      */
-    private String[] tokenizeWithPunctuation(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return new String[0];
+    void learnFromTokens(TextTokenizer tokens) {
+        final int count = tokens.getCount();
+        if (count < 2) {
+            return;
         }
-        
-        // Step 1: Extract emojis first and replace them with placeholders
-        String[] emojis = EmojiUtils.extractEmojis(text);
-        String processed = text;
-        
-        // Replace emojis with placeholders to preserve them during tokenization
-        for (int i = 0; i < emojis.length; i++) {
-            processed = processed.replace(emojis[i], " __EMOJI_" + i + "__ ");
+        final CharSequence text = tokens.getText();
+        final int[] ids = getTokenIds(count);
+        for (int i = 0; i < count; i++) {
+            ids[i] = internWord(text, tokens.getStart(i), tokens.getEnd(i));
         }
-        
-        // Step 2: Protect domain names before punctuation splitting
-        // Common TLDs to preserve as single tokens
-        String[] commonTlds = {"com", "org", "net", "edu", "gov", "io", "co", "me", "tv", "info", "biz"};
-        java.util.Map<String, String> domainPlaceholders = new java.util.HashMap<>();
-        int domainCounter = 0;
-        
-        for (String tld : commonTlds) {
-            String pattern = "\\b([a-zA-Z0-9._-]+\\." + tld + ")\\b";
-            java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern, java.util.regex.Pattern.CASE_INSENSITIVE);
-            java.util.regex.Matcher m = p.matcher(processed);
-            java.lang.StringBuffer sb = new java.lang.StringBuffer();
-            
-            while (m.find()) {
-                String domain = m.group(1);
-                String placeholder = "__DOMAIN_" + domainCounter + "__";
-                domainPlaceholders.put(placeholder, domain);
-                m.appendReplacement(sb, " " + placeholder + " ");
-                domainCounter++;
+        learnFromIds(ids, count);
+    }
+
+    private void learnFromIds(int[] ids, int count) {
+        // Learn bigrams
+        for (int i = 0; i < count - 1; i++) {
+            if (ids[i] != WordInterner.NO_ID && ids[i + 1] != WordInterner.NO_ID) {
+                addBigram(ids[i], ids[i + 1]);
             }
-            m.appendTail(sb);
-            processed = sb.toString();
         }
-        
-        // Step 3: Insert spaces around punctuation marks to separate them (but domains are now protected)
-        processed = processed
-            .replaceAll("([.!?;:,])", " $1 ")  // Add spaces around punctuation
-            .replaceAll("\\s+", " ")           // Normalize whitespace
-            .trim();
-        
-        // Step 4: Split by whitespace to get tokens (words + punctuation + placeholders)
-        String[] tokens = processed.split("\\s+");
-        
-        // Step 5: Filter and restore emojis/domains from placeholders
-        List<String> validTokens = new ArrayList<>();
-        for (String token : tokens) {
-            token = token.trim();
-            if (!token.isEmpty()) {
-                // Check if it's an emoji placeholder
-                if (token.startsWith("__EMOJI_") && token.endsWith("__")) {
-                    try {
-                        int emojiIndex = Integer.parseInt(token.substring(8, token.length() - 2));
-                        if (emojiIndex >= 0 && emojiIndex < emojis.length) {
-                            validTokens.add(emojis[emojiIndex]);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Invalid placeholder, skip
-                    }
-                } 
-                // Check if it's a domain placeholder
-                else if (token.startsWith("__DOMAIN_") && token.endsWith("__")) {
-                    String domain = domainPlaceholders.get(token);
-                    if (domain != null) {
-                        validTokens.add(domain);
-                    }
-                } else {
-                    // Keep words (including single letters) and punctuation
-                    if (isValidToken(token)) {
-                        validTokens.add(token);
-                    }
-                }
+
+        // Learn trigrams
+        for (int i = 0; i < count - 2; i++) {
+            if (ids[i] != WordInterner.NO_ID && ids[i + 1] != WordInterner.NO_ID
+                    && ids[i + 2] != WordInterner.NO_ID) {
+                addTrigram(ids[i], ids[i + 1], ids[i + 2]);
             }
         }
-        
-        return validTokens.toArray(new String[0]);
-    }
-    
-    /**
-     * Checks if a token is valid (word, punctuation, or emoji).
-     */
-    private boolean isValidToken(String token) {
-        return isValidWord(token) || isPunctuation(token) || EmojiUtils.isEmoji(token);
+        // Only now, the ids above are not valid after compaction
+        compactVocabularyIfEvicted();
     }
-    
-    /**
-     * Checks if a token is punctuation.
-     */
-    private boolean isPunctuation(String token) {
-        return token.length() == 1 && 
-               (token.equals(".") || token.equals("!") || token.equals("?") || 
-                token.equals(",") || token.equals(";") || token.equals(":"));
+
+    private int[] getTokenIds(int count) {
+        if (tokenIds.length < count) {
+            tokenIds = new int[Math.max(count, tokenIds.length * 2)];
+        }
+        return tokenIds;
     }
 
     /**
@@ -189,36 +262,45 @@ public class NGramModel {
             return new ArrayList<>();
         }
 
-        String[] contextWords = context.trim().split("\\s+");
+        // Find the last two whitespace-separated words in place
+        int lastEnd = context.length();
+        while (lastEnd > 0 && Character.isWhitespace(context.charAt(lastEnd - 1))) {
+            lastEnd--;
+        }
+        int lastStart = lastEnd;
+        while (lastStart > 0 && !Character.isWhitespace(context.charAt(lastStart - 1))) {
+            lastStart--;
+        }
+        int previousEnd = lastStart;
+        while (previousEnd > 0 && Character.isWhitespace(context.charAt(previousEnd - 1))) {
+            previousEnd--;
+        }
+        int previousStart = previousEnd;
+        while (previousStart > 0 && !Character.isWhitespace(context.charAt(previousStart - 1))) {
+            previousStart--;
+        }
+
         List<String> predictions = new ArrayList<>();
+        final int lastId = findWord(context, lastStart, lastEnd);
 
         // Try trigram prediction first (if we have at least 2 context words)
-        if (contextWords.length >= 2) {
-            String trigramKey = normalizeWord(contextWords[contextWords.length - 2]) + 
-                               " " + normalizeWord(contextWords[contextWords.length - 1]);
-            List<String> trigramPredictions = getPredictions(trigramModel, trigramKey);
-            predictions.addAll(trigramPredictions);
-            
-            // Also try multi-word predictions from trigram model
-            List<String> phrasePredictions = getPhrasePredictions(trigramKey);
-            for (String phrase : phrasePredictions) {
-                if (!predictions.contains(phrase) && predictions.size() < MAX_PREDICTIONS) {
-                    predictions.add(phrase);
+        if (previousStart < previousEnd && lastId != WordInterner.NO_ID) {
+            final int previousId = findWord(context, previousStart, previousEnd);
+            if (previousId != WordInterner.NO_ID && previousId <= MAX_TRIGRAM_ID
+                    && lastId <= MAX_TRIGRAM_ID) {
+                final int list = trigrams.findList(getTrigramContext(previousId, lastId));
+                addPredictions(trigrams, list, predictions);
+                
+                // Also try multi-word predictions from trigram model
+                if (list != NGramTable.NO_LIST) {
+                    addPhrasePredictions(previousId, lastId, predictions);
                 }
             }
         }
 
-        // Add bigram predictions
-        if (contextWords.length >= 1) {
-            String bigramKey = normalizeWord(contextWords[contextWords.length - 1]);
-            List<String> bigramPredictions = getPredictions(bigramModel, bigramKey);
-            
-            // Add bigram predictions that aren't already in trigram results
-            for (String prediction : bigramPredictions) {
-                if (!predictions.contains(prediction)) {
-                    predictions.add(prediction);
-                }
-            }
+        // Add bigram predictions that aren't already in trigram results
+        if (lastId != WordInterner.NO_ID) {
+            addPredictions(bigrams, bigrams.findList(lastId), predictions);
         }
 
         // Limit results
@@ -227,34 +309,164 @@ public class NGramModel {
     }
 
     /**
-     * Gets phrase predictions (multi-word suggestions) from trigram model.
+     * Adds the most frequent successors in the list that are not predicted yet.
      */
-    private List<String> getPhrasePredictions(String context) {
-        List<String> phrases = new ArrayList<>();
-        
-        // Look for common phrase patterns in the trigram model
-        Map<String, Integer> nextWords = trigramModel.get(context);
-        if (nextWords != null) {
-            // For each predicted next word, try to find what commonly follows it
-            for (String nextWord : nextWords.keySet()) {
-                String extendedContext = context.split(" ")[1] + " " + nextWord;
-                Map<String, Integer> followingWords = trigramModel.get(extendedContext);
-                
-                if (followingWords != null && !followingWords.isEmpty()) {
-                    // Find the most common word that follows
-                    String mostCommon = followingWords.entrySet().stream()
-                        .max(Map.Entry.comparingByValue())
-                        .map(Map.Entry::getKey)
-                        .orElse(null);
-                    
-                    if (mostCommon != null && followingWords.get(mostCommon) > 2) {
-                        phrases.add(nextWord + " " + mostCommon);
-                    }
+    private void addPredictions(NGramTable table, int list, List<String> predictions) {
+        if (list == NGramTable.NO_LIST) {
+            return;
+        }
+        final int limit = Math.min(table.getSuccessorCount(list), MAX_PREDICTIONS);
+        for (int rank = 0; rank < limit; rank++) {
+            final String word = vocabulary.get(table.getSuccessor(list, rank));
+            if (!predictions.contains(word)) {
+                predictions.add(word);
+            }
+        }
+    }
+
+    /**
+     * Adds phrase predictions (multi-word suggestions) that continue the two context words,
+     * most probable first, until there are {@link #MAX_PREDICTIONS} predictions.
+     */
+    private void addPhrasePredictions(int previousId, int lastId, List<String> predictions) {
+        if (predictions.size() >= MAX_PREDICTIONS) {
+            return;
+        }
+        searchPhrases(previousId, lastId);
+
+        // Best mean log probability first, shorter phrases first on ties
+        while (predictions.size() < MAX_PREDICTIONS) {
+            int best = -1;
+            for (int i = 0; i < phraseCount; i++) {
+                if (phraseLengths[i] > 0 && (best < 0 || phraseScores[i] > phraseScores[best])) {
+                    best = i;
                 }
             }
+            if (best < 0) {
+                return;
+            }
+            phraseBuilder.setLength(0);
+            for (int i = 0; i < phraseLengths[best]; i++) {
+                if (i > 0) {
+                    phraseBuilder.append(' ');
+                }
+                phraseBuilder.append(vocabulary.get(phraseWords[best * phraseMaxWords + i]));
+            }
+            phraseLengths[best] = 0;
+            final String phrase = phraseBuilder.toString();
+            if (!predictions.contains(phrase)) {
+                predictions.add(phrase);
+            }
         }
-        
-        return phrases;
+    }
+
+    /**
+     * Runs the beam search for phrases after the two words, leaving every phrase of two words
+     * or more that it reached in {@link #phraseWords}.
+     */
+    private void searchPhrases(int previousId, int lastId) {
+        final long start = System.nanoTime();
+        phraseCount = 0;
+        beamCount = 1;
+        beamScores[0] = 0;
+        for (int length = 0; length < phraseMaxWords && beamCount > 0; length++) {
+            nextBeamCount = 0;
+            for (int beam = 0; beam < beamCount; beam++) {
+                if (System.nanoTime() - start > phraseTimeBudgetNanos) {
+                    return;
+                }
+                final int offset = beam * phraseMaxWords;
+                final int first = length >= 2 ? beamWords[offset + length - 2]
+                        : length == 1 ? lastId : previousId;
+                final int second = length >= 1 ? beamWords[offset + length - 1] : lastId;
+                extendBeam(beam, length, first, second);
+            }
+
+            // The extended phrases are the beams of the next step
+            final int[] words = beamWords;
+            beamWords = nextBeamWords;
+            nextBeamWords = words;
+            final double[] scores = beamScores;
+            beamScores = nextBeamScores;
+            nextBeamScores = scores;
+            beamCount = nextBeamCount;
+
+            if (length >= 1) {
+                for (int beam = 0; beam < beamCount; beam++) {
+                    System.arraycopy(beamWords, beam * phraseMaxWords,
+                            phraseWords, phraseCount * phraseMaxWords, length + 1);
+                    phraseScores[phraseCount] = beamScores[beam] / (length + 1);
+                    phraseLengths[phraseCount] = length + 1;
+                    phraseCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Offers the beam of the given length, extended by each of the most frequent words after
+     * its last two, to the next step.
+     */
+    private void extendBeam(int beam, int length, int first, int second) {
+        NGramTable table = trigrams;
+        long context = 0;
+        int list = NGramTable.NO_LIST;
+        double backoff = 0;
+        if (first <= MAX_TRIGRAM_ID && second <= MAX_TRIGRAM_ID) {
+            context = getTrigramContext(first, second);
+            list = trigrams.findList(context);
+        }
+        if (list == NGramTable.NO_LIST) {
+            table = bigrams;
+            context = second;
+            list = bigrams.findList(context);
+            backoff = BACKOFF_LOG_PENALTY;
+        }
+        if (list == NGramTable.NO_LIST) {
+            return;
+        }
+
+        final double total = table.getTotalCount(list);
+        final int limit = Math.min(table.getSuccessorCount(list), phraseBeamWidth);
+        for (int rank = 0; rank < limit; rank++) {
+            final int word = table.getSuccessor(list, rank);
+            final int count = table.getCount(context, word);
+            if (count < MIN_PHRASE_COUNT) {
+                // Lists are sorted, the rest are rarer still
+                return;
+            }
+            final String text = vocabulary.get(word);
+            if (word == second || !TextTokenizer.containsLetter(text, 0, text.length())) {
+                continue;
+            }
+            offerNextBeam(beam, length, word,
+                    beamScores[beam] + backoff + Math.log(count / total));
+        }
+    }
+
+    /**
+     * Keeps the beam extended by the word for the next step if it is among the
+     * {@link #phraseBeamWidth} most probable so far.
+     */
+    private void offerNextBeam(int beam, int length, int word, double score) {
+        int slot = nextBeamCount;
+        if (nextBeamCount == phraseBeamWidth) {
+            slot = 0;
+            for (int i = 1; i < nextBeamCount; i++) {
+                if (nextBeamScores[i] < nextBeamScores[slot]) {
+                    slot = i;
+                }
+            }
+            if (nextBeamScores[slot] >= score) {
+                return;
+            }
+        } else {
+            nextBeamCount++;
+        }
+        System.arraycopy(beamWords, beam * phraseMaxWords,
+                nextBeamWords, slot * phraseMaxWords, length);
+        nextBeamWords[slot * phraseMaxWords + length] = word;
+        nextBeamScores[slot] = score;
     }
 
     /**
@@ -317,116 +529,226 @@ public class NGramModel {
         return punctuationSuggestions;
     }
 
-    private void addBigram(String word1, String word2) {
-        bigramModel.computeIfAbsent(word1, k -> new HashMap<>())
-                   .merge(word2, 1, Integer::sum);
+    /**
+     * Counts one occurrence of the bigram. Used when replaying journaled input.
+     */
+    void addBigram(String word1, String word2) {
+        addBigram(vocabulary.intern(word1), vocabulary.intern(word2));
+        compactVocabularyIfEvicted();
+    }
+
+    /**
+     * Counts one occurrence of the trigram. Used when replaying journaled input.
+     */
+    void addTrigram(String word1, String word2, String word3) {
+        addTrigram(vocabulary.intern(word1), vocabulary.intern(word2), vocabulary.intern(word3));
+        compactVocabularyIfEvicted();
     }
 
-    private void addTrigram(String context, String word) {
-        trigramModel.computeIfAbsent(context, k -> new HashMap<>())
-                    .merge(word, 1, Integer::sum);
+    private void addBigram(int id1, int id2) {
+        countIncrement();
+        bigrams.add(id1, id2, 1);
+        if (updateListener != null) {
+            updateListener.onBigramAdded(vocabulary.get(id1), vocabulary.get(id2));
+        }
     }
 
-    private List<String> getPredictions(Map<String, Map<String, Integer>> model, String key) {
-        Map<String, Integer> candidates = model.get(key);
-        if (candidates == null || candidates.isEmpty()) {
-            return new ArrayList<>();
+    private void addTrigram(int id1, int id2, int id3) {
+        if (id1 > MAX_TRIGRAM_ID || id2 > MAX_TRIGRAM_ID || id3 > MAX_TRIGRAM_ID) {
+            return;
+        }
+        countIncrement();
+        trigrams.add(getTrigramContext(id1, id2), id3, 1);
+        if (updateListener != null) {
+            updateListener.onTrigramAdded(vocabulary.get(id1), vocabulary.get(id2), vocabulary.get(id3));
         }
+    }
+
+    /**
+     * Adds every count of the other model to this one, so that text can be counted in parts
+     * and the parts combined.
+     */
+    void addCounts(NGramModel other) {
+        addCounts(other, other.bigrams, bigrams, false);
+        addCounts(other, other.trigrams, trigrams, true);
+        compactVocabularyIfEvicted();
+    }
 
-        List<Map.Entry<String, Integer>> sortedCandidates = new ArrayList<>(candidates.entrySet());
-        Collections.sort(sortedCandidates, new Comparator<Map.Entry<String, Integer>>() {
-            @Override
-            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
-                return b.getValue().compareTo(a.getValue()); // Descending order
+    private void addCounts(NGramModel other, NGramTable from, NGramTable to, boolean trigram) {
+        for (int list = 0; list < from.getListCount(); list++) {
+            final long context = from.getListContext(list);
+            final long newContext;
+            if (trigram) {
+                final WordInterner words = other.vocabulary;
+                final int id1 = vocabulary.intern(words.get((int) (context >>> TRIGRAM_ID_BITS)));
+                final int id2 = vocabulary.intern(words.get((int) (context & MAX_TRIGRAM_ID)));
+                if (id1 > MAX_TRIGRAM_ID || id2 > MAX_TRIGRAM_ID) {
+                    continue;
+                }
+                newContext = getTrigramContext(id1, id2);
+            } else {
+                newContext = vocabulary.intern(other.vocabulary.get((int) context));
             }
-        });
+            for (int rank = 0; rank < from.getSuccessorCount(list); rank++) {
+                final int word = from.getSuccessor(list, rank);
+                final int newWord = vocabulary.intern(other.vocabulary.get(word));
+                if (!trigram || newWord <= MAX_TRIGRAM_ID) {
+                    to.add(newContext, newWord, from.getCount(context, word));
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the bigrams and trigrams seen fewer than minCount times.
+     */
+    void prune(int minCount) {
+        bigrams.prune(minCount);
+        trigrams.prune(minCount);
+        compactVocabularyIfEvicted();
+    }
+
+    /**
+     * Halves every count once the decay interval has passed.
+     */
+    private void countIncrement() {
+        if (decayInterval > 0 && ++incrementsSinceDecay >= decayInterval) {
+            bigrams.decay();
+            trigrams.decay();
+            incrementsSinceDecay = 0;
+        }
+    }
 
-        List<String> result = new ArrayList<>();
-        int limit = Math.min(sortedCandidates.size(), MAX_PREDICTIONS);
-        for (int i = 0; i < limit; i++) {
-            result.add(sortedCandidates.get(i).getKey());
+    /**
+     * Drops the words no n-gram refers to anymore if n-grams were forgotten since the last
+     * time. Ids change, so none may be held across a call.
+     */
+    private void compactVocabularyIfEvicted() {
+        final long evicted = getEvictedCount();
+        if (evicted == evictedAtCompaction) {
+            return;
         }
+        evictedAtCompaction = evicted;
+
+        final int size = vocabulary.size();
+        final boolean[] used = new boolean[size];
+        bigrams.collectWords(used);
+        trigrams.collectWords(used);
+        final WordInterner newVocabulary = new WordInterner();
+        final int[] newIds = new int[size];
+        // Ids keep their order, so they only get smaller and trigram ids still fit
+        for (int id = 0; id < size; id++) {
+            newIds[id] = used[id] ? newVocabulary.intern(vocabulary.get(id)) : WordInterner.NO_ID;
+        }
+        if (newVocabulary.size() == size) {
+            return;
+        }
+        bigrams.remapWords(newIds);
+        trigrams.remapWords(newIds);
+        vocabulary = newVocabulary;
+    }
 
-        return result;
+    private static long getTrigramContext(int id1, int id2) {
+        return ((long) id1 << TRIGRAM_ID_BITS) | id2;
     }
 
-    private String normalizeWord(String word) {
-        if (word == null) return "";
-        
-        // Don't normalize emojis - keep them as-is
-        if (EmojiUtils.isEmoji(word)) {
-            return word;
+    /**
+     * Returns the id of the normalized form of the word between start and end, or
+     * {@link WordInterner#NO_ID} if it was never learned.
+     */
+    private int findWord(CharSequence text, int start, int end) {
+        return normalize(text, start, end) ? vocabulary.find(normalizedWord) : WordInterner.NO_ID;
+    }
+
+    /**
+     * Returns the id of the normalized form of the word between start and end, assigning one
+     * if it is new, or {@link WordInterner#NO_ID} if nothing is left of it.
+     */
+    private int internWord(CharSequence text, int start, int end) {
+        if (!normalize(text, start, end)) {
+            return WordInterner.NO_ID;
         }
-        
-        return word.toLowerCase().trim()
-                  .replaceAll("[^a-zA-Z0-9\\u0600-\\u06FF]", ""); // Support Arabic characters
+        final int id = vocabulary.find(normalizedWord);
+        return id != WordInterner.NO_ID ? id : vocabulary.intern(normalizedWord.toString());
     }
 
-    private boolean isValidWord(String word) {
-        // Updated to accept single-letter words like "a" in English or "و" in Arabic, and emojis
-        if (word == null || word.trim().isEmpty()) {
+    /**
+     * Puts the normalized form of the word between start and end in {@link #normalizedWord}:
+     * emojis as they are, anything else lower case with only letters and digits kept, which
+     * leaves nothing of punctuation. Returns whether anything is left.
+     */
+    private boolean normalize(CharSequence text, int start, int end) {
+        normalizedWord.setLength(0);
+        if (start >= end) {
             return false;
         }
-        
-        // Accept emojis as valid tokens
-        if (EmojiUtils.isEmoji(word)) {
-            return true;
+        // Don't normalize emojis - keep them as-is
+        if (EmojiUtils.isEmoji(text, start, end)) {
+            normalizedWord.append(text, start, end);
+        } else {
+            for (int i = start; i < end; i++) {
+                final char c = Character.toLowerCase(text.charAt(i));
+                if (isWordChar(c)) {
+                    normalizedWord.append(c);
+                }
+            }
         }
-        
-        // Accept words (including single letters)
-        return word.length() >= 1;
+        return normalizedWord.length() > 0;
+    }
+
+    /**
+     * Letters and digits, Latin or Arabic, the characters words are normalized to.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || (c >= '\u0600' && c <= '\u06FF');
     }
 
     /**
      * Serializes bigram data for persistence.
      */
     public String serializeBigramData() {
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, Map<String, Integer>> entry : bigramModel.entrySet()) {
-            String key = entry.getKey();
-            for (Map.Entry<String, Integer> subEntry : entry.getValue().entrySet()) {
-                sb.append(key).append("|||").append(subEntry.getKey()).append("|||").append(subEntry.getValue()).append(";;;");
-            }
-        }
-        return sb.toString();
+        return serialize(bigrams, false);
     }
 
     /**
      * Serializes trigram data for persistence.
      */
     public String serializeTrigramData() {
+        return serialize(trigrams, true);
+    }
+
+    private String serialize(NGramTable table, boolean trigram) {
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, Map<String, Integer>> entry : trigramModel.entrySet()) {
-            String key = entry.getKey();
-            for (Map.Entry<String, Integer> subEntry : entry.getValue().entrySet()) {
-                sb.append(key).append("|||").append(subEntry.getKey()).append("|||").append(subEntry.getValue()).append(";;;");
+        for (int list = 0; list < table.getListCount(); list++) {
+            final long context = table.getListContext(list);
+            for (int rank = 0; rank < table.getSuccessorCount(list); rank++) {
+                final int word = table.getSuccessor(list, rank);
+                appendContext(sb, context, trigram);
+                sb.append("|||").append(vocabulary.get(word)).append("|||")
+                        .append(table.getCount(context, word)).append(";;;");
             }
         }
         return sb.toString();
     }
 
+    private void appendContext(StringBuilder sb, long context, boolean trigram) {
+        if (trigram) {
+            sb.append(vocabulary.get((int) (context >>> TRIGRAM_ID_BITS))).append(' ')
+                    .append(vocabulary.get((int) (context & MAX_TRIGRAM_ID)));
+        } else {
+            sb.append(vocabulary.get((int) context));
+        }
+    }
+
     /**
      * Deserializes bigram data from persistence.
      */
     public void deserializeBigramData(String data) {
         if (data == null || data.isEmpty()) return;
         
-        bigramModel.clear();
-        String[] entries = data.split(";;;");
-        for (String entry : entries) {
-            if (entry.trim().isEmpty()) continue;
-            String[] parts = entry.split("\\|\\|\\|");
-            if (parts.length == 3) {
-                String key = parts[0];
-                String value = parts[1];
-                try {
-                    int frequency = Integer.parseInt(parts[2]);
-                    bigramModel.computeIfAbsent(key, k -> new HashMap<>()).put(value, frequency);
-                } catch (NumberFormatException e) {
-                    // Skip invalid entries
-                }
-            }
-        }
+        bigrams.clear();
+        deserialize(data, false);
     }
 
     /**
@@ -435,21 +757,222 @@ public class NGramModel {
     public void deserializeTrigramData(String data) {
         if (data == null || data.isEmpty()) return;
         
-        trigramModel.clear();
+        trigrams.clear();
+        deserialize(data, true);
+    }
+
+    private void deserialize(String data, boolean trigram) {
         String[] entries = data.split(";;;");
         for (String entry : entries) {
             if (entry.trim().isEmpty()) continue;
             String[] parts = entry.split("\\|\\|\\|");
             if (parts.length == 3) {
-                String key = parts[0];
-                String value = parts[1];
                 try {
                     int frequency = Integer.parseInt(parts[2]);
-                    trigramModel.computeIfAbsent(key, k -> new HashMap<>()).put(value, frequency);
+                    addCount(vocabulary, trigram ? trigrams : bigrams, parts[0], parts[1], frequency, trigram);
                 } catch (NumberFormatException e) {
                     // Skip invalid entries
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sets the count of an n-gram read from persisted data, whose context is one word for a
+     * bigram or two words separated by a space for a trigram.
+     */
+    private static void addCount(WordInterner vocabulary, NGramTable table, String context,
+            String word, int frequency, boolean trigram) {
+        final long contextKey;
+        if (trigram) {
+            final int space = context.indexOf(' ');
+            if (space < 0) {
+                return;
+            }
+            final int id1 = vocabulary.intern(context.substring(0, space));
+            final int id2 = vocabulary.intern(context.substring(space + 1));
+            final int id3 = vocabulary.intern(word);
+            if (id1 > MAX_TRIGRAM_ID || id2 > MAX_TRIGRAM_ID || id3 > MAX_TRIGRAM_ID) {
+                return;
+            }
+            contextKey = getTrigramContext(id1, id2);
+        } else {
+            contextKey = vocabulary.intern(context);
+        }
+        table.add(contextKey, vocabulary.intern(word), frequency);
+    }
+
+    /**
+     * Returns a copy of the counts that shares nothing with this model, without the update
+     * listener.
+     */
+    public NGramModel copy() {
+        final NGramModel copy = new NGramModel();
+        copy.vocabulary = vocabulary.copy();
+        copy.maxNGramsPerTable = maxNGramsPerTable;
+        copy.decayInterval = decayInterval;
+        copy.setPhraseSearch(phraseBeamWidth, phraseMaxWords, phraseTimeBudgetNanos);
+        copy.incrementsSinceDecay = incrementsSinceDecay;
+        copy.evictedAtCompaction = evictedAtCompaction;
+        copy.bigrams = bigrams.copy();
+        copy.trigrams = trigrams.copy();
+        return copy;
+    }
+
+    /**
+     * Returns the number of distinct bigrams and trigrams.
+     */
+    public int size() {
+        return bigrams.size() + trigrams.size();
+    }
+
+    /**
+     * Returns the number of distinct words the n-grams are made of, and of the words learned
+     * since n-grams were last forgotten.
+     */
+    int getVocabularySize() {
+        return vocabulary.size();
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the model.
+     */
+    public long getApproximateHeapBytes() {
+        return vocabulary.getApproximateHeapBytes() + bigrams.getApproximateHeapBytes()
+                + trigrams.getApproximateHeapBytes();
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeTo(ByteBuffer)} needs.
+     */
+    public int getSerializedSize() {
+        return getSerializedSize(bigrams, false) + getSerializedSize(trigrams, true);
+    }
+
+    /**
+     * Writes both models to the buffer, little-endian. Words are written as strings, so the
+     * format does not depend on the ids they were given.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        writeModel(buffer, bigrams, false);
+        writeModel(buffer, trigrams, true);
+    }
+
+    /**
+     * Replaces both models with the ones written by {@link #writeTo(ByteBuffer)}.
+     *
+     * @throws IllegalArgumentException if the buffer holds invalid counts.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final WordInterner newWords = new WordInterner();
+        final NGramTable newBigrams = newTable(BIGRAM_ID_BITS, 1);
+        final NGramTable newTrigrams = newTable(TRIGRAM_ID_BITS, 2);
+        readModel(buffer, newWords, newBigrams, false);
+        readModel(buffer, newWords, newTrigrams, true);
+        vocabulary = newWords;
+        bigrams = newBigrams;
+        trigrams = newTrigrams;
+        evictedAtCompaction = 0;
+    }
+
+    private int getSerializedSize(NGramTable table, boolean trigram) {
+        int size = 4;
+        for (int list = 0; list < table.getListCount(); list++) {
+            final long context = table.getListContext(list);
+            if (trigram) {
+                size += 4 + 2 * (vocabulary.get((int) (context >>> TRIGRAM_ID_BITS)).length() + 1
+                        + vocabulary.get((int) (context & MAX_TRIGRAM_ID)).length());
+            } else {
+                size += getSerializedSize(vocabulary.get((int) context));
+            }
+            size += 4;
+            for (int rank = 0; rank < table.getSuccessorCount(list); rank++) {
+                size += getSerializedSize(vocabulary.get(table.getSuccessor(list, rank))) + 4;
+            }
+        }
+        return size;
+    }
+
+    private static int getSerializedSize(String string) {
+        return 4 + 2 * string.length();
+    }
+
+    private void writeModel(ByteBuffer buffer, NGramTable table, boolean trigram) {
+        buffer.putInt(table.getListCount());
+        for (int list = 0; list < table.getListCount(); list++) {
+            final long context = table.getListContext(list);
+            if (trigram) {
+                final String first = vocabulary.get((int) (context >>> TRIGRAM_ID_BITS));
+                final String second = vocabulary.get((int) (context & MAX_TRIGRAM_ID));
+                buffer.putInt(first.length() + 1 + second.length());
+                putChars(buffer, first);
+                buffer.putChar(' ');
+                putChars(buffer, second);
+            } else {
+                putString(buffer, vocabulary.get((int) context));
+            }
+            final int count = table.getSuccessorCount(list);
+            buffer.putInt(count);
+            for (int rank = 0; rank < count; rank++) {
+                final int word = table.getSuccessor(list, rank);
+                putString(buffer, vocabulary.get(word));
+                buffer.putInt(table.getCount(context, word));
+            }
+        }
+    }
+
+    private static void readModel(ByteBuffer buffer, WordInterner vocabulary, NGramTable table,
+            boolean trigram) {
+        final int size = getCount(buffer);
+        for (int i = 0; i < size; i++) {
+            final String context = getString(buffer);
+            final int count = getCount(buffer);
+            for (int j = 0; j < count; j++) {
+                final String word = getString(buffer);
+                addCount(vocabulary, table, context, word, getCount(buffer), trigram);
+            }
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String string) {
+        buffer.putInt(string.length());
+        putChars(buffer, string);
+    }
+
+    private static void putChars(ByteBuffer buffer, String string) {
+        for (int i = 0; i < string.length(); i++) {
+            buffer.putChar(string.charAt(i));
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final int length = getCount(buffer);
+        if (length > buffer.remaining() / 2) {
+            throw new IllegalArgumentException("Corrupt n-gram string length " + length);
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static int getCount(ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Corrupt n-gram count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Receives every n-gram count the model increments, so they can be journaled.
+     */
+    public interface UpdateListener {
+        void onBigramAdded(String previousWord, String word);
+
+        void onTrigramAdded(String firstWord, String secondWord, String word);
+    }
+}
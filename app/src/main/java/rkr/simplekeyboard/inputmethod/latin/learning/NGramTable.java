@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+
+/**
+ * Counts of words following a context, keyed by word ids.
+ *
+ * A context is a long built from the ids of the words before the predicted one, packed in
+ * {@code wordBits} bits each, and each n-gram is counted under
+ * {@code context << wordBits | word}. Every context also has a list
+ * of the words seen after it, kept sorted by descending count (ties in the order the words
+ * first appeared), so predictions read the head of a list without sorting anything. The
+ * total count of each list is kept too, to turn counts into probabilities.
+ *
+ * The table can be bounded: once it holds {@code maxSize} n-grams, the ones with the lowest
+ * counts are evicted down to three quarters of that, keeping newer contexts on ties.
+ * {@link #decay()} halves every count, which forgets n-grams seen once and never again. Both
+ * rebuild the table from the survivors in one pass, so the cost is spread over the many
+ * increments between them. {@link #remapWords(int[])} rebuilds it the same way with new word
+ * ids, so the words nothing refers to anymore can be given up.
+ */
+final class NGramTable {
+    static final int NO_LIST = -1;
+
+    // Counts at or above this are not told apart when choosing what to evict.
+    private static final int HISTOGRAM_SIZE = 256;
+
+    private final int wordBits;
+    private final int contextWords;
+    private int maxSize = Integer.MAX_VALUE;
+    private long evictedCount;
+    private int decayCount;
+    // Count of every n-gram, list by list, while the table is rebuilt.
+    private int[] survivorCounts = new int[0];
+    private final LongIntTable counts;
+    // Context to the index of its successor list.
+    private final LongIntTable lists;
+    private long[] listContexts = new long[16];
+    private int[][] successors = new int[16][];
+    private int[] successorCounts = new int[16];
+    private int[] listTotals = new int[16];
+    private int listCount;
+
+    /**
+     * @param wordBits number of low bits of an n-gram key that hold the predicted word id.
+     * @param contextWords number of word ids packed in a context.
+     */
+    NGramTable(int wordBits, int contextWords) {
+        this.wordBits = wordBits;
+        this.contextWords = contextWords;
+        this.counts = new LongIntTable();
+        this.lists = new LongIntTable();
+    }
+
+    private NGramTable(NGramTable other) {
+        wordBits = other.wordBits;
+        contextWords = other.contextWords;
+        maxSize = other.maxSize;
+        evictedCount = other.evictedCount;
+        decayCount = other.decayCount;
+        counts = other.counts.copy();
+        lists = other.lists.copy();
+        listContexts = other.listContexts.clone();
+        successors = new int[other.successors.length][];
+        for (int i = 0; i < other.listCount; i++) {
+            successors[i] = other.successors[i].clone();
+        }
+        successorCounts = other.successorCounts.clone();
+        listTotals = other.listTotals.clone();
+        listCount = other.listCount;
+    }
+
+    /**
+     * Returns a copy that shares nothing with this table.
+     */
+    NGramTable copy() {
+        return new NGramTable(this);
+    }
+
+    /**
+     * Bounds the number of n-grams; the default is no bound.
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Adds to the count of the word after the context and returns the new count.
+     */
+    int add(long context, int word, int delta) {
+        if (counts.size() >= maxSize) {
+            evict(maxSize / 4 * 3);
+        }
+
+        final int count = counts.add(getKey(context, word), delta);
+
+        int list = lists.get(context, NO_LIST);
+        if (list == NO_LIST) {
+            list = newList(context);
+        }
+        listTotals[list] += delta;
+        int[] ids = successors[list];
+        final int size = successorCounts[list];
+        int position = size - 1;
+        while (position >= 0 && ids[position] != word) {
+            position--;
+        }
+        if (position < 0) {
+            if (size == ids.length) {
+                ids = successors[list] = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size] = word;
+            successorCounts[list] = size + 1;
+            position = size;
+        }
+
+        // Move the word ahead of the ones it now outnumbers.
+        while (position > 0 && getCount(context, ids[position - 1]) < count) {
+            ids[position] = ids[position - 1];
+            position--;
+        }
+        ids[position] = word;
+        return count;
+    }
+
+    /**
+     * Returns the count of the word after the context.
+     */
+    int getCount(long context, int word) {
+        return counts.get(getKey(context, word), 0);
+    }
+
+    /**
+     * Returns the successor list of the context, or {@link #NO_LIST}.
+     */
+    int findList(long context) {
+        return lists.get(context, NO_LIST);
+    }
+
+    int getListCount() {
+        return listCount;
+    }
+
+    long getListContext(int list) {
+        return listContexts[list];
+    }
+
+    int getSuccessorCount(int list) {
+        return successorCounts[list];
+    }
+
+    /**
+     * Returns the sum of the counts of every successor in the list.
+     */
+    int getTotalCount(int list) {
+        return listTotals[list];
+    }
+
+    /**
+     * Returns the successor with the given rank, zero being the most frequent.
+     */
+    int getSuccessor(int list, int rank) {
+        return successors[list][rank];
+    }
+
+    /**
+     * Returns the number of distinct n-grams.
+     */
+    int size() {
+        return counts.size();
+    }
+
+    void clear() {
+        counts.clear();
+        lists.clear();
+        Arrays.fill(successors, 0, listCount, null);
+        listCount = 0;
+    }
+
+    /**
+     * Halves every count, forgetting the n-grams that drop to zero.
+     */
+    void decay() {
+        collectCounts(1);
+        rebuild();
+        decayCount++;
+    }
+
+    /**
+     * Forgets the n-grams counted fewer than minCount times.
+     */
+    void prune(int minCount) {
+        final int total = collectCounts(0);
+        for (int i = 0; i < total; i++) {
+            if (survivorCounts[i] < minCount) {
+                survivorCounts[i] = 0;
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * Sets the entry of every word id in a context or successor list to true.
+     */
+    void collectWords(boolean[] used) {
+        final long mask = getWordMask();
+        for (int list = 0; list < listCount; list++) {
+            final long context = listContexts[list];
+            for (int i = 0; i < contextWords; i++) {
+                used[(int) ((context >>> (i * wordBits)) & mask)] = true;
+            }
+            final int[] ids = successors[list];
+            for (int rank = 0; rank < successorCounts[list]; rank++) {
+                used[ids[rank]] = true;
+            }
+        }
+    }
+
+    /**
+     * Replaces every word id by its entry in newIds, which must map the ids in use to distinct
+     * ids that fit in {@code wordBits} bits.
+     */
+    void remapWords(int[] newIds) {
+        collectCounts(0);
+        final long mask = getWordMask();
+        for (int list = 0; list < listCount; list++) {
+            final long context = listContexts[list];
+            long newContext = 0;
+            for (int i = 0; i < contextWords; i++) {
+                final int shift = i * wordBits;
+                newContext |= (long) newIds[(int) ((context >>> shift) & mask)] << shift;
+            }
+            listContexts[list] = newContext;
+            final int[] ids = successors[list];
+            for (int rank = 0; rank < successorCounts[list]; rank++) {
+                ids[rank] = newIds[ids[rank]];
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * Returns the number of n-grams forgotten by decay, eviction or pruning.
+     */
+    long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Returns the number of times the counts were halved.
+     */
+    int getDecayCount() {
+        return decayCount;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the table.
+     */
+    long getApproximateHeapBytes() {
+        long bytes = counts.getApproximateHeapBytes() + lists.getApproximateHeapBytes()
+                + 8L * listContexts.length + 4L * successors.length + 4L * successorCounts.length
+                + 4L * listTotals.length + 4L * survivorCounts.length;
+        for (int i = 0; i < listCount; i++) {
+            bytes += 16 + 4L * successors[i].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Evicts the n-grams with the lowest counts until at most target are left.
+     */
+    private void evict(int target) {
+        final int total = collectCounts(0);
+        final int[] histogram = new int[HISTOGRAM_SIZE];
+        for (int i = 0; i < total; i++) {
+            histogram[Math.min(survivorCounts[i], HISTOGRAM_SIZE - 1)]++;
+        }
+        // Keep everything above the cutoff, and as many at the cutoff as still fit
+        int kept = 0;
+        int cutoff = HISTOGRAM_SIZE - 1;
+        while (cutoff > 0 && kept + histogram[cutoff] <= target) {
+            kept += histogram[cutoff];
+            cutoff--;
+        }
+        int ties = target - kept;
+        // Newest contexts and successors last in the flat order, so they win ties
+        for (int i = total - 1; i >= 0; i--) {
+            final int count = Math.min(survivorCounts[i], HISTOGRAM_SIZE - 1);
+            if (count < cutoff) {
+                survivorCounts[i] = 0;
+            } else if (count == cutoff) {
+                if (ties > 0) {
+                    ties--;
+                } else {
+                    survivorCounts[i] = 0;
+                }
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * Copies the counts, shifted right by the given amount, in list order into
+     * {@link #survivorCounts}. Returns the number of n-grams.
+     */
+    private int collectCounts(int shift) {
+        final int total = counts.size();
+        if (survivorCounts.length < total) {
+            survivorCounts = new int[total];
+        }
+        int index = 0;
+        for (int list = 0; list < listCount; list++) {
+            final long context = listContexts[list];
+            final int[] ids = successors[list];
+            for (int rank = 0; rank < successorCounts[list]; rank++) {
+                survivorCounts[index++] = getCount(context, ids[rank]) >> shift;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Rebuilds the table from {@link #survivorCounts}, leaving out the zero counts. Lists stay
+     * sorted, since halving or zeroing counts never reorders the ones left.
+     */
+    private void rebuild() {
+        counts.clear();
+        lists.clear();
+        int index = 0;
+        int newListCount = 0;
+        for (int list = 0; list < listCount; list++) {
+            final long context = listContexts[list];
+            int[] ids = successors[list];
+            final int size = successorCounts[list];
+            int newSize = 0;
+            int total = 0;
+            for (int rank = 0; rank < size; rank++) {
+                final int word = ids[rank];
+                final int count = survivorCounts[index++];
+                if (count > 0) {
+                    ids[newSize++] = word;
+                    total += count;
+                    counts.put(getKey(context, word), count);
+                } else {
+                    evictedCount++;
+                }
+            }
+            if (newSize == 0) {
+                successors[list] = null;
+                continue;
+            }
+            if (newSize * 4 <= ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(2, newSize * 2));
+            }
+            listContexts[newListCount] = context;
+            successors[newListCount] = ids;
+            successorCounts[newListCount] = newSize;
+            listTotals[newListCount] = total;
+            lists.put(context, newListCount);
+            newListCount++;
+        }
+        Arrays.fill(successors, newListCount, listCount, null);
+        listCount = newListCount;
+    }
+
+    private int newList(long context) {
+        if (listCount == listContexts.length) {
+            final int capacity = listCount * 2;
+            listContexts = Arrays.copyOf(listContexts, capacity);
+            successors = Arrays.copyOf(successors, capacity);
+            successorCounts = Arrays.copyOf(successorCounts, capacity);
+            listTotals = Arrays.copyOf(listTotals, capacity);
+        }
+        final int list = listCount++;
+        listContexts[list] = context;
+        successors[list] = new int[2];
+        successorCounts[list] = 0;
+        listTotals[list] = 0;
+        lists.put(context, list);
+        return list;
+    }
+
+    private long getWordMask() {
+        return (1L << wordBits) - 1;
+    }
+
+    private long getKey(long context, int word) {
+        return (context << wordBits) | word;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stateful position in a trie that follows the word being typed one character at a time.
+ * Appending a character moves one node down and backspace pops back to the previous node, so
+ * a keystroke costs a single child lookup instead of a walk from the root.
+ *
+ * Characters that have no matching node are still tracked, so backspacing out of a typo
+ * brings the cursor back onto the trie.
+ */
+public abstract class PrefixCursor {
+    private final StringBuilder text = new StringBuilder();
+    // Number of leading characters of text that are matched by trie nodes.
+    private int matchedLength;
+
+    /**
+     * Moves the cursor one character further.
+     */
+    public void append(char c) {
+        c = Character.toLowerCase(c);
+        if (matchedLength == text.length() && pushChild(c)) {
+            matchedLength++;
+        }
+        text.append(c);
+    }
+
+    /**
+     * Moves the cursor one character back.
+     */
+    public void backspace() {
+        if (text.length() == 0) {
+            return;
+        }
+        if (matchedLength == text.length()) {
+            popNode();
+            matchedLength--;
+        }
+        text.setLength(text.length() - 1);
+    }
+
+    /**
+     * Moves the cursor back to the root.
+     */
+    public void reset() {
+        text.setLength(0);
+        matchedLength = 0;
+        popAll();
+    }
+
+    /**
+     * Moves the cursor to the given word, reusing the part it shares with the current
+     * position. When the word grew or shrank by one character this is a single step.
+     */
+    public void moveTo(CharSequence word) {
+        final int wordLength = word == null ? 0 : word.length();
+        int common = 0;
+        final int max = Math.min(wordLength, text.length());
+        while (common < max && text.charAt(common) == Character.toLowerCase(word.charAt(common))) {
+            common++;
+        }
+        while (text.length() > common) {
+            backspace();
+        }
+        for (int i = common; i < wordLength; i++) {
+            append(word.charAt(i));
+        }
+    }
+
+    /**
+     * Returns the number of characters typed since the last reset.
+     */
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * Returns whether every character typed so far matched a node.
+     */
+    public boolean isOnTrie() {
+        return matchedLength == text.length();
+    }
+
+    /**
+     * Returns the best completions of the current prefix.
+     */
+    public List<String> getSuggestions() {
+        if (text.length() == 0 || !isOnTrie()) {
+            return new ArrayList<>();
+        }
+        return collectSuggestions();
+    }
+
+    /**
+     * Descends to the child for the given character. Returns false, leaving the position
+     * unchanged, if there is none.
+     */
+    protected abstract boolean pushChild(char c);
+
+    /**
+     * Goes back to the parent of the current node.
+     */
+    protected abstract void popNode();
+
+    /**
+     * Goes back to the root.
+     */
+    protected abstract void popAll();
+
+    /**
+     * Returns the best completions below the current node.
+     */
+    protected abstract List<String> collectSuggestions();
+
+    /**
+     * Returns the matched prefix, for implementations that need it to build words.
+     */
+    protected String getMatchedPrefix() {
+        return text.substring(0, matchedLength);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the ranked suggestions of the last words typed in a context, least recently used
+ * first out, so that backspacing and typing the same letters again does not run every
+ * suggestion provider again.
+ *
+ * Entries are keyed by the word being typed, lowercased, and the context before it. Learning
+ * a word only makes the entries for words with the same first letter stale: each letter has a
+ * version, bumped by the learning side with {@link #onWordChanged(int[], String)} and handed
+ * over with {@link #setVersions(int[])}, and an entry is only used while the version of its
+ * letter is the one it was computed with. Corrections across a first letter typo may
+ * therefore stay a little behind until the entry is evicted.
+ *
+ * Not thread safe, except for the hit and miss counts.
+ */
+final class SuggestionCache {
+    // Letters are folded into this many versions; a collision only drops an entry early.
+    static final int VERSION_COUNT = 64;
+
+    private final Map<String, CachedSuggestions> entries;
+    private int[] versions = new int[VERSION_COUNT];
+    // Read by the learning side for its statistics.
+    private volatile long hits;
+    private volatile long misses;
+
+    /**
+     * @param capacity the number of suggestion lists to keep.
+     */
+    SuggestionCache(final int capacity) {
+        entries = new LinkedHashMap<String, CachedSuggestions>(
+                capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSuggestions> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the suggestions computed for the word in the context with the same layout, or
+     * null if there are none or they are stale.
+     */
+    List<String> get(String word, String context, KeyProximityTable keyProximity) {
+        final CachedSuggestions entry = entries.get(getKey(word, context));
+        if (entry == null || entry.version != getVersion(word)
+                || entry.keyProximity != keyProximity) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.suggestions;
+    }
+
+    /**
+     * Remembers the suggestions computed for the word in the context. The list must not be
+     * changed afterwards.
+     */
+    void put(String word, String context, KeyProximityTable keyProximity,
+            List<String> suggestions) {
+        entries.put(getKey(word, context),
+                new CachedSuggestions(suggestions, getVersion(word), keyProximity));
+    }
+
+    /**
+     * Sets the current version of each letter. The array must not be changed afterwards.
+     */
+    void setVersions(int[] versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * Bumps the version of the word's first letter in the array, which makes the suggestions
+     * for words sharing it stale once handed to {@link #setVersions(int[])}. Call this when
+     * the word is learned or removed.
+     */
+    static void onWordChanged(int[] versions, String word) {
+        versions[getSlot(word)]++;
+    }
+
+    /**
+     * Forgets every suggestion list, for changes that are not about one word.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    long getHitCount() {
+        return hits;
+    }
+
+    long getMissCount() {
+        return misses;
+    }
+
+    private int getVersion(String word) {
+        return versions[getSlot(word)];
+    }
+
+    private static int getSlot(String word) {
+        return word.isEmpty() ? 0 : Character.toLowerCase(word.charAt(0)) % VERSION_COUNT;
+    }
+
+    private static String getKey(String word, String context) {
+        return word.toLowerCase() + '\n' + context;
+    }
+
+    private static final class CachedSuggestions {
+        final List<String> suggestions;
+        final int version;
+        final KeyProximityTable keyProximity;
+
+        CachedSuggestions(List<String> suggestions, int version, KeyProximityTable keyProximity) {
+            this.suggestions = suggestions;
+            this.version = version;
+            this.keyProximity = keyProximity;
+        }
+    }
+}
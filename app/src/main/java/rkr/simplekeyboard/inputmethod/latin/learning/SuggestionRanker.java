@@ -16,9 +16,7 @@
 
 package rkr.simplekeyboard.inputmethod.latin.learning;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +29,11 @@ import java.util.Map;
  * - Typo tolerance (edit distance)
  * - Prefix matching priority
  * - Recent usage boosting
+ *
+ * Ranking first computes the features of every candidate into parallel arrays, then scores
+ * them in one pass and keeps the best few in a bounded min-heap, so only the suggestions
+ * shown are ever ordered. The arrays are reused, so ranking allocates nothing once they have
+ * grown to the usual number of candidates. Not thread safe.
  */
 public class SuggestionRanker {
     
@@ -43,135 +46,206 @@ public class SuggestionRanker {
     private static final double WEIGHT_RECENT_USAGE = 25.0;
     private static final double WEIGHT_LENGTH_PREFERENCE = 10.0;
     
-    // Typo tolerance threshold (Levenshtein distance)
+    // Typo tolerance threshold (edit distance)
     private static final int MAX_EDIT_DISTANCE = 2;
+    // Recency decays by a factor of e over this many hours (30 days), and is looked up by
+    // the hour for up to eight times that, after which it is negligible.
+    private static final int RECENCY_DECAY_HOURS = 30 * 24;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final float[] RECENCY_WEIGHTS = new float[8 * RECENCY_DECAY_HOURS];
     
-    /**
-     * Scored suggestion with ranking metadata.
-     */
-    public static class ScoredSuggestion {
-        public final String text;
-        public double score;
-        public final String source; // "exact", "prefix", "typo", "context", "prediction"
+    // How a candidate matches the current word.
+    private static final int SOURCE_PREDICTION = 0;
+    private static final int SOURCE_EXACT = 1;
+    private static final int SOURCE_PREFIX = 2;
+    private static final int SOURCE_TYPO = 3;
+    private static final int SOURCE_CONTEXT = 4;
+    
+    private static final String[] NO_FOLLOWERS = new String[0];
+    // Words that commonly follow a word, most common first.
+    private static final Map<String, String[]> COMMON_FOLLOWERS = new HashMap<>();
+    
+    static {
+        // Common English patterns
+        COMMON_FOLLOWERS.put("i", new String[]{"am", "have", "will", "can", "don't"});
+        COMMON_FOLLOWERS.put("you", new String[]{"are", "have", "can", "will", "don't"});
+        COMMON_FOLLOWERS.put("the", new String[]{"best", "first", "last", "most", "only"});
+        COMMON_FOLLOWERS.put("to", new String[]{"be", "do", "go", "get", "see"});
+        COMMON_FOLLOWERS.put("have", new String[]{"a", "to", "been", "had", "not"});
+        COMMON_FOLLOWERS.put("will", new String[]{"be", "have", "not", "go", "do"});
+        COMMON_FOLLOWERS.put("can", new String[]{"be", "you", "I", "we", "not"});
+        
+        // Common Arabic patterns
+        COMMON_FOLLOWERS.put("أنا", new String[]{"أريد", "أحب", "لا", "سوف", "كنت"});
+        COMMON_FOLLOWERS.put("هذا", new String[]{"هو", "ما", "كان", "يعني", "جيد"});
+        COMMON_FOLLOWERS.put("في", new String[]{"البيت", "المدرسة", "الصباح", "المساء", "الوقت"});
+        COMMON_FOLLOWERS.put("من", new String[]{"فضلك", "هنا", "هناك", "الآن", "البداية"});
         
-        public ScoredSuggestion(String text, double score, String source) {
-            this.text = text;
-            this.score = score;
-            this.source = source;
+        for (int hours = 0; hours < RECENCY_WEIGHTS.length; hours++) {
+            RECENCY_WEIGHTS[hours] = (float) Math.exp(-(double) hours / RECENCY_DECAY_HOURS);
         }
     }
     
+    private final EditDistance editDistance = new EditDistance();
+    // A candidate lowercased and trimmed, as the vocabulary keeps words.
+    private final StringBuilder normalizedCandidate = new StringBuilder();
+    
+    // Features of each candidate, by its index in the candidate list.
+    private int[] sources = new int[32];
+    private double[] typoDistances = new double[32];
+    private int[] useCounts = new int[32];
+    // How recently the candidate was last used, from 1 just now down to 0 if never or long ago.
+    private float[] recencies = new float[32];
+    // Index in the common followers of the previous word, -1 if not one of them.
+    private int[] followerRanks = new int[32];
+    private double[] scores = new double[32];
+    
+    // Candidate indices of the best scores so far, worst at the root.
+    private int[] heap = new int[8];
+    private int heapSize;
+    
     /**
-     * Ranks suggestions based on multiple scoring factors.
+     * Adds to the list the best {@code limit} candidates, best first. Candidates are scored by
+     * how they match the current word, scoring typos by how close the mistyped keys are to
+     * the intended ones on the current layout if known, by the previous word, and by how often
+     * and how recently each was picked from the vocabulary, if any. Candidates with equal
+     * scores keep their order.
      */
-    public static List<String> rankSuggestions(
+    void rankSuggestions(
             List<String> candidates,
             String currentWord,
             String previousContext,
-            Map<String, Integer> wordFrequency,
-            Map<String, Long> recentUsage) {
+            Vocabulary vocabulary,
+            KeyProximityTable keyProximity,
+            int limit,
+            List<String> out) {
         
-        if (candidates == null || candidates.isEmpty()) {
-            return new ArrayList<>();
+        if (candidates == null || candidates.isEmpty() || limit <= 0) {
+            return;
         }
         
-        List<ScoredSuggestion> scoredSuggestions = new ArrayList<>();
+        final int count = candidates.size();
+        computeFeatures(candidates, currentWord, previousContext, vocabulary, keyProximity,
+                System.currentTimeMillis());
         
-        for (String candidate : candidates) {
-            double score = calculateScore(
-                candidate,
-                currentWord,
-                previousContext,
-                wordFrequency,
-                recentUsage
-            );
-            
-            String source = determineSource(candidate, currentWord);
-            scoredSuggestions.add(new ScoredSuggestion(candidate, score, source));
+        final int currentLength = currentWord != null ? currentWord.length() : 0;
+        if (heap.length < limit) {
+            heap = new int[limit];
         }
-        
-        // Sort by score (highest first)
-        Collections.sort(scoredSuggestions, new Comparator<ScoredSuggestion>() {
-            @Override
-            public int compare(ScoredSuggestion a, ScoredSuggestion b) {
-                return Double.compare(b.score, a.score);
+        heapSize = 0;
+        for (int i = 0; i < count; i++) {
+            scores[i] = calculateScore(i, candidates.get(i).length(), currentLength);
+            if (heapSize < limit) {
+                heap[heapSize] = i;
+                siftUp(heapSize++);
+            } else if (isBetter(i, heap[0])) {
+                heap[0] = i;
+                siftDown(0);
             }
-        });
-        
-        // Extract sorted suggestions
-        List<String> rankedSuggestions = new ArrayList<>();
-        for (ScoredSuggestion scored : scoredSuggestions) {
-            rankedSuggestions.add(scored.text);
         }
         
-        return rankedSuggestions;
+        // Taking the worst out each time leaves the best at the start of the heap array
+        final int selected = heapSize;
+        while (heapSize > 1) {
+            final int worst = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(0);
+            heap[heapSize] = worst;
+        }
+        for (int i = 0; i < selected; i++) {
+            out.add(candidates.get(heap[i]));
+        }
     }
     
     /**
-     * Calculates comprehensive score for a suggestion.
+     * Fills the feature arrays for the candidates. The typed word is compiled once and each
+     * candidate's distance to it is computed once, then shared by the source and the score.
      */
-    private static double calculateScore(
-            String suggestion,
+    private void computeFeatures(
+            List<String> candidates,
             String currentWord,
             String previousContext,
-            Map<String, Integer> wordFrequency,
-            Map<String, Long> recentUsage) {
-        
+            Vocabulary vocabulary,
+            KeyProximityTable keyProximity,
+            long now) {
+        final int count = candidates.size();
+        ensureCapacity(count);
+        final boolean hasCurrentWord = currentWord != null && !currentWord.isEmpty();
+        if (hasCurrentWord) {
+            editDistance.setPattern(currentWord);
+        }
+        final String[] followers = previousContext != null && !previousContext.isEmpty()
+                ? getCommonFollowers(previousContext) : NO_FOLLOWERS;
+        
+        for (int i = 0; i < count; i++) {
+            final String candidate = candidates.get(i);
+            final int distance = hasCurrentWord
+                    ? editDistance.getDistance(candidate, MAX_EDIT_DISTANCE)
+                    : MAX_EDIT_DISTANCE + 1;
+            final int source = determineSource(candidate, currentWord, distance);
+            sources[i] = source;
+            typoDistances[i] = keyProximity != null && source == SOURCE_TYPO
+                    ? editDistance.getWeightedDistance(candidate, keyProximity) : distance;
+            
+            final int id = vocabulary != null
+                    ? vocabulary.find(normalize(candidate)) : WordInterner.NO_ID;
+            useCounts[i] = id != WordInterner.NO_ID ? vocabulary.getUseCount(id) : 0;
+            recencies[i] = id != WordInterner.NO_ID
+                    ? getRecency(vocabulary.getLastUsed(id), now) : 0;
+            
+            followerRanks[i] = -1;
+            for (int j = 0; j < followers.length; j++) {
+                if (candidate.equalsIgnoreCase(followers[j])) {
+                    followerRanks[i] = j;
+                    break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Calculates comprehensive score for the candidate at the index from its features.
+     */
+    private double calculateScore(int index, int length, int currentLength) {
         double score = 0.0;
         
-        if (currentWord != null && !currentWord.isEmpty()) {
-            String lowerSuggestion = suggestion.toLowerCase();
-            String lowerCurrent = currentWord.toLowerCase();
-            
-            // Exact match bonus
-            if (lowerSuggestion.equals(lowerCurrent)) {
+        switch (sources[index]) {
+            case SOURCE_EXACT:
+                // Exact match bonus
                 score += WEIGHT_EXACT_MATCH;
-            }
-            
-            // Prefix match bonus
-            else if (lowerSuggestion.startsWith(lowerCurrent)) {
+                break;
+            case SOURCE_PREFIX:
+                // Prefix match bonus, more for a closer match (shorter completion needed)
                 score += WEIGHT_PREFIX_MATCH;
-                // Bonus for closer match (shorter completion needed)
-                double completionRatio = (double) lowerCurrent.length() / lowerSuggestion.length();
+                double completionRatio = (double) currentLength / length;
                 score += WEIGHT_PREFIX_MATCH * completionRatio * 0.5;
-            }
-            
-            // Typo tolerance (edit distance)
-            else {
-                int editDistance = calculateLevenshteinDistance(lowerSuggestion, lowerCurrent);
-                if (editDistance <= MAX_EDIT_DISTANCE) {
-                    double typoScore = WEIGHT_TYPO_TOLERANCE * (1.0 - (double) editDistance / MAX_EDIT_DISTANCE);
-                    score += typoScore;
-                }
-            }
+                break;
+            case SOURCE_TYPO:
+                // Typo tolerance (edit distance)
+                score += WEIGHT_TYPO_TOLERANCE
+                        * (1.0 - typoDistances[index] / MAX_EDIT_DISTANCE);
+                break;
+            default:
+                break;
         }
         
-        // Frequency-based scoring
-        if (wordFrequency != null && wordFrequency.containsKey(suggestion)) {
-            int frequency = wordFrequency.get(suggestion);
-            // Logarithmic scaling to prevent over-dominance
+        // Frequency-based scoring, logarithmic to prevent over-dominance
+        final int frequency = useCounts[index];
+        if (frequency > 0) {
             score += WEIGHT_FREQUENCY * Math.log(frequency + 1);
         }
         
-        // Context-aware scoring
-        if (previousContext != null && !previousContext.isEmpty()) {
-            // Bonus for suggestions that commonly follow the previous word
-            score += WEIGHT_CONTEXT * calculateContextScore(suggestion, previousContext);
+        // Context-aware scoring: bonus for suggestions that commonly follow the previous
+        // word, higher for earlier ones
+        final int followerRank = followerRanks[index];
+        if (followerRank >= 0) {
+            score += WEIGHT_CONTEXT * (1.0 - followerRank * 0.1);
         }
         
-        // Recent usage boost
-        if (recentUsage != null && recentUsage.containsKey(suggestion)) {
-            long lastUsedTime = recentUsage.get(suggestion);
-            long currentTime = System.currentTimeMillis();
-            long timeDiff = currentTime - lastUsedTime;
-            
-            // Decay over time (30 days = full decay)
-            double recencyFactor = Math.exp(-timeDiff / (30.0 * 24 * 60 * 60 * 1000));
-            score += WEIGHT_RECENT_USAGE * recencyFactor;
-        }
+        // Recent usage boost, decaying over time
+        score += WEIGHT_RECENT_USAGE * recencies[index];
         
         // Length preference (slight bonus for common word lengths 3-7 characters)
-        int length = suggestion.length();
         if (length >= 3 && length <= 7) {
             score += WEIGHT_LENGTH_PREFERENCE;
         }
@@ -180,321 +254,124 @@ public class SuggestionRanker {
     }
     
     /**
-     * Calculates context score based on how well the suggestion fits with previous word.
+     * Returns whether the candidate at the first index ranks before the one at the second:
+     * a higher score, or an equal one and an earlier place in the list.
      */
-    private static double calculateContextScore(String suggestion, String previousContext) {
-        // Simple heuristic: check for common word pairs
-        String[] commonFollowers = getCommonFollowers(previousContext);
-        for (int i = 0; i < commonFollowers.length; i++) {
-            if (suggestion.equalsIgnoreCase(commonFollowers[i])) {
-                // Higher score for earlier matches
-                return 1.0 - (i * 0.1);
-            }
-        }
-        return 0.0;
+    private boolean isBetter(int first, int second) {
+        return scores[first] > scores[second]
+                || (scores[first] == scores[second] && first < second);
     }
     
-    /**
-     * Gets common words that typically follow the given word.
-     */
-    private static String[] getCommonFollowers(String word) {
-        String lowerWord = word.toLowerCase().trim();
-        
-        // Common English patterns
-        if (lowerWord.equals("i")) return new String[]{"am", "have", "will", "can", "don't"};
-        if (lowerWord.equals("you")) return new String[]{"are", "have", "can", "will", "don't"};
-        if (lowerWord.equals("the")) return new String[]{"best", "first", "last", "most", "only"};
-        if (lowerWord.equals("to")) return new String[]{"be", "do", "go", "get", "see"};
-        if (lowerWord.equals("have")) return new String[]{"a", "to", "been", "had", "not"};
-        if (lowerWord.equals("will")) return new String[]{"be", "have", "not", "go", "do"};
-        if (lowerWord.equals("can")) return new String[]{"be", "you", "I", "we", "not"};
-        
-        // Common Arabic patterns
-        if (lowerWord.equals("أنا")) return new String[]{"أريد", "أحب", "لا", "سوف", "كنت"};
-        if (lowerWord.equals("هذا")) return new String[]{"هو", "ما", "كان", "يعني", "جيد"};
-        if (lowerWord.equals("في")) return new String[]{"البيت", "المدرسة", "الصباح", "المساء", "الوقت"};
-        if (lowerWord.equals("من")) return new String[]{"فضلك", "هنا", "هناك", "الآن", "البداية"};
-        
-        return new String[]{};
-    }
-    
-    /**
-     * Determines the source/type of suggestion.
-     */
-    private static String determineSource(String suggestion, String currentWord) {
-        if (currentWord == null || currentWord.isEmpty()) {
-            return "prediction";
-        }
-        
-        String lowerSuggestion = suggestion.toLowerCase();
-        String lowerCurrent = currentWord.toLowerCase();
-        
-        if (lowerSuggestion.equals(lowerCurrent)) {
-            return "exact";
-        } else if (lowerSuggestion.startsWith(lowerCurrent)) {
-            return "prefix";
-        } else {
-            int distance = calculateLevenshteinDistance(lowerSuggestion, lowerCurrent);
-            if (distance <= MAX_EDIT_DISTANCE) {
-                return "typo";
+    private void siftUp(int position) {
+        final int index = heap[position];
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (!isBetter(heap[parent], index)) {
+                break;
             }
+            heap[position] = heap[parent];
+            position = parent;
         }
-        
-        return "context";
+        heap[position] = index;
     }
     
-    /**
-     * Calculates Levenshtein distance (edit distance) between two strings.
-     * Used for typo tolerance.
-     */
-    public static int calculateLevenshteinDistance(String s1, String s2) {
-        if (s1 == null || s2 == null) return Integer.MAX_VALUE;
-        if (s1.isEmpty()) return s2.length();
-        if (s2.isEmpty()) return s1.length();
-        
-        int[][] dp = new int[s1.length() + 1][s2.length() + 1];
-        
-        for (int i = 0; i <= s1.length(); i++) {
-            dp[i][0] = i;
-        }
-        for (int j = 0; j <= s2.length(); j++) {
-            dp[0][j] = j;
-        }
-        
-        for (int i = 1; i <= s1.length(); i++) {
-            for (int j = 1; j <= s2.length(); j++) {
-                int cost = (s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 1;
-                dp[i][j] = Math.min(
-                    Math.min(dp[i - 1][j] + 1, dp[i][j - 1] + 1),
-                    dp[i - 1][j - 1] + cost
-                );
+    private void siftDown(int position) {
+        final int index = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize) {
+                break;
             }
+            if (child + 1 < heapSize && isBetter(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!isBetter(index, heap[child])) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
         }
-        
-        return dp[s1.length()][s2.length()];
+        heap[position] = index;
     }
     
-    /**
-     * Generates typo-tolerant suggestions by finding words within edit distance.
-     * Enhanced with specialized typo detection for common mistakes.
-     */
-    public static List<String> generateTypoSuggestions(
-            String currentWord,
-            List<String> dictionary,
-            int maxDistance) {
-        
-        List<String> typoSuggestions = new ArrayList<>();
-        
-        if (currentWord == null || currentWord.isEmpty() || dictionary == null) {
-            return typoSuggestions;
+    private void ensureCapacity(int count) {
+        if (sources.length >= count) {
+            return;
         }
-        
-        // First, try quick specialized typo corrections
-        typoSuggestions.addAll(generateTranspositionSuggestions(currentWord, dictionary));
-        typoSuggestions.addAll(generateMissingCharSuggestions(currentWord, dictionary));
-        typoSuggestions.addAll(generateExtraCharSuggestions(currentWord, dictionary));
-        typoSuggestions.addAll(generateKeyboardProximitySuggestions(currentWord, dictionary));
-        
-        // Then add general edit distance matches that aren't already included
-        for (String word : dictionary) {
-            if (!typoSuggestions.contains(word)) {
-                int distance = calculateLevenshteinDistance(
-                    currentWord.toLowerCase(),
-                    word.toLowerCase()
-                );
-                
-                if (distance > 0 && distance <= maxDistance) {
-                    typoSuggestions.add(word);
-                }
-            }
-        }
-        
-        return typoSuggestions;
+        final int capacity = Math.max(count, sources.length * 2);
+        sources = Arrays.copyOf(sources, capacity);
+        typoDistances = Arrays.copyOf(typoDistances, capacity);
+        useCounts = Arrays.copyOf(useCounts, capacity);
+        recencies = Arrays.copyOf(recencies, capacity);
+        followerRanks = Arrays.copyOf(followerRanks, capacity);
+        scores = Arrays.copyOf(scores, capacity);
     }
     
     /**
-     * Detects transposition errors (adjacent characters swapped).
-     * Example: "teh" → "the"
+     * Returns the candidate lowercased and trimmed in {@link #normalizedCandidate}.
      */
-    private static List<String> generateTranspositionSuggestions(String word, List<String> dictionary) {
-        List<String> suggestions = new ArrayList<>();
-        if (word == null || word.length() < 2) return suggestions;
-        
-        String lowerWord = word.toLowerCase();
-        
-        // Try swapping each pair of adjacent characters
-        for (int i = 0; i < lowerWord.length() - 1; i++) {
-            String transposed = lowerWord.substring(0, i) +
-                               lowerWord.charAt(i + 1) +
-                               lowerWord.charAt(i) +
-                               lowerWord.substring(i + 2);
-            
-            // Check if transposed version matches dictionary
-            for (String dictWord : dictionary) {
-                if (dictWord.toLowerCase().equals(transposed)) {
-                    suggestions.add(dictWord);
-                }
-            }
+    private CharSequence normalize(String candidate) {
+        int start = 0;
+        int end = candidate.length();
+        while (start < end && candidate.charAt(start) <= ' ') {
+            start++;
         }
-        
-        return suggestions;
+        while (end > start && candidate.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        normalizedCandidate.setLength(0);
+        for (int i = start; i < end; i++) {
+            normalizedCandidate.append(Character.toLowerCase(candidate.charAt(i)));
+        }
+        return normalizedCandidate;
     }
     
     /**
-     * Detects missing character errors.
-     * Example: "wrld" → "world"
+     * Returns the recency weight of a last use at the time, 0 if it never happened.
      */
-    private static List<String> generateMissingCharSuggestions(String word, List<String> dictionary) {
-        List<String> suggestions = new ArrayList<>();
-        if (word == null || word.isEmpty()) return suggestions;
-        
-        String lowerWord = word.toLowerCase();
-        
-        // For each dictionary word, check if removing one char makes it match input
-        for (String dictWord : dictionary) {
-            String lowerDict = dictWord.toLowerCase();
-            if (lowerDict.length() == lowerWord.length() + 1) {
-                // Try removing each character from dictionary word
-                for (int i = 0; i < lowerDict.length(); i++) {
-                    String withoutChar = lowerDict.substring(0, i) + lowerDict.substring(i + 1);
-                    if (withoutChar.equals(lowerWord)) {
-                        suggestions.add(dictWord);
-                        break;
-                    }
-                }
-            }
+    private static float getRecency(long lastUsed, long now) {
+        if (lastUsed <= 0) {
+            return 0;
         }
-        
-        return suggestions;
+        final long hours = Math.max(0, now - lastUsed) / HOUR_MILLIS;
+        return hours < RECENCY_WEIGHTS.length ? RECENCY_WEIGHTS[(int) hours] : 0;
     }
     
     /**
-     * Detects extra character errors.
-     * Example: "helllo" → "hello"
+     * Gets common words that typically follow the given word.
      */
-    private static List<String> generateExtraCharSuggestions(String word, List<String> dictionary) {
-        List<String> suggestions = new ArrayList<>();
-        if (word == null || word.length() < 2) return suggestions;
-        
-        String lowerWord = word.toLowerCase();
-        
-        // Try removing each character from input
-        for (int i = 0; i < lowerWord.length(); i++) {
-            String withoutChar = lowerWord.substring(0, i) + lowerWord.substring(i + 1);
-            
-            for (String dictWord : dictionary) {
-                if (dictWord.toLowerCase().equals(withoutChar)) {
-                    suggestions.add(dictWord);
-                }
-            }
-        }
-        
-        return suggestions;
+    private static String[] getCommonFollowers(String word) {
+        final String[] followers = COMMON_FOLLOWERS.get(word.toLowerCase().trim());
+        return followers != null ? followers : NO_FOLLOWERS;
     }
     
     /**
-     * Detects keyboard proximity errors (hitting adjacent key).
-     * Example: "n" instead of "m" (adjacent on QWERTY keyboard)
+     * Determines the source/type of suggestion from its edit distance to the current word,
+     * or MAX_EDIT_DISTANCE + 1 if it is further.
      */
-    private static List<String> generateKeyboardProximitySuggestions(String word, List<String> dictionary) {
-        List<String> suggestions = new ArrayList<>();
-        if (word == null || word.isEmpty()) return suggestions;
-        
-        String lowerWord = word.toLowerCase();
-        
-        // QWERTY keyboard layout proximity map
-        Map<Character, String> proximityMap = getKeyboardProximityMap();
+    private static int determineSource(String suggestion, String currentWord, int editDistance) {
+        if (currentWord == null || currentWord.isEmpty()) {
+            return SOURCE_PREDICTION;
+        }
         
-        // Try replacing each character with nearby keys
-        for (int i = 0; i < lowerWord.length(); i++) {
-            char c = lowerWord.charAt(i);
-            String nearby = proximityMap.get(c);
-            
-            if (nearby != null) {
-                for (int j = 0; j < nearby.length(); j++) {
-                    String variant = lowerWord.substring(0, i) +
-                                   nearby.charAt(j) +
-                                   lowerWord.substring(i + 1);
-                    
-                    for (String dictWord : dictionary) {
-                        if (dictWord.toLowerCase().equals(variant)) {
-                            suggestions.add(dictWord);
-                        }
-                    }
-                }
-            }
+        if (editDistance == 0) {
+            return SOURCE_EXACT;
+        } else if (suggestion.regionMatches(true, 0, currentWord, 0, currentWord.length())) {
+            return SOURCE_PREFIX;
+        } else if (editDistance <= MAX_EDIT_DISTANCE) {
+            return SOURCE_TYPO;
         }
         
-        return suggestions;
+        return SOURCE_CONTEXT;
     }
     
     /**
-     * Returns keyboard proximity map for QWERTY layout.
-     * Each key maps to its adjacent keys.
+     * Calculates the edit distance between two strings, ignoring case. Insertions, deletions,
+     * substitutions and swaps of adjacent characters each count as one edit.
+     * Used for typo tolerance.
      */
-    private static Map<Character, String> getKeyboardProximityMap() {
-        Map<Character, String> map = new HashMap<>();
-        
-        // QWERTY keyboard layout (English)
-        map.put('q', "wa");
-        map.put('w', "qeas");
-        map.put('e', "wrsd");
-        map.put('r', "etdf");
-        map.put('t', "ryfg");
-        map.put('y', "tugh");
-        map.put('u', "yihj");
-        map.put('i', "uojk");
-        map.put('o', "ipkl");
-        map.put('p', "ol");
-        
-        map.put('a', "qwsz");
-        map.put('s', "awedxz");
-        map.put('d', "serfcx");
-        map.put('f', "drtgvc");
-        map.put('g', "ftyhbv");
-        map.put('h', "gyujnb");
-        map.put('j', "huikmn");
-        map.put('k', "jiolm");
-        map.put('l', "kop");
-        
-        map.put('z', "asx");
-        map.put('x', "zsdc");
-        map.put('c', "xdfv");
-        map.put('v', "cfgb");
-        map.put('b', "vghn");
-        map.put('n', "bhjm");
-        map.put('m', "njk");
-        
-        // Arabic keyboard layout (common positions)
-        map.put('ا', "سش");
-        map.put('ب', "لان");
-        map.put('ت', "نفب");
-        map.put('ث', "قفت");
-        map.put('ج', "حخ");
-        map.put('ح', "جخع");
-        map.put('خ', "حجع");
-        map.put('د', "ذجس");
-        map.put('ذ', "دشس");
-        map.put('ر', "زو");
-        map.put('ز', "رة");
-        map.put('س', "شاد");
-        map.put('ش', "سذا");
-        map.put('ص', "ضق");
-        map.put('ض', "صف");
-        map.put('ط', "ظك");
-        map.put('ظ', "طم");
-        map.put('ع', "حخغ");
-        map.put('غ', "عف");
-        map.put('ف', "قثت");
-        map.put('ق', "فصث");
-        map.put('ك', "مطل");
-        map.put('ل', "كاي");
-        map.put('م', "نظك");
-        map.put('ن', "تبم");
-        map.put('ه', "ةو");
-        map.put('و', "هرز");
-        map.put('ي', "لءئ");
-        
-        return map;
+    public static int calculateEditDistance(String s1, String s2) {
+        if (s1 == null || s2 == null) return Integer.MAX_VALUE;
+        return new EditDistance(s1).getDistance(s2, EditDistance.UNBOUNDED);
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes suggestions on a background thread so that keystrokes never wait for them.
+ *
+ * Every request is tagged with a generation that increases with each keystroke. Work for an
+ * older generation is skipped, and its results are dropped if they arrive late, so the strip
+ * only ever shows suggestions for the latest input. Full suggestions wait for a short pause in
+ * typing; the cached trie completions of the word being typed are sent right away instead.
+ *
+ * Requests, {@link #cancel()} and {@link #setDebounceDelay(int)} are expected on the UI
+ * thread. The listener is called on the worker thread.
+ */
+public final class SuggestionWorker {
+    private static final String TAG = SuggestionWorker.class.getSimpleName();
+
+    private final LocalLearningEngine engine;
+    private final Listener listener;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger generation = new AtomicInteger();
+    private int debounceMillis;
+    private ScheduledFuture<?> pendingRequest;
+
+    public SuggestionWorker(LocalLearningEngine engine, Listener listener) {
+        this.engine = engine;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets how long to wait after a keystroke before computing full suggestions. Zero
+     * computes them on every keystroke.
+     */
+    public void setDebounceDelay(int millis) {
+        debounceMillis = Math.max(0, millis);
+    }
+
+    /**
+     * Requests suggestions for the word being typed after the given context.
+     *
+     * @return the generation the results will be tagged with.
+     */
+    public int requestSuggestions(final String currentWord, final String previousContext) {
+        final int requestGeneration = nextGeneration();
+        if (!TextUtils.isEmpty(currentWord) && debounceMillis > 0) {
+            execute(() -> {
+                if (isCurrent(requestGeneration)) {
+                    final List<String> completions = engine.getQuickCompletions(currentWord);
+                    if (!completions.isEmpty()) {
+                        deliver(requestGeneration, completions);
+                    }
+                }
+            });
+        }
+        schedule(() -> {
+            if (isCurrent(requestGeneration)) {
+                deliver(requestGeneration, engine.getSuggestions(currentWord, previousContext));
+            }
+        });
+        return requestGeneration;
+    }
+
+    /**
+     * Requests corrections and completions for a word the cursor was moved onto.
+     *
+     * @return the generation the results will be tagged with.
+     */
+    public int requestCorrections(final String word) {
+        final int requestGeneration = nextGeneration();
+        schedule(() -> {
+            if (isCurrent(requestGeneration)) {
+                deliver(requestGeneration, engine.getCorrectionsAndCompletions(word));
+            }
+        });
+        return requestGeneration;
+    }
+
+    /**
+     * Drops every request made so far. Call this before showing suggestions that did not come
+     * from the worker, so late results cannot replace them.
+     */
+    public void cancel() {
+        nextGeneration();
+    }
+
+    /**
+     * Returns whether results of the given generation are still wanted.
+     */
+    public boolean isCurrent(int requestGeneration) {
+        return generation.get() == requestGeneration;
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private int nextGeneration() {
+        if (pendingRequest != null) {
+            pendingRequest.cancel(false);
+            pendingRequest = null;
+        }
+        return generation.incrementAndGet();
+    }
+
+    private void deliver(int requestGeneration, List<String> suggestions) {
+        // Checked again because a newer keystroke may have come in while this one was computed.
+        if (isCurrent(requestGeneration)) {
+            listener.onSuggestionsReady(requestGeneration, suggestions);
+        }
+    }
+
+    private void schedule(Runnable task) {
+        if (debounceMillis == 0) {
+            execute(task);
+            return;
+        }
+        try {
+            pendingRequest = executor.schedule(task, debounceMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Suggestion worker is shut down, dropping request");
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Suggestion worker is shut down, dropping request");
+        }
+    }
+
+    /**
+     * Receives the suggestions computed for a request.
+     */
+    public interface Listener {
+        void onSuggestionsReady(int generation, List<String> suggestions);
+    }
+}
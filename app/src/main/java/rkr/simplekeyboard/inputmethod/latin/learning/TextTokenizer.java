@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+
+import rkr.simplekeyboard.inputmethod.latin.utils.EmojiUtils;
+
+/**
+ * Splits typed text into words, punctuation marks, emoji clusters, domain names and URLs in a
+ * single pass over its code points.
+ *
+ * Tokens are kept as spans of the text in reused arrays; a String is only created when a
+ * token is asked for with {@link #getToken(int)}. Words are runs of anything but whitespace,
+ * emojis and sentence punctuation (". ! ? ; : ,"), so "don't" and "(hi" stay whole. A run of
+ * letters, digits and "._-" ending in a common top level domain, like "example.com", is one
+ * domain token, and a chunk starting with "http://", "https://" or "www." is one URL token,
+ * trailing punctuation aside.
+ *
+ * Not thread safe.
+ */
+final class TextTokenizer {
+    static final int TYPE_WORD = 0;
+    static final int TYPE_PUNCTUATION = 1;
+    static final int TYPE_EMOJI = 2;
+    static final int TYPE_DOMAIN = 3;
+    static final int TYPE_URL = 4;
+
+    private static final String[] TOP_LEVEL_DOMAINS =
+            {"com", "org", "net", "edu", "gov", "io", "co", "me", "tv", "info", "biz"};
+    private static final String[] URL_PREFIXES = {"http://", "https://", "www."};
+
+    private CharSequence text;
+    private int count;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] types = new int[16];
+
+    /**
+     * Splits the text, replacing the previous tokens. Returns the number of tokens.
+     */
+    int tokenize(CharSequence text) {
+        this.text = text;
+        count = 0;
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            final int codePoint = Character.codePointAt(text, i);
+            if (Character.isWhitespace(codePoint)) {
+                i += Character.charCount(codePoint);
+            } else if (EmojiUtils.isEmojiCodePoint(codePoint)) {
+                final int start = i;
+                do {
+                    i += Character.charCount(Character.codePointAt(text, i));
+                } while (i < length && EmojiUtils.isEmojiCodePoint(Character.codePointAt(text, i)));
+                add(start, i, TYPE_EMOJI);
+            } else {
+                i = tokenizeChunk(i, findChunkEnd(i));
+            }
+        }
+        return count;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getType(int index) {
+        return types[index];
+    }
+
+    int getStart(int index) {
+        return starts[index];
+    }
+
+    int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Returns the text last tokenized.
+     */
+    CharSequence getText() {
+        return text;
+    }
+
+    String getToken(int index) {
+        return text.subSequence(starts[index], ends[index]).toString();
+    }
+
+    /**
+     * Returns whether the span has a Latin or Arabic letter, which is what makes a word worth
+     * learning.
+     */
+    static boolean containsLetter(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '\u0600' && c <= '\u06FF')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isPunctuation(char c) {
+        return c == '.' || c == '!' || c == '?' || c == ';' || c == ':' || c == ',';
+    }
+
+    /**
+     * Returns the end of the run of characters that are neither whitespace nor emojis.
+     */
+    private int findChunkEnd(int start) {
+        final int length = text.length();
+        int i = start;
+        while (i < length) {
+            final int codePoint = Character.codePointAt(text, i);
+            if (Character.isWhitespace(codePoint) || EmojiUtils.isEmojiCodePoint(codePoint)) {
+                break;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return i;
+    }
+
+    /**
+     * Splits a chunk with no whitespace or emojis into tokens. Returns its end.
+     */
+    private int tokenizeChunk(int start, int end) {
+        if (startsWithUrlPrefix(start, end)) {
+            int urlEnd = end;
+            while (urlEnd > start && isPunctuation(text.charAt(urlEnd - 1))) {
+                urlEnd--;
+            }
+            add(start, urlEnd, TYPE_URL);
+            for (int i = urlEnd; i < end; i++) {
+                add(i, i + 1, TYPE_PUNCTUATION);
+            }
+            return end;
+        }
+
+        int wordStart = start;
+        int i = start;
+        while (i < end) {
+            final char c = text.charAt(i);
+            if (isLetterOrDigit(c) && (i == start || !isDomainChar(text.charAt(i - 1)))) {
+                final int domainEnd = findDomainEnd(i, end);
+                if (domainEnd > i) {
+                    addWord(wordStart, i);
+                    add(i, domainEnd, TYPE_DOMAIN);
+                    i = wordStart = domainEnd;
+                    continue;
+                }
+            }
+            if (isPunctuation(c)) {
+                addWord(wordStart, i);
+                add(i, i + 1, TYPE_PUNCTUATION);
+                wordStart = i + 1;
+            }
+            i++;
+        }
+        addWord(wordStart, end);
+        return end;
+    }
+
+    /**
+     * Returns the end of the longest domain name starting at the position, or the position
+     * itself if there is none.
+     */
+    private int findDomainEnd(int start, int end) {
+        int runEnd = start;
+        while (runEnd < end && isDomainChar(text.charAt(runEnd))) {
+            runEnd++;
+        }
+        // Longest first: the domain has to end where a word does
+        for (int dot = runEnd - 2; dot > start; dot--) {
+            if (text.charAt(dot) != '.') {
+                continue;
+            }
+            for (final String domain : TOP_LEVEL_DOMAINS) {
+                final int domainEnd = dot + 1 + domain.length();
+                if (domainEnd <= runEnd && regionMatchesIgnoreCase(dot + 1, domain)
+                        && (domainEnd == end || !isWordChar(text.charAt(domainEnd)))) {
+                    return domainEnd;
+                }
+            }
+        }
+        return start;
+    }
+
+    private boolean startsWithUrlPrefix(int start, int end) {
+        for (final String prefix : URL_PREFIXES) {
+            if (end - start > prefix.length() && regionMatchesIgnoreCase(start, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean regionMatchesIgnoreCase(int start, String lowerCase) {
+        final int length = lowerCase.length();
+        if (start + length > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(text.charAt(start + i)) != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isWordChar(char c) {
+        return isLetterOrDigit(c) || c == '_';
+    }
+
+    private static boolean isDomainChar(char c) {
+        return isLetterOrDigit(c) || c == '.' || c == '_' || c == '-';
+    }
+
+    private void addWord(int start, int end) {
+        if (start < end) {
+            add(start, end, TYPE_WORD);
+        }
+    }
+
+    private void add(int start, int end, int type) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            types = Arrays.copyOf(types, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        types[count] = type;
+        count++;
+    }
+}
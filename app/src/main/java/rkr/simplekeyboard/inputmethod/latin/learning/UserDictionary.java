@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The user's words, lowercased and kept sorted in one array, so that a membership test or a
+ * prefix lookup is a binary search instead of a scan of the whole set.
+ *
+ * {@link LocalStorage} reads the saved words into it once, and changes are counted until the
+ * engine hands the words back to be saved in the background. The words of every language are
+ * kept together; {@link #isInScriptOf(String, String)} tells which ones a language's models
+ * should take. Not thread safe.
+ */
+final class UserDictionary {
+    private String[] words;
+    private int count;
+    // Words added or removed since the last save.
+    private int unsavedChanges;
+
+    UserDictionary() {
+        words = new String[16];
+    }
+
+    private UserDictionary(UserDictionary other) {
+        words = Arrays.copyOf(other.words, Math.max(other.count, 1));
+        count = other.count;
+        unsavedChanges = other.unsavedChanges;
+    }
+
+    /**
+     * Returns a copy that shares nothing with this dictionary.
+     */
+    UserDictionary copy() {
+        return new UserDictionary(this);
+    }
+
+    /**
+     * Replaces the words with saved ones, which are then not unsaved changes.
+     */
+    void load(Collection<String> saved) {
+        words = new String[Math.max(saved.size(), 16)];
+        count = 0;
+        for (String word : saved) {
+            final String key = normalize(word);
+            if (!key.isEmpty()) {
+                words[count++] = key;
+            }
+        }
+        Arrays.sort(words, 0, count);
+        // Words only differing in case or spaces were saved by older versions.
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || !words[i].equals(words[unique - 1])) {
+                words[unique++] = words[i];
+            }
+        }
+        Arrays.fill(words, unique, count, null);
+        count = unique;
+        unsavedChanges = 0;
+    }
+
+    /**
+     * Adds the word, lowercased and trimmed.
+     *
+     * @return whether it was not there yet.
+     */
+    boolean add(String word) {
+        final String key = normalize(word);
+        if (key.isEmpty()) {
+            return false;
+        }
+        final int index = Arrays.binarySearch(words, 0, count, key);
+        if (index >= 0) {
+            return false;
+        }
+        final int insertion = -index - 1;
+        if (count == words.length) {
+            words = Arrays.copyOf(words, count * 2);
+        }
+        System.arraycopy(words, insertion, words, insertion + 1, count - insertion);
+        words[insertion] = key;
+        count++;
+        unsavedChanges++;
+        return true;
+    }
+
+    /**
+     * Removes the word, ignoring case and surrounding spaces.
+     *
+     * @return whether it was there.
+     */
+    boolean remove(String word) {
+        final int index = Arrays.binarySearch(words, 0, count, normalize(word));
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(words, index + 1, words, index, count - index - 1);
+        words[--count] = null;
+        unsavedChanges++;
+        return true;
+    }
+
+    /**
+     * Returns whether the word is there, ignoring case and surrounding spaces.
+     */
+    boolean contains(String word) {
+        return Arrays.binarySearch(words, 0, count, normalize(word)) >= 0;
+    }
+
+    /**
+     * Adds to the list up to {@code limit} words starting with the prefix, ignoring case, in
+     * alphabetical order.
+     *
+     * @param includePrefix whether the prefix itself is listed when it is a word.
+     */
+    void getWordsStartingWith(String prefix, boolean includePrefix, int limit,
+            List<String> out) {
+        final String key = normalize(prefix);
+        int index = Arrays.binarySearch(words, 0, count, key);
+        if (index >= 0) {
+            if (!includePrefix) {
+                index++;
+            }
+        } else {
+            index = -index - 1;
+        }
+        for (int added = 0; index < count && added < limit && words[index].startsWith(key);
+                index++, added++) {
+            out.add(words[index]);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the word at the index, from 0 to {@link #size()}, in alphabetical order.
+     */
+    String get(int index) {
+        return words[index];
+    }
+
+    void clear() {
+        Arrays.fill(words, 0, count, null);
+        count = 0;
+        unsavedChanges++;
+    }
+
+    /**
+     * Returns the number of words added or removed since the last {@link #markSaved()}.
+     */
+    int getUnsavedChanges() {
+        return unsavedChanges;
+    }
+
+    /**
+     * Records that the words returned by {@link #toSet()} are being saved.
+     */
+    void markSaved() {
+        unsavedChanges = 0;
+    }
+
+    /**
+     * Returns the words in a new set, as they are saved.
+     */
+    Set<String> toSet() {
+        final Set<String> set = new HashSet<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            set.add(words[i]);
+        }
+        return set;
+    }
+
+    /**
+     * Returns whether the word is written in the script of the language, judged by the
+     * Unicode block of its first letter and of the first letter of the language's name for
+     * itself, with the Latin blocks taken as one. Words without letters fit every language.
+     */
+    static boolean isInScriptOf(String word, String language) {
+        final Character.UnicodeBlock script = getScript(word);
+        if (script == null) {
+            return true;
+        }
+        final Locale locale = new Locale(language);
+        final Character.UnicodeBlock languageScript =
+                getScript(locale.getDisplayLanguage(locale));
+        return languageScript == null || languageScript == script;
+    }
+
+    /**
+     * Returns the Unicode block of the first letter of the text, any Latin block being
+     * reported as {@link Character.UnicodeBlock#BASIC_LATIN}, or null if it has no letter.
+     */
+    private static Character.UnicodeBlock getScript(String text) {
+        for (int i = 0; i < text.length(); i += Character.charCount(text.codePointAt(i))) {
+            final int codePoint = text.codePointAt(i);
+            if (!Character.isLetter(codePoint)) {
+                continue;
+            }
+            final Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
+            if (block == Character.UnicodeBlock.LATIN_1_SUPPLEMENT
+                    || block == Character.UnicodeBlock.LATIN_EXTENDED_A
+                    || block == Character.UnicodeBlock.LATIN_EXTENDED_B
+                    || block == Character.UnicodeBlock.LATIN_EXTENDED_ADDITIONAL) {
+                return Character.UnicodeBlock.BASIC_LATIN;
+            }
+            return block;
+        }
+        return null;
+    }
+
+    private static String normalize(String word) {
+        return word.toLowerCase().trim();
+    }
+}
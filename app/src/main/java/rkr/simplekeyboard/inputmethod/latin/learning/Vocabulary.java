@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+
+/**
+ * The words of one language with a dense int id each, and what is known about them in
+ * primitive columns indexed by id: how often the user picked them, and when last.
+ *
+ * The columns follow the counts of the language's {@link WordTrie}, which are what is saved:
+ * they are filled from the trie once it is loaded from its snapshot and journal, and every
+ * use counted in the trie afterwards is counted here too. Words are kept lowercased, as the
+ * trie keeps them.
+ *
+ * The ids come from a {@link WordInterner} that the spelling {@link DeleteIndex} lists its
+ * words by as well, so every word string is held once per language. Words interned by the
+ * index alone have empty columns. Not thread safe.
+ */
+final class Vocabulary {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final WordInterner words;
+    private int[] useCounts;
+    private long[] lastUsed;
+
+    Vocabulary() {
+        words = new WordInterner();
+        useCounts = new int[INITIAL_CAPACITY];
+        lastUsed = new long[INITIAL_CAPACITY];
+    }
+
+    private Vocabulary(Vocabulary other) {
+        words = other.words.copy();
+        useCounts = other.useCounts.clone();
+        lastUsed = other.lastUsed.clone();
+    }
+
+    /**
+     * Returns a copy that shares nothing with this vocabulary.
+     */
+    Vocabulary copy() {
+        return new Vocabulary(this);
+    }
+
+    /**
+     * Returns the table the ids come from, to share with the spelling index.
+     */
+    WordInterner getWords() {
+        return words;
+    }
+
+    /**
+     * Returns the id of the word, or {@link WordInterner#NO_ID} if it is unknown.
+     */
+    int find(CharSequence word) {
+        return words.find(word);
+    }
+
+    /**
+     * Counts a use of the word at the time, in milliseconds.
+     */
+    void recordUse(String word, long time) {
+        final int id = intern(word);
+        useCounts[id]++;
+        lastUsed[id] = time;
+    }
+
+    /**
+     * Sets the use count and last use of the word, as read from the trie.
+     */
+    void putWord(String word, int useCount, long time) {
+        final int id = intern(word);
+        useCounts[id] = useCount;
+        lastUsed[id] = time;
+    }
+
+    /**
+     * Returns the number of times the word with the id was used, 0 if never.
+     */
+    int getUseCount(int id) {
+        return id < useCounts.length ? useCounts[id] : 0;
+    }
+
+    /**
+     * Returns when the word with the id was last used, 0 if never.
+     */
+    long getLastUsed(int id) {
+        return id < lastUsed.length ? lastUsed[id] : 0;
+    }
+
+    /**
+     * Returns the number of words with an id, including those only the spelling index knows.
+     */
+    int size() {
+        return words.size();
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the words and their columns.
+     */
+    long getApproximateHeapBytes() {
+        return words.getApproximateHeapBytes()
+                + 4L * useCounts.length + 8L * lastUsed.length;
+    }
+
+    private int intern(String word) {
+        final int id = words.intern(word);
+        if (id >= useCounts.length) {
+            final int capacity = Math.max(id + 1, useCounts.length * 2);
+            useCounts = Arrays.copyOf(useCounts, capacity);
+            lastUsed = Arrays.copyOf(lastUsed, capacity);
+        }
+        return id;
+    }
+}
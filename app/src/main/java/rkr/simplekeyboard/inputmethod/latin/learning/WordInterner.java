@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids to words, in the order they are first seen.
+ *
+ * Lookups take any {@link CharSequence} and hash it the way {@link String#hashCode()} does,
+ * so a word held in a reused buffer can be found without creating a String for it.
+ */
+final class WordInterner {
+    static final int NO_ID = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] words = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size;
+    // Open addressing with linear probing, each slot holds id + 1 so that zero is empty.
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * Returns the id of the word, assigning the next one if it is new.
+     */
+    int intern(String word) {
+        final int hash = word.hashCode();
+        final int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            final int id = slots[slot] - 1;
+            if (hashes[id] == hash && words[id].equals(word)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == words.length) {
+            words = Arrays.copyOf(words, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        final int id = size++;
+        words[id] = word;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the word, or {@link #NO_ID} if it was never interned.
+     */
+    int find(CharSequence word) {
+        final int length = word.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word.charAt(i);
+        }
+        final int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            final int id = slots[slot] - 1;
+            if (hashes[id] == hash && contentEquals(words[id], word)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_ID;
+    }
+
+    String get(int id) {
+        return words[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(words, 0, size, null);
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    /**
+     * Returns a copy that shares nothing mutable with this table.
+     */
+    WordInterner copy() {
+        final WordInterner copy = new WordInterner();
+        copy.words = words.clone();
+        copy.hashes = hashes.clone();
+        copy.size = size;
+        copy.slots = slots.clone();
+        return copy;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the table and the words it interned.
+     */
+    long getApproximateHeapBytes() {
+        long bytes = 4L * (words.length + hashes.length + slots.length);
+        for (int i = 0; i < size; i++) {
+            bytes += 40 + 2L * words[i].length();
+        }
+        return bytes;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        final int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static boolean contentEquals(String word, CharSequence other) {
+        final int length = word.length();
+        if (other.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // String hashes of short words cluster in the low bits, spread them before masking.
+    private static int mix(int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -37,6 +37,14 @@ public class WordTrie {
      * Inserts a word into the trie with frequency tracking.
      */
     public void insert(String word) {
+        insert(word, System.currentTimeMillis());
+    }
+
+    /**
+     * Inserts a word into the trie with frequency tracking, as if it was used at the given
+     * time. Used when replaying journaled input.
+     */
+    public void insert(String word, long lastUsed) {
         if (word == null || word.trim().isEmpty()) {
             return;
         }
@@ -53,6 +61,7 @@ public class WordTrie {
 
         current.setEndOfWord(true);
         current.incrementFrequency();
+        current.setLastUsed(lastUsed);
     }
 
     /**
@@ -74,9 +83,16 @@ public class WordTrie {
             current = current.getChild(c);
         }
 
+        return getSuggestions(current, prefix);
+    }
+
+    /**
+     * Returns the best words below the given node, which is reached by the given prefix.
+     */
+    private List<String> getSuggestions(TrieNode node, String prefix) {
         // Collect all words with this prefix
         List<WordSuggestion> suggestions = new ArrayList<>();
-        collectSuggestions(current, prefix, suggestions);
+        collectSuggestions(node, prefix, suggestions);
 
         // Sort by frequency and recency
         Collections.sort(suggestions, new Comparator<WordSuggestion>() {
@@ -106,12 +122,80 @@ public class WordTrie {
      * Recursively collects all words from the given node.
      */
     private void collectSuggestions(TrieNode node, String prefix, List<WordSuggestion> suggestions) {
+        collectSuggestions(node, prefix, 0, suggestions);
+    }
+
+    private void collectSuggestions(TrieNode node, String prefix, int distance,
+            List<WordSuggestion> suggestions) {
         if (node.isEndOfWord()) {
-            suggestions.add(new WordSuggestion(prefix, node.getFrequency(), node.getLastUsed()));
+            suggestions.add(new WordSuggestion(prefix, node.getFrequency(), node.getLastUsed(),
+                    distance));
         }
 
         for (char c : node.getChildren().keySet()) {
-            collectSuggestions(node.getChild(c), prefix + c, suggestions);
+            collectSuggestions(node.getChild(c), prefix + c, distance, suggestions);
+        }
+    }
+
+    /**
+     * Returns the best words starting with something within maxErrors edits of the prefix
+     * (insertions, deletions, substitutions or adjacent transpositions), closest first and
+     * then by frequency and recency. Exact completions have no errors, so they come first.
+     */
+    public List<String> getFuzzySuggestions(String prefix, int maxErrors, int limit) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        prefix = prefix.toLowerCase().trim();
+        List<WordSuggestion> suggestions = new ArrayList<>();
+        collectFuzzySuggestions(root, new StringBuilder(),
+                new FuzzyPrefixMatcher(prefix, maxErrors), suggestions);
+
+        Collections.sort(suggestions, new Comparator<WordSuggestion>() {
+            @Override
+            public int compare(WordSuggestion a, WordSuggestion b) {
+                if (a.distance != b.distance) {
+                    return Integer.compare(a.distance, b.distance);
+                }
+                int freqCompare = Integer.compare(b.frequency, a.frequency);
+                if (freqCompare != 0) {
+                    return freqCompare;
+                }
+                return Long.compare(b.lastUsed, a.lastUsed);
+            }
+        });
+
+        // A word below several matching prefixes is kept at its smallest distance
+        List<String> result = new ArrayList<>();
+        for (WordSuggestion suggestion : suggestions) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (!result.contains(suggestion.word)) {
+                result.add(suggestion.word);
+            }
+        }
+        return result;
+    }
+
+    private void collectFuzzySuggestions(TrieNode node, StringBuilder path,
+            FuzzyPrefixMatcher matcher, List<WordSuggestion> suggestions) {
+        if (matcher.isMatch()) {
+            collectSuggestions(node, path.toString(), matcher.getDistance(), suggestions);
+            if (!matcher.canImprove()) {
+                return;
+            }
+        }
+
+        for (java.util.Map.Entry<Character, TrieNode> entry : node.getChildren().entrySet()) {
+            final char c = entry.getKey();
+            if (matcher.push(c)) {
+                path.append(c);
+                collectFuzzySuggestions(entry.getValue(), path, matcher, suggestions);
+                path.setLength(path.length() - 1);
+                matcher.pop();
+            }
         }
     }
 
@@ -157,6 +241,123 @@ public class WordTrie {
         return current.isEndOfWord() ? current.getFrequency() : 0;
     }
 
+    /**
+     * Inserts a word with the given statistics, replacing any it already had.
+     * Used when restoring persisted data.
+     */
+    public void putWord(String word, int frequency, long lastUsed) {
+        if (word == null || word.trim().isEmpty()) {
+            return;
+        }
+
+        word = word.toLowerCase().trim();
+        TrieNode current = root;
+
+        for (char c : word.toCharArray()) {
+            if (!current.hasChild(c)) {
+                current.putChild(c, new TrieNode());
+            }
+            current = current.getChild(c);
+        }
+
+        current.setEndOfWord(true);
+        current.setFrequency(frequency);
+        current.setLastUsed(lastUsed);
+    }
+
+    /**
+     * Calls the visitor for every word in the trie.
+     */
+    public void forEachWord(WordVisitor visitor) {
+        visitWords(root, new StringBuilder(), visitor);
+    }
+
+    private void visitWords(TrieNode node, StringBuilder prefix, WordVisitor visitor) {
+        if (node.isEndOfWord()) {
+            visitor.visit(prefix.toString(), node.getFrequency(), node.getLastUsed());
+        }
+
+        for (java.util.Map.Entry<Character, TrieNode> entry : node.getChildren().entrySet()) {
+            prefix.append(entry.getKey().charValue());
+            visitWords(entry.getValue(), prefix, visitor);
+            prefix.setLength(prefix.length() - 1);
+        }
+    }
+
+    /**
+     * Returns a copy that shares nothing with this trie, so that it can be read on another
+     * thread while this one keeps changing.
+     */
+    public WordTrie copy() {
+        final WordTrie copy = new WordTrie();
+        forEachWord(new WordVisitor() {
+            @Override
+            public void visit(String word, int frequency, long lastUsed) {
+                copy.putWord(word, frequency, lastUsed);
+            }
+        });
+        return copy;
+    }
+
+    /**
+     * Creates a cursor that follows a prefix through this trie one character at a time.
+     * The cursor does not notice words inserted while it is away from the root, so reset it
+     * at word boundaries.
+     */
+    public PrefixCursor newPrefixCursor() {
+        return new NodeCursor();
+    }
+
+    /**
+     * Releases spare capacity after bulk loading. Nothing to do for the node-based trie.
+     */
+    public void trimToSize() {
+    }
+
+    /**
+     * Cursor keeping the stack of visited nodes.
+     */
+    private class NodeCursor extends PrefixCursor {
+        private final List<TrieNode> stack = new ArrayList<>();
+
+        NodeCursor() {
+            stack.add(root);
+        }
+
+        @Override
+        protected boolean pushChild(char c) {
+            TrieNode child = stack.get(stack.size() - 1).getChild(c);
+            if (child == null) {
+                return false;
+            }
+            stack.add(child);
+            return true;
+        }
+
+        @Override
+        protected void popNode() {
+            stack.remove(stack.size() - 1);
+        }
+
+        @Override
+        protected void popAll() {
+            stack.clear();
+            stack.add(root);
+        }
+
+        @Override
+        protected List<String> collectSuggestions() {
+            return WordTrie.this.getSuggestions(stack.get(stack.size() - 1), getMatchedPrefix());
+        }
+    }
+
+    /**
+     * Receives the words of a trie with their statistics.
+     */
+    public interface WordVisitor {
+        void visit(String word, int frequency, long lastUsed);
+    }
+
     /**
      * Internal class for word suggestions with metadata.
      */
@@ -164,11 +365,14 @@ public class WordTrie {
         final String word;
         final int frequency;
         final long lastUsed;
+        // Edits between the typed prefix and this word's prefix, for fuzzy suggestions.
+        final int distance;
 
-        WordSuggestion(String word, int frequency, long lastUsed) {
+        WordSuggestion(String word, int frequency, long lastUsed, int distance) {
             this.word = word;
             this.frequency = frequency;
             this.lastUsed = lastUsed;
+            this.distance = distance;
         }
     }
 }
\ No newline at end of file
@@ -35,6 +35,7 @@ import rkr.simplekeyboard.inputmethod.latin.AudioAndHapticFeedbackManager;
  * - Keypress sound volume
  * - Popup on keypress
  * - Key long press delay
+ * - Suggestion delay
  */
 public final class KeyPressSettingsFragment extends SubScreenFragment {
     @Override
@@ -55,6 +56,7 @@ public final class KeyPressSettingsFragment extends SubScreenFragment {
 
         setupKeypressSoundVolumeSettings();
         setupKeyLongpressTimeoutSettings();
+        setupSuggestionDebounceSettings();
     }
 
     private void setupKeypressSoundVolumeSettings() {
@@ -150,4 +152,43 @@ public final class KeyPressSettingsFragment extends SubScreenFragment {
             public void feedbackValue(final int value) {}
         });
     }
+
+    private void setupSuggestionDebounceSettings() {
+        final SharedPreferences prefs = getSharedPreferences();
+        final Resources res = getResources();
+        final SeekBarDialogPreference pref = (SeekBarDialogPreference)findPreference(
+                Settings.PREF_SUGGESTION_DEBOUNCE);
+        if (pref == null) {
+            return;
+        }
+        pref.setInterface(new SeekBarDialogPreference.ValueProxy() {
+            @Override
+            public void writeValue(final int value, final String key) {
+                prefs.edit().putInt(key, value).apply();
+            }
+
+            @Override
+            public void writeDefaultValue(final String key) {
+                prefs.edit().remove(key).apply();
+            }
+
+            @Override
+            public int readValue(final String key) {
+                return Settings.readSuggestionDebounce(prefs, res);
+            }
+
+            @Override
+            public int readDefaultValue(final String key) {
+                return Settings.readDefaultSuggestionDebounce(res);
+            }
+
+            @Override
+            public String getValueText(final int value) {
+                return res.getString(R.string.abbreviation_unit_milliseconds, value);
+            }
+
+            @Override
+            public void feedbackValue(final int value) {}
+        });
+    }
 }
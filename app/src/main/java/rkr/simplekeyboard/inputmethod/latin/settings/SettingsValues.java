@@ -42,6 +42,7 @@ public class SettingsValues {
     public final boolean mShowsLanguageSwitchKey;
     public final boolean mImeSwitchEnabled;
     public final int mKeyLongpressTimeout;
+    public final int mSuggestionDebounce;
     public final boolean mHideSpecialChars;
     public final boolean mShowNumberRow;
     public final boolean mSpaceSwipeEnabled;
@@ -80,6 +81,7 @@ public class SettingsValues {
 
         // Compute other readable settings
         mKeyLongpressTimeout = Settings.readKeyLongpressTimeout(prefs, res);
+        mSuggestionDebounce = Settings.readSuggestionDebounce(prefs, res);
         mKeypressSoundVolume = Settings.readKeypressSoundVolume(prefs);
         mKeyPreviewPopupDismissDelay = res.getInteger(R.integer.config_key_preview_linger_timeout);
         mKeyboardHeightScale = Settings.readKeyboardHeight(prefs, DEFAULT_SIZE_SCALE);
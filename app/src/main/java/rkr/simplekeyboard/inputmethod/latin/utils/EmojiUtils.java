@@ -44,10 +44,30 @@ public class EmojiUtils {
         return true;
     }
     
+    /**
+     * Checks if the characters between start and end are all emoji characters, without
+     * creating a String for them.
+     */
+    public static boolean isEmoji(CharSequence text, int start, int end) {
+        if (text == null || start >= end) {
+            return false;
+        }
+        
+        for (int i = start; i < end; ) {
+            int codePoint = Character.codePointAt(text, i);
+            if (!isEmojiCodePoint(codePoint)) {
+                return false;
+            }
+            i += Character.charCount(codePoint);
+        }
+        
+        return true;
+    }
+    
     /**
      * Checks if a Unicode code point represents an emoji character.
      */
-    private static boolean isEmojiCodePoint(int codePoint) {
+    public static boolean isEmojiCodePoint(int codePoint) {
         // Common emoji Unicode blocks
         return (codePoint >= 0x1F600 && codePoint <= 0x1F64F) ||  // Emoticons
                (codePoint >= 0x1F300 && codePoint <= 0x1F5FF) ||  // Misc Symbols and Pictographs
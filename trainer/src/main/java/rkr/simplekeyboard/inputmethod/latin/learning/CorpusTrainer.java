@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkr.simplekeyboard.inputmethod.latin.learning;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Command line tool that counts the words, bigrams and trigrams of a plain text corpus and
+ * writes them as a {@link LearningSnapshot}, the binary format the keyboard loads.
+ *
+ * Input files are cut into chunks of a fixed size, ending at line breaks, which are counted
+ * in parallel on a fork/join pool and combined pairwise. Text goes through the keyboard's own
+ * {@link TextTokenizer} and {@link NGramModel}, so words and n-grams are split and normalized
+ * exactly as if they had been typed. The chunks do not depend on the number of threads and
+ * are always combined in the same order, so a corpus always gives the same file.
+ *
+ * Usage: {@code CorpusTrainer [options] --output <file> <corpus file>...}, with the options
+ * {@code --min-word-count}, {@code --min-ngram-count}, {@code --chunk-size} and
+ * {@code --threads}. Files are read as UTF-8, one or more sentences per line.
+ */
+public final class CorpusTrainer {
+    private static final int DEFAULT_MIN_WORD_COUNT = 2;
+    private static final int DEFAULT_MIN_NGRAM_COUNT = 2;
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private CorpusTrainer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String output = null;
+        int minWordCount = DEFAULT_MIN_WORD_COUNT;
+        int minNGramCount = DEFAULT_MIN_NGRAM_COUNT;
+        long chunkSize = DEFAULT_CHUNK_SIZE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        final List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (!arg.startsWith("--")) {
+                inputs.add(new File(arg));
+            } else if (i + 1 == args.length) {
+                throw usage("Missing value of " + arg);
+            } else if (arg.equals("--output")) {
+                output = args[++i];
+            } else if (arg.equals("--min-word-count")) {
+                minWordCount = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--min-ngram-count")) {
+                minNGramCount = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--chunk-size")) {
+                chunkSize = Long.parseLong(args[++i]);
+            } else if (arg.equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                throw usage("Unknown option " + arg);
+            }
+        }
+        if (output == null || inputs.isEmpty() || chunkSize <= 0 || threads <= 0) {
+            throw usage(null);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final Counts counts;
+        try {
+            counts = count(inputs, chunkSize, pool);
+        } finally {
+            pool.shutdown();
+        }
+        final ByteBuffer snapshot = toSnapshot(counts, minWordCount, minNGramCount);
+        final int size = snapshot.remaining();
+        try (FileOutputStream stream = new FileOutputStream(output);
+             FileChannel channel = stream.getChannel()) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+        }
+        System.out.println("Wrote " + counts.ngrams.size() + " n-grams, " + size + " bytes, to "
+                + output);
+    }
+
+    private static IllegalArgumentException usage(String error) {
+        return new IllegalArgumentException((error != null ? error + "\n" : "")
+                + "Usage: CorpusTrainer [--min-word-count n] [--min-ngram-count n]"
+                + " [--chunk-size bytes] [--threads n] --output <file> <corpus file>...");
+    }
+
+    /**
+     * Counts the words and n-grams of the files, chunk by chunk on the pool.
+     */
+    static Counts count(List<File> files, long chunkSize, ForkJoinPool pool) throws IOException {
+        final List<Chunk> chunks = new ArrayList<>();
+        for (final File file : files) {
+            if (!file.isFile()) {
+                throw new IOException("Cannot read " + file);
+            }
+            final long length = file.length();
+            for (long start = 0; start < length; start += chunkSize) {
+                chunks.add(new Chunk(file, start, Math.min(length, start + chunkSize)));
+            }
+        }
+        if (chunks.isEmpty()) {
+            return new Counts();
+        }
+        try {
+            return pool.invoke(new CountTask(chunks, 0, chunks.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the words and n-grams seen at least the given number of times as a snapshot,
+     * ready to be read. Words are put in sorted order, so the trie is laid out the same way
+     * however the counts were combined.
+     */
+    static ByteBuffer toSnapshot(Counts counts, int minWordCount, int minNGramCount) {
+        final String[] words = counts.words.keySet().toArray(new String[0]);
+        Arrays.sort(words);
+        final CompactWordTrie trie = new CompactWordTrie();
+        for (final String word : words) {
+            final int frequency = counts.words.get(word)[0];
+            if (frequency >= minWordCount) {
+                trie.putWord(word, frequency, 0);
+            }
+        }
+        counts.ngrams.prune(minNGramCount);
+
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(LearningSnapshot.getSize(trie, counts.ngrams));
+        LearningSnapshot.write(buffer, trie, counts.ngrams, 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Word and n-gram counts of part of the corpus.
+     */
+    static final class Counts {
+        final Map<String, int[]> words = new HashMap<>();
+        final NGramModel ngrams = newModel();
+        private final TextTokenizer tokenizer = new TextTokenizer();
+
+        /**
+         * Counts the words and n-grams of one line of text.
+         */
+        void addLine(String line) {
+            tokenizer.tokenize(line);
+            final int count = tokenizer.getCount();
+            for (int i = 0; i < count; i++) {
+                // The words the keyboard learns: emojis, and words with a letter
+                final int type = tokenizer.getType(i);
+                if (type == TextTokenizer.TYPE_EMOJI || (type == TextTokenizer.TYPE_WORD
+                        && TextTokenizer.containsLetter(line, tokenizer.getStart(i),
+                                tokenizer.getEnd(i)))) {
+                    addWord(tokenizer.getToken(i).toLowerCase(Locale.ROOT), 1);
+                }
+            }
+            ngrams.learnFromTokens(tokenizer);
+        }
+
+        /**
+         * Adds the counts of the other part to these.
+         */
+        void add(Counts other) {
+            for (final Map.Entry<String, int[]> entry : other.words.entrySet()) {
+                addWord(entry.getKey(), entry.getValue()[0]);
+            }
+            ngrams.addCounts(other.ngrams);
+        }
+
+        private void addWord(String word, int count) {
+            final int[] frequency = words.get(word);
+            if (frequency == null) {
+                words.put(word, new int[] {count});
+            } else {
+                frequency[0] = (int) Math.min(Integer.MAX_VALUE, (long) frequency[0] + count);
+            }
+        }
+
+        private static NGramModel newModel() {
+            // Everything is kept until the end, where rare n-grams are pruned
+            final NGramModel model = new NGramModel();
+            model.setMemoryBudget(Long.MAX_VALUE);
+            model.setDecayInterval(0);
+            return model;
+        }
+    }
+
+    /**
+     * The lines of a file that start within a range of bytes.
+     */
+    private static final class Chunk {
+        final File file;
+        final long start;
+        final long end;
+
+        Chunk(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Counts the lines that start in the chunk. The line running into the chunk belongs
+         * to the previous one, the line running out of it is read to its end.
+         */
+        Counts count() throws IOException {
+            final Counts counts = new Counts();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                // Read from the byte before the chunk, to know whether a line starts with it
+                long position = Math.max(0, start - 1);
+                channel.position(position);
+                final InputStream input =
+                        new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+                if (start > 0) {
+                    int b;
+                    do {
+                        b = input.read();
+                        position++;
+                    } while (b != -1 && b != '\n');
+                }
+                byte[] line = new byte[256];
+                int b = 0;
+                while (position < end && b != -1) {
+                    int length = 0;
+                    while ((b = input.read()) != -1 && b != '\n') {
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, length * 2);
+                        }
+                        line[length++] = (byte) b;
+                    }
+                    position += length + 1;
+                    // UTF-8 never has a line feed inside a multi-byte character
+                    counts.addLine(new String(line, 0, length, StandardCharsets.UTF_8));
+                }
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Counts a range of chunks, splitting it in halves until a single chunk is left, and
+     * combines the halves left to right.
+     */
+    private static final class CountTask extends RecursiveTask<Counts> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        CountTask(List<Chunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Counts compute() {
+            if (to - from == 1) {
+                try {
+                    return chunks.get(from).count();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            final int middle = (from + to) >>> 1;
+            final CountTask left = new CountTask(chunks, from, middle);
+            left.fork();
+            final Counts right = new CountTask(chunks, middle, to).compute();
+            final Counts counts = left.join();
+            counts.add(right);
+            return counts;
+        }
+    }
+}